@@ -0,0 +1,41 @@
+package org.gwtproject.rpc.serialization.stream.bytebuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of the buffers that a {@link ByteBufferSerializationStreamWriter} writes into. Buffers
+ * are handed back via {@link #release(ByteBuffer)} once the transport is finished with them, so
+ * that later messages can reuse them instead of allocating new ones.
+ * <p></p>
+ * Implementations decide if they are safe to share between threads - a pool per connection will
+ * usually see no contention at all, while a single pool shared by all connections will see more
+ * reuse.
+ */
+public interface ByteBufferPool {
+    /**
+     * Pool which allocates a new buffer for every request, and lets released buffers be collected.
+     */
+    ByteBufferPool UNPOOLED = new ByteBufferPool() {
+        @Override
+        public ByteBuffer acquire(int minCapacity) {
+            return ByteBuffer.allocate(minCapacity);
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            // nothing to do, let it be collected
+        }
+    };
+
+    /**
+     * Returns a buffer with at least the given capacity, cleared and ready to be written to. The
+     * byte order of the buffer is not specified, callers must set it.
+     */
+    ByteBuffer acquire(int minCapacity);
+
+    /**
+     * Returns a buffer previously obtained from {@link #acquire(int)} to this pool. The caller must
+     * not use the buffer, or any view or slice of it, after this call.
+     */
+    void release(ByteBuffer buffer);
+}
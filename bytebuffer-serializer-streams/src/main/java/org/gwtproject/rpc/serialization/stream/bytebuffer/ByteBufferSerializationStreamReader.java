@@ -28,9 +28,22 @@ public class ByteBufferSerializationStreamReader extends AbstractSerializationSt
         bb.limit(bb.position() + length);
         setVersion(version);
         setFlags(flags);
+        checkFlags(serializer);
     }
 
     public ByteBufferSerializationStreamReader(TypeSerializer serializer, ByteBuffer bb) {
+        this(serializer, bb, (StringDictionary) null);
+    }
+
+    /**
+     * Reads a full payload, which may have a string table built against a {@link StringDictionary}
+     * if the connection negotiated one. The dictionary is updated with the strings in this message,
+     * so the payloads of a connection must be read one at a time, in the order they arrived.
+     *
+     * @param dictionary the dictionary of strings sent earlier on the connection, or null if
+     *                   there is none, in which case payloads which need it are rejected
+     */
+    public ByteBufferSerializationStreamReader(TypeSerializer serializer, ByteBuffer bb, StringDictionary dictionary) {
         bb.order(ByteOrder.LITTLE_ENDIAN);
 
         this.serializer = serializer;
@@ -40,29 +53,51 @@ public class ByteBufferSerializationStreamReader extends AbstractSerializationSt
         int length = bb.getInt();
         setVersion(version);
         setFlags(flags);
+        checkFlags(serializer);
 
         //strings are in the payload, read them out first and assign them
         String[] strings = new String[0];
         // see if there is a stringCount, and thus strings present
         if (bb.limit() > (3 << 2) + length) {
-            int stringsCount = bb.getInt((3 << 2) + length);
+            bb.position((3 << 2) + length);//3 headers
+            int stringsCount = readLength();
             if (stringsCount < 1) {
                 throw new IllegalArgumentException("Invalid string count in payload: " + stringsCount);
             }
-            bb.position((4 << 2) + length);//3 headers + 1 count
             // ensure there is enough space for at least that many string lengths left
-            if (bb.remaining() < stringsCount << 2) {
-                throw new IllegalArgumentException("Payload claims to have " + stringsCount + " strings, but only has space left for " + (bb.remaining() >> 2));
+            int minLengthBytes = isVarintEncoding() ? stringsCount : stringsCount << 2;
+            if (bb.remaining() < minLengthBytes) {
+                throw new IllegalArgumentException("Payload claims to have " + stringsCount + " strings, but only has space left for " + (isVarintEncoding() ? bb.remaining() : bb.remaining() >> 2));
+            }
+            boolean useDictionary = hasFlags(FLAG_STRING_DICTIONARY);
+            if (useDictionary) {
+                if (dictionary == null) {
+                    throw new IllegalArgumentException("Payload refers to a string dictionary, but none was negotiated");
+                }
+                dictionary.useReadCapacity(readLength());
             }
             strings = new String[stringsCount];
             for (int i = 0; i < stringsCount; i++) {
-                int stringLength = bb.getInt();
-                if (bb.remaining() < stringLength) {
+                int stringLength = readLength();
+                boolean add = false;
+                if (useDictionary) {
+                    // see ByteBufferSerializationStreamWriter.putDictionaryStringTable
+                    if ((stringLength & 1) != 0) {
+                        strings[i] = dictionary.get(stringLength >>> 1);
+                        continue;
+                    }
+                    add = (stringLength & 2) != 0;
+                    stringLength >>>= 2;
+                }
+                if (stringLength < 0 || bb.remaining() < stringLength) {
                     throw new IllegalArgumentException("Payload claims to have a string with length " + stringLength + " but only " + bb.remaining() + " bytes remain");
                 }
                 byte[] bytes = new byte[stringLength];
                 bb.get(bytes);
                 strings[i] = new String(bytes, Charset.forName("UTF-8"));
+                if (add) {
+                    dictionary.add(strings[i]);
+                }
             }
         }
 
@@ -75,6 +110,41 @@ public class ByteBufferSerializationStreamReader extends AbstractSerializationSt
         this.strings = strings;
     }
 
+    private int readLength() {
+        if (isVarintEncoding()) {
+            return readVarint();
+        }
+        return bb.getInt();
+    }
+
+    private boolean isVarintEncoding() {
+        return (getFlags() & FLAG_VARINT_ENCODING) != 0;
+    }
+
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = bb.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in payload");
+    }
+
+    private long readVarlong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = bb.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in payload");
+    }
+
     @Override
     protected Object deserialize(String s) throws com.google.gwt.user.client.rpc.SerializationException {
         int id = reserveDecodedObjectIndex();
@@ -84,6 +154,15 @@ public class ByteBufferSerializationStreamReader extends AbstractSerializationSt
         return instance;
     }
 
+    @Override
+    protected Object deserialize(int typeId) throws com.google.gwt.user.client.rpc.SerializationException {
+        int id = reserveDecodedObjectIndex();
+        Object instance = serializer.instantiate(this, typeId);
+        rememberDecodedObject(id, instance);
+        serializer.deserialize(this, instance, typeId);
+        return instance;
+    }
+
     @Override
     protected String getString(int i) {
         return i > 0 ? strings[i - 1] : null;
@@ -101,6 +180,9 @@ public class ByteBufferSerializationStreamReader extends AbstractSerializationSt
 
     @Override
     public char readChar() throws SerializationException {
+        if (isVarintEncoding()) {
+            return (char) readVarint();
+        }
         return bb.getChar();
     }
 
@@ -116,19 +198,101 @@ public class ByteBufferSerializationStreamReader extends AbstractSerializationSt
 
     @Override
     public int readInt() throws SerializationException {
+        if (isVarintEncoding()) {
+            int value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
         return bb.getInt();
     }
 
     @Override
     public long readLong() throws SerializationException {
+        if (isVarintEncoding()) {
+            long value = readVarlong();
+            return (value >>> 1) ^ -(value & 1);
+        }
         return bb.getLong();
     }
 
     @Override
     public short readShort() throws SerializationException {
+        if (isVarintEncoding()) {
+            int value = readVarint();
+            return (short) ((value >>> 1) ^ -(value & 1));
+        }
         return bb.getShort();
     }
 
+    @Override
+    public void readBooleans(boolean[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = bb.get() == 1;
+        }
+    }
+
+    @Override
+    public void readBytes(byte[] values, int offset, int length) throws SerializationException {
+        bb.get(values, offset, length);
+    }
+
+    @Override
+    public void readChars(char[] values, int offset, int length) throws SerializationException {
+        if (isVarintEncoding()) {
+            super.readChars(values, offset, length);
+            return;
+        }
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = bb.getChar();
+        }
+    }
+
+    @Override
+    public void readShorts(short[] values, int offset, int length) throws SerializationException {
+        if (isVarintEncoding()) {
+            super.readShorts(values, offset, length);
+            return;
+        }
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = bb.getShort();
+        }
+    }
+
+    @Override
+    public void readInts(int[] values, int offset, int length) throws SerializationException {
+        if (isVarintEncoding()) {
+            super.readInts(values, offset, length);
+            return;
+        }
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = bb.getInt();
+        }
+    }
+
+    @Override
+    public void readLongs(long[] values, int offset, int length) throws SerializationException {
+        if (isVarintEncoding()) {
+            super.readLongs(values, offset, length);
+            return;
+        }
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = bb.getLong();
+        }
+    }
+
+    @Override
+    public void readFloats(float[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = bb.getFloat();
+        }
+    }
+
+    @Override
+    public void readDoubles(double[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = bb.getDouble();
+        }
+    }
+
     @Override
     public String readString() throws SerializationException {
         return getString(readInt());
@@ -1,6 +1,7 @@
 package org.gwtproject.rpc.serialization.stream.bytebuffer;
 
 import org.gwtproject.rpc.serialization.api.SerializationException;
+import org.gwtproject.rpc.serialization.api.SerializedType;
 import org.gwtproject.rpc.serialization.api.TypeSerializer;
 import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStreamWriter;
 
@@ -9,30 +10,154 @@ import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Simple ByteBuffer-based serialization stream writer, which encodes the payload in a bytebuffer,
  * but stores strings in a string table. Subclasses might write all streams and the payload into
  * a single bytebuffer, suitable for sending over the wire or compressing, while others might keep
  * the data separate to avoid an extra copy, such as communicating between browser workers.
+ * <p></p>
+ * If {@link #FLAG_VARINT_ENCODING} is set before any data is written, ints, longs, shorts, chars and
+ * the lengths in the string table are written as varints, so that small values take fewer bytes.
+ * <p></p>
+ * Primitive arrays written with the bulk methods such as {@link #writeInts(int[], int, int)} are
+ * copied into the buffer through a view of the matching type, rather than a value at a time, unless
+ * they need to be written as varints. The bytes are the same either way.
+ * <p></p>
+ * If {@link #FLAG_STRING_DICTIONARY} is set, the string table can only be built against the
+ * connection's {@link StringDictionary}, so that strings sent in earlier messages are written as
+ * their index in the dictionary.
  */
 public class ByteBufferSerializationStreamWriter  extends AbstractSerializationStreamWriter {
-    private ByteBuffer bb;//initial size 1kb
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ByteBufferPool pool;
+
+    private ByteBuffer buffer;// the buffer obtained from the pool, bb is null or a view of this
+    private ByteBuffer bb;
+    private ByteBuffer extra;// additional buffer obtained from the pool for the string table or full payload, if any
 
     private final TypeSerializer serializer;
 
+    // set once the message is shared between transports, see retain()
+    private ByteBuffer shared;
+    private int sharedPayloadLength;
+    private AtomicInteger references;
+
     public ByteBufferSerializationStreamWriter(TypeSerializer serializer) {
+        this(serializer, ByteBufferPool.UNPOOLED);
+    }
+
+    /**
+     * Creates a writer which obtains its buffers from the given pool. Once the transport is finished
+     * with the bytes from this writer, {@link #release()} must be called to return the buffers.
+     */
+    public ByteBufferSerializationStreamWriter(TypeSerializer serializer, ByteBufferPool pool) {
         this.serializer = serializer;
-        bb = ByteBuffer.allocate(1024);
+        this.pool = pool;
+        if (!serializer.tracksObjectIdentity()) {
+            addFlags(FLAG_NO_OBJECT_IDENTITY);
+        }
+        buffer = pool.acquire(INITIAL_CAPACITY);
+        resetBuffer();
+    }
+
+    /**
+     * Prepares the writer for a new message, discarding anything written so far. Any buffers still
+     * held by this writer are reused, so the payload of the previous message must no longer be in
+     * use.
+     */
+    @Override
+    public void prepareToWrite() {
+        super.prepareToWrite();
+        releaseExtra();
+        if (buffer == null) {
+            buffer = pool.acquire(INITIAL_CAPACITY);
+        }
+        resetBuffer();
+    }
+
+    /**
+     * Returns any buffers held by this writer to its pool. The payload buffers returned from this
+     * writer must not be used after this call. The writer may be used again after calling
+     * {@link #prepareToWrite()}.
+     */
+    @Override
+    public void release() {
+        if (references != null && references.decrementAndGet() > 0) {
+            // still being sent elsewhere
+            return;
+        }
+        references = null;
+        shared = null;
+        releaseExtra();
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+        bb = null;
+    }
+
+    private void releaseExtra() {
+        if (extra != null) {
+            pool.release(extra);
+            extra = null;
+        }
+    }
+
+    private void resetBuffer() {
+        bb = buffer;
+        bb.clear();
         bb.order(ByteOrder.LITTLE_ENDIAN);
         bb.position(3 << 2);
     }
 
+    @Override
+    public int mark() {
+        return bb.position();
+    }
+
+    @Override
+    public void truncate(int mark) {
+        if (mark < (3 << 2) || mark > bb.position()) {
+            throw new IllegalArgumentException("Not a mark in the current payload: " + mark);
+        }
+        bb.position(mark);
+    }
+
+    /**
+     * Finishes the message and adds a reference to it, so that it can be passed to several transports.
+     * The full payload is built once, and each later call to {@link #getPayloadBytes()},
+     * {@link #getStringTableBytes()} or {@link #getFullPayload()} returns a new view of it, which can
+     * be consumed independently of the others. The buffers are returned to the pool when the last
+     * reference is released.
+     */
+    @Override
+    public ByteBufferSerializationStreamWriter retain() {
+        if (hasFlags(FLAG_STRING_DICTIONARY)) {
+            throw new IllegalStateException("Messages using a string dictionary can only be sent to the connection the dictionary belongs to");
+        }
+        if (references == null) {
+            shared = getFullPayload();
+            sharedPayloadLength = (3 << 2) + shared.getInt(2 << 2);
+            // the reference that the writer started with
+            references = new AtomicInteger(1);
+        }
+        references.incrementAndGet();
+        return this;
+    }
+
     /**
      * Gets the bytes for the stream. Can only be called once, will prevent more
-     * data from being written.
+     * data from being written, unless the writer has been {@link #retain() retained}.
      */
     public ByteBuffer getPayloadBytes() {
+        if (shared != null) {
+            ByteBuffer payload = shared.duplicate();
+            payload.limit(sharedPayloadLength);
+            return payload.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
         Objects.requireNonNull(bb);
 
         bb.limit(bb.position());
@@ -56,43 +181,227 @@ public class ByteBufferSerializationStreamWriter  extends AbstractSerializationS
         return stringTable.toArray(new String[0]);
     }
 
+    /**
+     * Gets the string table, encoded as it follows the payload in {@link #getFullPayload()}: the
+     * number of strings, then the length and UTF-8 bytes of each string. If there are no strings,
+     * the returned buffer is empty. Sending this directly after {@link #getPayloadBytes()} lets a
+     * transport write the message as two buffers, rather than copying both into a single buffer.
+     * <p></p>
+     * Should not be used together with {@link #getFullPayload()}.
+     */
+    public ByteBuffer getStringTableBytes() {
+        return getStringTableBytes(null);
+    }
+
+    /**
+     * Gets the string table as {@link #getStringTableBytes()} does, but if
+     * {@link #FLAG_STRING_DICTIONARY} is set, builds it against the given dictionary, which is
+     * updated with the strings in this message. The dictionary is ignored if the flag isn't set.
+     */
+    public ByteBuffer getStringTableBytes(StringDictionary dictionary) {
+        if (shared != null) {
+            ByteBuffer stringTable = shared.duplicate();
+            stringTable.position(sharedPayloadLength);
+            return stringTable.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (usesDictionary(dictionary)) {
+            return putDictionaryStringTable(null, dictionary);
+        }
+        byte[][] stringBytes = encodeStringTable();
+        if (stringBytes.length == 0) {
+            return ByteBuffer.allocate(0);
+        }
+
+        ByteBuffer bb = acquireExtra(stringTableSize(stringBytes));
+        putStringTable(bb, stringBytes);
+        bb.flip();
+
+        return bb;
+    }
+
     public ByteBuffer getFullPayload() {
+        return getFullPayload(null);
+    }
+
+    /**
+     * Gets the full payload as {@link #getFullPayload()} does, but if
+     * {@link #FLAG_STRING_DICTIONARY} is set, builds the string table against the given dictionary,
+     * which is updated with the strings in this message. The dictionary is ignored if the flag isn't
+     * set.
+     */
+    public ByteBuffer getFullPayload(StringDictionary dictionary) {
+        if (shared != null) {
+            return shared.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        boolean useDictionary = usesDictionary(dictionary);
         ByteBuffer payloadBytes = getPayloadBytes();
-        List<String> stringTable = getStringTable();
-        int stringCount = stringTable.size();
-        if (stringCount == 0) {
+        if (useDictionary) {
+            return putDictionaryStringTable(payloadBytes, dictionary);
+        }
+        byte[][] stringBytes = encodeStringTable();
+        if (stringBytes.length == 0) {
             return payloadBytes;
         }
 
-        // make a buffer big enough to store all strings (and lengths)
+        // make a buffer big enough to store the regular data and all strings (and lengths)
+        ByteBuffer bb = acquireExtra(payloadBytes.limit() + stringTableSize(stringBytes));
+
+        // append the payload, the count of strings, and the strings themselves
+        bb.put(payloadBytes);
+        putStringTable(bb, stringBytes);
 
-        // start with the size of the regular data, one int per string, and one int to count the strings
-        int size = payloadBytes.limit() + ((1 + stringCount) << 2);
+        bb.flip();
 
-        // add the length of each string in bytes, and store the converted strings so we don't need to do it again
+        return bb;
+    }
+
+    private ByteBuffer acquireExtra(int size) {
+        releaseExtra();
+        extra = pool.acquire(size);
+        extra.order(ByteOrder.LITTLE_ENDIAN);
+        return extra;
+    }
+
+    /**
+     * Converts each string to UTF-8, so that the size of the table is known before writing it.
+     */
+    private byte[][] encodeStringTable() {
+        List<String> stringTable = getStringTable();
+        int stringCount = stringTable.size();
         byte[][] stringBytes = new byte[stringCount][];
         for (int i = 0; i < stringCount; i++) {
-            byte[] bytes = stringTable.get(i).getBytes(Charset.forName("UTF-8"));
-            stringBytes[i] = bytes;
-            size += bytes.length;
+            stringBytes[i] = stringTable.get(i).getBytes(Charset.forName("UTF-8"));
         }
-        ByteBuffer bb = ByteBuffer.allocate(size);
-        bb.order(ByteOrder.LITTLE_ENDIAN);
+        return stringBytes;
+    }
 
-        // append the payload, the count of strings, and the strings themselves
-        bb.put(payloadBytes);
-        bb.putInt(stringCount);
+    private boolean usesDictionary(StringDictionary dictionary) {
+        if (!hasFlags(FLAG_STRING_DICTIONARY)) {
+            return false;
+        }
+        if (dictionary == null) {
+            throw new IllegalStateException("The string table of a message with FLAG_STRING_DICTIONARY can only be built with a dictionary");
+        }
+        return true;
+    }
+
+    /**
+     * Builds the string table against the dictionary, after the payload if there is one: the number
+     * of strings and the dictionary's capacity, then for each string either its index in the
+     * dictionary, shifted left with the low bit set, or its byte length shifted left by two, with
+     * the second bit set if the reader is to add it to its dictionary, followed by its UTF-8 bytes.
+     */
+    private ByteBuffer putDictionaryStringTable(ByteBuffer payloadBytes, StringDictionary dictionary) {
+        List<String> stringTable = getStringTable();
+        int stringCount = stringTable.size();
+        if (stringCount == 0) {
+            return payloadBytes == null ? ByteBuffer.allocate(0) : payloadBytes;
+        }
+        boolean varint = isVarintEncoding();
+        int capacity = dictionary.getWriteCapacity();
+        int[] entries = new int[stringCount];
+        byte[][] stringBytes = new byte[stringCount][];
+        int size = lengthSize(stringCount, varint) + lengthSize(capacity, varint);
         for (int i = 0; i < stringCount; i++) {
-            byte[] bytes = stringBytes[i];
-            bb.putInt(bytes.length);
-            bb.put(bytes);
+            String string = stringTable.get(i);
+            int index = dictionary.indexOf(string);
+            if (index != -1) {
+                entries[i] = (index << 1) | 1;
+            } else {
+                byte[] bytes = string.getBytes(Charset.forName("UTF-8"));
+                stringBytes[i] = bytes;
+                entries[i] = bytes.length << 2;
+                if (dictionary.accepts(string)) {
+                    dictionary.add(string);
+                    entries[i] |= 2;
+                }
+                size += bytes.length;
+            }
+            size += lengthSize(entries[i], varint);
         }
 
-        bb.position(0);
+        ByteBuffer bb = acquireExtra((payloadBytes == null ? 0 : payloadBytes.limit()) + size);
+        if (payloadBytes != null) {
+            bb.put(payloadBytes);
+        }
+        putLength(bb, stringCount, varint);
+        putLength(bb, capacity, varint);
+        for (int i = 0; i < stringCount; i++) {
+            putLength(bb, entries[i], varint);
+            if (stringBytes[i] != null) {
+                bb.put(stringBytes[i]);
+            }
+        }
+        bb.flip();
 
         return bb;
     }
 
+    private static int lengthSize(int length, boolean varint) {
+        return varint ? varintSize(length) : 4;
+    }
+
+    private int stringTableSize(byte[][] stringBytes) {
+        // one int to count the strings, one int per string for its length, then the bytes themselves
+        if (isVarintEncoding()) {
+            int size = varintSize(stringBytes.length);
+            for (byte[] bytes : stringBytes) {
+                size += varintSize(bytes.length) + bytes.length;
+            }
+            return size;
+        }
+        int size = (1 + stringBytes.length) << 2;
+        for (byte[] bytes : stringBytes) {
+            size += bytes.length;
+        }
+        return size;
+    }
+
+    private void putStringTable(ByteBuffer bb, byte[][] stringBytes) {
+        boolean varint = isVarintEncoding();
+        putLength(bb, stringBytes.length, varint);
+        for (byte[] bytes : stringBytes) {
+            putLength(bb, bytes.length, varint);
+            bb.put(bytes);
+        }
+    }
+
+    private static void putLength(ByteBuffer bb, int length, boolean varint) {
+        if (varint) {
+            putVarint(bb, length);
+        } else {
+            bb.putInt(length);
+        }
+    }
+
+    private boolean isVarintEncoding() {
+        return (getFlags() & FLAG_VARINT_ENCODING) != 0;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer bb, int value) {
+        while ((value & ~0x7F) != 0) {
+            bb.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        bb.put((byte) value);
+    }
+
+    private static void putVarlong(ByteBuffer bb, long value) {
+        while ((value & ~0x7FL) != 0) {
+            bb.put((byte) (((int) value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        bb.put((byte) value);
+    }
 
     @Override
     public String toString() {
@@ -102,7 +411,11 @@ public class ByteBufferSerializationStreamWriter  extends AbstractSerializationS
     @Override
     public void writeLong(long l) {
         maybeGrow();
-        bb.putLong(l);
+        if (isVarintEncoding()) {
+            putVarlong(bb, (l << 1) ^ (l >> 63));
+        } else {
+            bb.putLong(l);
+        }
     }
 
     public void writeBoolean(boolean fieldValue) {
@@ -119,7 +432,11 @@ public class ByteBufferSerializationStreamWriter  extends AbstractSerializationS
     @Override
     public void writeChar(char ch) {
         maybeGrow();
-        bb.putChar(ch);
+        if (isVarintEncoding()) {
+            putVarint(bb, ch);
+        } else {
+            bb.putChar(ch);
+        }
     }
 
     @Override
@@ -137,22 +454,115 @@ public class ByteBufferSerializationStreamWriter  extends AbstractSerializationS
     @Override
     public void writeInt(int fieldValue) {
         maybeGrow();
-        bb.putInt(fieldValue);
+        if (isVarintEncoding()) {
+            putVarint(bb, (fieldValue << 1) ^ (fieldValue >> 31));
+        } else {
+            bb.putInt(fieldValue);
+        }
     }
 
     private void maybeGrow() {
-        if (bb.remaining() < 8) {//always want at least 8 bytes remaining for doubles or longs
+        //always want at least 10 bytes remaining for doubles or longs, even as varints
+        ensureRemaining(10);
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (bb.remaining() < bytes) {
             ByteBuffer old = bb;
-            bb = ByteBuffer.allocate(old.capacity() * 2);
+            buffer = pool.acquire(Math.max(old.capacity() * 2, old.position() + bytes));
+            bb = buffer;
             bb.order(ByteOrder.LITTLE_ENDIAN);
             bb.put((ByteBuffer) old.flip());
+            pool.release(old);
+        }
+    }
+
+    @Override
+    public void writeBooleans(boolean[] values, int offset, int length) {
+        ensureRemaining(length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            bb.put((byte) (values[i] ? 1 : 0));
+        }
+    }
+
+    @Override
+    public void writeBytes(byte[] values, int offset, int length) {
+        ensureRemaining(length);
+        bb.put(values, offset, length);
+    }
+
+    @Override
+    public void writeChars(char[] values, int offset, int length) throws SerializationException {
+        if (isVarintEncoding()) {
+            super.writeChars(values, offset, length);
+            return;
+        }
+        ensureRemaining(length << 1);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            bb.putChar(values[i]);
+        }
+    }
+
+    @Override
+    public void writeShorts(short[] values, int offset, int length) throws SerializationException {
+        if (isVarintEncoding()) {
+            super.writeShorts(values, offset, length);
+            return;
+        }
+        ensureRemaining(length << 1);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            bb.putShort(values[i]);
+        }
+    }
+
+    @Override
+    public void writeInts(int[] values, int offset, int length) throws SerializationException {
+        if (isVarintEncoding()) {
+            super.writeInts(values, offset, length);
+            return;
+        }
+        ensureRemaining(length << 2);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            bb.putInt(values[i]);
+        }
+    }
+
+    @Override
+    public void writeLongs(long[] values, int offset, int length) throws SerializationException {
+        if (isVarintEncoding()) {
+            super.writeLongs(values, offset, length);
+            return;
+        }
+        ensureRemaining(length << 3);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            bb.putLong(values[i]);
+        }
+    }
+
+    @Override
+    public void writeFloats(float[] values, int offset, int length) {
+        ensureRemaining(length << 2);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            bb.putFloat(values[i]);
+        }
+    }
+
+    @Override
+    public void writeDoubles(double[] values, int offset, int length) {
+        ensureRemaining(length << 3);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            bb.putDouble(values[i]);
         }
     }
 
     @Override
     public void writeShort(short value) {
         maybeGrow();
-        bb.putShort(value);
+        if (isVarintEncoding()) {
+            putVarint(bb, (value << 1) ^ (value >> 31));
+        } else {
+            bb.putShort(value);
+        }
     }
 
     @Override
@@ -160,6 +570,11 @@ public class ByteBufferSerializationStreamWriter  extends AbstractSerializationS
         //strangely enough, we do nothing, and wait until we actually are asked to write the whole thing out
     }
 
+    @Override
+    protected SerializedType getSerializedType(Object o) {
+        return serializer.getSerializedType(o.getClass());
+    }
+
     @Override
     protected String getObjectTypeSignature(Object o) throws SerializationException {
         Class clazz = o.getClass();
@@ -171,9 +586,24 @@ public class ByteBufferSerializationStreamWriter  extends AbstractSerializationS
         return this.serializer.getSerializationSignature(clazz);
     }
 
+    @Override
+    protected int getObjectTypeId(Object o) {
+        Class clazz = o.getClass();
+        if(o instanceof Enum) {
+            Enum e = (Enum)o;
+            clazz = e.getDeclaringClass();
+        }
+
+        return this.serializer.getTypeId(clazz);
+    }
+
     @Override
     protected void serialize(Object o, String s) throws com.google.gwt.user.client.rpc.SerializationException {
         this.serializer.serialize(this, o, s);
     }
-}
 
+    @Override
+    protected void serialize(Object o, int typeId) throws com.google.gwt.user.client.rpc.SerializationException {
+        this.serializer.serialize(this, o, typeId);
+    }
+}
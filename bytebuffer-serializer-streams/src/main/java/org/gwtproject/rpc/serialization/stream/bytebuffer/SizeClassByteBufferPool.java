@@ -0,0 +1,114 @@
+package org.gwtproject.rpc.serialization.stream.bytebuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool which rounds each request up to a power of two, and keeps a small number of released
+ * buffers for each of those size classes. Requests larger than the biggest size class are
+ * allocated normally and not retained when released.
+ * <p></p>
+ * Access to the retained buffers is synchronized so that one pool may be shared between
+ * connections, but as the lock is only held long enough to take or return a buffer, a pool per
+ * connection is usually uncontended.
+ */
+public class SizeClassByteBufferPool implements ByteBufferPool {
+    /**
+     * Smallest buffer handed out, matches the initial size of an unpooled writer.
+     */
+    public static final int MIN_CAPACITY = 1024;
+
+    /**
+     * Default size of the biggest buffer which will be retained.
+     */
+    public static final int DEFAULT_MAX_POOLED_CAPACITY = 64 * 1024;
+
+    /**
+     * Default number of buffers retained for each size class.
+     */
+    public static final int DEFAULT_MAX_BUFFERS_PER_CLASS = 4;
+
+    private final int maxPooledCapacity;
+    private final int maxBuffersPerClass;
+    private final boolean direct;
+    private final ArrayDeque<ByteBuffer>[] sizeClasses;
+
+    public SizeClassByteBufferPool() {
+        this(DEFAULT_MAX_POOLED_CAPACITY, DEFAULT_MAX_BUFFERS_PER_CLASS);
+    }
+
+    public SizeClassByteBufferPool(int maxPooledCapacity, int maxBuffersPerClass) {
+        this(maxPooledCapacity, maxBuffersPerClass, false);
+    }
+
+    /**
+     * Creates a pool with the given limits. If {@code direct} is true, buffers are allocated outside
+     * of the heap, so that transports which write to a socket can skip copying them to direct memory
+     * first. As direct buffers are expensive to allocate, this is best combined with a pool that is
+     * shared between connections.
+     */
+    @SuppressWarnings("unchecked")
+    public SizeClassByteBufferPool(int maxPooledCapacity, int maxBuffersPerClass, boolean direct) {
+        if (maxPooledCapacity < MIN_CAPACITY) {
+            throw new IllegalArgumentException("maxPooledCapacity must be at least " + MIN_CAPACITY);
+        }
+        this.maxPooledCapacity = roundUp(maxPooledCapacity);
+        this.maxBuffersPerClass = maxBuffersPerClass;
+        this.direct = direct;
+        sizeClasses = new ArrayDeque[sizeClass(this.maxPooledCapacity) + 1];
+        for (int i = 0; i < sizeClasses.length; i++) {
+            sizeClasses[i] = new ArrayDeque<>();
+        }
+    }
+
+    @Override
+    public ByteBuffer acquire(int minCapacity) {
+        if (minCapacity > maxPooledCapacity) {
+            return allocate(minCapacity);
+        }
+        int capacity = roundUp(minCapacity);
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = sizeClasses[sizeClass(capacity)].pollLast();
+        }
+        if (buffer == null) {
+            return allocate(capacity);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (capacity > maxPooledCapacity || capacity < MIN_CAPACITY || capacity != roundUp(capacity)) {
+            // not one of ours, let it be collected
+            return;
+        }
+        ArrayDeque<ByteBuffer> sizeClass = sizeClasses[sizeClass(capacity)];
+        synchronized (this) {
+            if (sizeClass.size() < maxBuffersPerClass) {
+                sizeClass.addLast(buffer);
+            }
+        }
+    }
+
+    /**
+     * Creates a new buffer when the pool has none to offer.
+     */
+    protected ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int roundUp(int capacity) {
+        if (capacity <= MIN_CAPACITY) {
+            return MIN_CAPACITY;
+        }
+        int highest = Integer.highestOneBit(capacity);
+        return highest == capacity ? capacity : highest << 1;
+    }
+
+    private static int sizeClass(int roundedCapacity) {
+        return Integer.numberOfTrailingZeros(roundedCapacity) - Integer.numberOfTrailingZeros(MIN_CAPACITY);
+    }
+}
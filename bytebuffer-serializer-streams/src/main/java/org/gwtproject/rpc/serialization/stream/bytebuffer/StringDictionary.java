@@ -0,0 +1,199 @@
+package org.gwtproject.rpc.serialization.stream.bytebuffer;
+
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Strings recently sent in one direction of a connection, so that a string which was sent before
+ * can be written as its index rather than in full, see
+ * {@link AbstractSerializationStream#FLAG_STRING_DICTIONARY}. The sending end passes its dictionary
+ * to {@link ByteBufferSerializationStreamWriter#getFullPayload(StringDictionary)} or
+ * {@link ByteBufferSerializationStreamWriter#getStringTableBytes(StringDictionary)}, and the
+ * receiving end passes its own to the reader of each message. An instance is only ever used for
+ * writing or for reading, never both.
+ * <p></p>
+ * Once the dictionary is full, the least recently used string is evicted to make room for the next,
+ * which takes over its index. Both ends only change their dictionary as string tables are written
+ * and read, and make exactly the same changes, so the two stay identical as long as every message
+ * is read in the order its string table was built. Transports must build the string tables in the
+ * order the messages will arrive, and must not drop a message once its string table was built.
+ * <p></p>
+ * Not thread safe, the transport must only build or read one string table at a time.
+ */
+public final class StringDictionary {
+    /**
+     * Default number of strings kept.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Default length of the longest string which is added to the dictionary, longer strings are
+     * always written in full, so they don't push out the short strings which tend to repeat.
+     */
+    public static final int DEFAULT_MAX_STRING_LENGTH = 256;
+
+    private final int maxCapacity;
+    private final int maxStringLength;
+
+    // the writer's own capacity, or whatever the writer declared, once the first table is read
+    private int capacity;
+    private String[] strings;
+    // least recently used order, doubly linked through the indexes
+    private int[] older;
+    private int[] newer;
+    private int oldest = -1;
+    private int newest = -1;
+    private int size;
+
+    // only needed when writing
+    private Map<String, Integer> indexes;
+
+    public StringDictionary() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_STRING_LENGTH);
+    }
+
+    /**
+     * @param capacity number of strings kept when writing, and the most that a writer may ask
+     *                 the reader to keep
+     * @param maxStringLength length of the longest string which is added when writing, ignored
+     *                        when reading, as the writer decides what is added
+     */
+    public StringDictionary(int capacity, int maxStringLength) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.maxCapacity = capacity;
+        this.maxStringLength = maxStringLength;
+    }
+
+    /**
+     * The capacity which a writer declares in each string table.
+     */
+    int getWriteCapacity() {
+        allocate(maxCapacity);
+        return maxCapacity;
+    }
+
+    /**
+     * Checks the capacity declared by the writer of a string table, and sizes the dictionary to it
+     * if this is the first.
+     */
+    void useReadCapacity(int declared) {
+        if (capacity == 0) {
+            if (declared < 1 || declared > maxCapacity) {
+                throw new IllegalArgumentException("Payload asks for a string dictionary of " + declared + " strings, but at most " + maxCapacity + " are allowed");
+            }
+            allocate(declared);
+        } else if (declared != capacity) {
+            throw new IllegalArgumentException("Payload asks for a string dictionary of " + declared + " strings, but earlier payloads asked for " + capacity);
+        }
+    }
+
+    private void allocate(int capacity) {
+        if (this.capacity == 0) {
+            this.capacity = capacity;
+            strings = new String[capacity];
+            older = new int[capacity];
+            newer = new int[capacity];
+        }
+    }
+
+    /**
+     * Returns true if the writer should add the given string, when it isn't already present.
+     */
+    boolean accepts(String string) {
+        return string.length() <= maxStringLength;
+    }
+
+    /**
+     * Returns the index of the given string and marks it as the most recently used, or returns -1
+     * if it isn't present.
+     */
+    int indexOf(String string) {
+        if (indexes == null) {
+            indexes = new HashMap<>();
+        }
+        Integer index = indexes.get(string);
+        if (index == null) {
+            return -1;
+        }
+        touch(index);
+        return index;
+    }
+
+    /**
+     * Returns the string with the given index and marks it as the most recently used.
+     */
+    String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IllegalArgumentException("Payload refers to dictionary string " + index + ", but the dictionary only holds " + size);
+        }
+        touch(index);
+        return strings[index];
+    }
+
+    /**
+     * Adds a string which isn't present, evicting the least recently used string if full, and
+     * returns its index.
+     */
+    int add(String string) {
+        int index;
+        if (size < capacity) {
+            index = size++;
+        } else {
+            index = oldest;
+            unlink(index);
+            if (indexes != null) {
+                indexes.remove(strings[index]);
+            }
+        }
+        strings[index] = string;
+        if (indexes != null) {
+            indexes.put(string, index);
+        }
+        linkNewest(index);
+        return index;
+    }
+
+    /**
+     * The number of strings currently held.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void touch(int index) {
+        if (index != newest) {
+            unlink(index);
+            linkNewest(index);
+        }
+    }
+
+    private void unlink(int index) {
+        int before = older[index];
+        int after = newer[index];
+        if (before == -1) {
+            oldest = after;
+        } else {
+            newer[before] = after;
+        }
+        if (after == -1) {
+            newest = before;
+        } else {
+            older[after] = before;
+        }
+    }
+
+    private void linkNewest(int index) {
+        older[index] = newest;
+        newer[index] = -1;
+        if (newest == -1) {
+            oldest = index;
+        } else {
+            newer[newest] = index;
+        }
+        newest = index;
+    }
+}
@@ -2,12 +2,19 @@ package org.gwtproject.rpc.serialization.stream.bytebuffer;
 
 import org.gwtproject.rpc.serialization.api.FieldSerializer;
 import org.gwtproject.rpc.serialization.api.SerializationException;
+import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
+import org.gwtproject.rpc.serialization.api.SerializationStreamWriter;
+import org.gwtproject.rpc.serialization.api.SerializedType;
 import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 import org.gwtproject.rpc.serialization.api.impl.TypeSerializerImpl;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -215,6 +222,90 @@ public class ByteBufferSerializationStreamTest {
         assertEquals("\0", reader.readString());
     }
 
+    @Test
+    public void testGatheredPayload() throws SerializationException {
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.writeInt(4);
+        writer.writeString("foo");
+        writer.writeString("✓");
+        writer.writeInt(5);
+
+        // simulate a gathering write, sending the two buffers one after the other
+        ByteBuffer payload = writer.getPayloadBytes();
+        ByteBuffer stringTable = writer.getStringTableBytes();
+        ByteBuffer wire = ByteBuffer.allocate(payload.remaining() + stringTable.remaining());
+        wire.put(payload).put(stringTable).flip();
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, wire);
+        assertEquals(4, reader.readInt());
+        assertEquals("foo", reader.readString());
+        assertEquals("✓", reader.readString());
+        assertEquals(5, reader.readInt());
+    }
+
+    @Test
+    public void testRetainedWriter() throws SerializationException {
+        List<ByteBuffer> released = new ArrayList<>();
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(t, new ByteBufferPool() {
+            @Override
+            public ByteBuffer acquire(int minCapacity) {
+                return ByteBuffer.allocate(minCapacity);
+            }
+
+            @Override
+            public void release(ByteBuffer buffer) {
+                released.add(buffer);
+            }
+        });
+        writer.setFlags(0);
+        writer.prepareToWrite();
+        writer.writeInt(4);
+        writer.writeString("foo");
+
+        // one reference for each of two recipients
+        writer.retain();
+        writer.retain();
+
+        for (int recipient = 0; recipient < 2; recipient++) {
+            ByteBufferSerializationStreamReader reader = getSinglePayloadStreamReader(writer);
+            assertEquals(4, reader.readInt());
+            assertEquals("foo", reader.readString());
+
+            ByteBuffer payload = writer.getPayloadBytes();
+            ByteBuffer stringTable = writer.getStringTableBytes();
+            ByteBuffer wire = ByteBuffer.allocate(payload.remaining() + stringTable.remaining());
+            wire.put(payload).put(stringTable).flip();
+            assertEquals(writer.getFullPayload(), wire);
+
+            writer.release();
+        }
+        assertTrue(released.isEmpty());
+
+        // the writer's own reference is the last one
+        writer.release();
+        assertFalse(released.isEmpty());
+    }
+
+    @Test
+    public void testTruncate() throws SerializationException {
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.writeInt(1);
+        writer.writeString("kept");
+        int mark = writer.mark();
+        // enough to grow the buffer past the mark
+        for (int i = 0; i < 1000; i++) {
+            writer.writeLong(i);
+        }
+        writer.writeString("discarded");
+        writer.truncate(mark);
+        writer.writeBoolean(true);
+
+        ByteBufferSerializationStreamReader reader = getSinglePayloadStreamReader(writer);
+        assertEquals(1, reader.readInt());
+        assertEquals("kept", reader.readString());
+        assertTrue(reader.readBoolean());
+    }
+
     @Test
     public void testManyStrings() throws SerializationException {
         ByteBufferSerializationStreamWriter writer = getStreamWriter();
@@ -252,4 +343,580 @@ public class ByteBufferSerializationStreamTest {
         }
     }
 
+    @Test
+    public void testVarintEncoding() throws SerializationException {
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.setFlags(ByteBufferSerializationStreamWriter.FLAG_VARINT_ENCODING);
+
+        int[] ints = {0, 1, -1, 63, -64, 64, 1000, -1000, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        long[] longs = {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        short[] shorts = {0, 1, -1, Short.MAX_VALUE, Short.MIN_VALUE};
+        char[] chars = {0, 'a', '✓', Character.MAX_VALUE};
+        for (int i : ints) {
+            writer.writeInt(i);
+        }
+        for (long l : longs) {
+            writer.writeLong(l);
+        }
+        for (short value : shorts) {
+            writer.writeShort(value);
+        }
+        for (char ch : chars) {
+            writer.writeChar(ch);
+        }
+        writer.writeString("foo");
+        writer.writeString("✓");
+        writer.writeDouble(1.5);
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload());
+        assertEquals(ByteBufferSerializationStreamWriter.FLAG_VARINT_ENCODING, reader.getFlags());
+        for (int i : ints) {
+            assertEquals(i, reader.readInt());
+        }
+        for (long l : longs) {
+            assertEquals(l, reader.readLong());
+        }
+        for (short value : shorts) {
+            assertEquals(value, reader.readShort());
+        }
+        for (char ch : chars) {
+            assertEquals(ch, reader.readChar());
+        }
+        assertEquals("foo", reader.readString());
+        assertEquals("✓", reader.readString());
+        assertEquals(1.5, reader.readDouble(), 0);
+    }
+
+    @Test
+    public void testVarintEncodingIsSmaller() throws SerializationException {
+        ByteBufferSerializationStreamWriter fixed = getStreamWriter();
+        ByteBufferSerializationStreamWriter varint = getStreamWriter();
+        varint.setFlags(ByteBufferSerializationStreamWriter.FLAG_VARINT_ENCODING);
+        for (ByteBufferSerializationStreamWriter writer : new ByteBufferSerializationStreamWriter[] {fixed, varint}) {
+            for (int i = 0; i < 100; i++) {
+                writer.writeInt(i);
+                writer.writeLong(i);
+                writer.writeString("string #" + (i % 3));
+            }
+        }
+        int fixedSize = fixed.getFullPayload().remaining();
+        int varintSize = varint.getFullPayload().remaining();
+        assertTrue(varintSize + " should be less than half of " + fixedSize, varintSize * 2 < fixedSize);
+    }
+
+    @Test
+    public void testBulkArrays() throws Exception {
+        for (int flags : new int[] {0, ByteBufferSerializationStreamWriter.FLAG_VARINT_ENCODING}) {
+            boolean[] booleans = {true, false, false, true};
+            byte[] bytes = new byte[3000];
+            char[] chars = {0, 'a', '✓', Character.MAX_VALUE};
+            short[] shorts = {0, 1, -1, Short.MAX_VALUE, Short.MIN_VALUE};
+            int[] ints = new int[1000];
+            long[] longs = {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE};
+            float[] floats = {0, 1.5f, Float.NaN, Float.MIN_VALUE};
+            double[] doubles = new double[500];
+            for (int i = 0; i < ints.length; i++) {
+                ints[i] = i * 7919 - 500;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) i;
+            }
+            for (int i = 0; i < doubles.length; i++) {
+                doubles[i] = i / 3.0;
+            }
+
+            // bulk writes must produce the same bytes as writing each value
+            ByteBufferSerializationStreamWriter bulk = getStreamWriter();
+            ByteBufferSerializationStreamWriter scalar = getStreamWriter();
+            bulk.setFlags(flags);
+            scalar.setFlags(flags);
+            bulk.writeInt(7);
+            bulk.writeBooleans(booleans, 0, booleans.length);
+            bulk.writeBytes(bytes, 0, bytes.length);
+            bulk.writeChars(chars, 0, chars.length);
+            bulk.writeShorts(shorts, 0, shorts.length);
+            bulk.writeInts(ints, 0, ints.length);
+            bulk.writeLongs(longs, 1, 3);
+            bulk.writeFloats(floats, 0, floats.length);
+            bulk.writeDoubles(doubles, 0, doubles.length);
+            scalar.writeInt(7);
+            for (boolean value : booleans) {
+                scalar.writeBoolean(value);
+            }
+            for (byte value : bytes) {
+                scalar.writeByte(value);
+            }
+            for (char value : chars) {
+                scalar.writeChar(value);
+            }
+            for (short value : shorts) {
+                scalar.writeShort(value);
+            }
+            for (int value : ints) {
+                scalar.writeInt(value);
+            }
+            for (int i = 1; i < 4; i++) {
+                scalar.writeLong(longs[i]);
+            }
+            for (float value : floats) {
+                scalar.writeFloat(value);
+            }
+            for (double value : doubles) {
+                scalar.writeDouble(value);
+            }
+            ByteBuffer payload = bulk.getFullPayload();
+            assertEquals(scalar.getFullPayload(), payload);
+
+            ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, payload);
+            assertEquals(7, reader.readInt());
+            boolean[] readBooleans = new boolean[booleans.length];
+            reader.readBooleans(readBooleans, 0, readBooleans.length);
+            assertArrayEquals(booleans, readBooleans);
+            byte[] readBytes = new byte[bytes.length];
+            reader.readBytes(readBytes, 0, readBytes.length);
+            assertArrayEquals(bytes, readBytes);
+            char[] readChars = new char[chars.length];
+            reader.readChars(readChars, 0, readChars.length);
+            assertArrayEquals(chars, readChars);
+            short[] readShorts = new short[shorts.length];
+            reader.readShorts(readShorts, 0, readShorts.length);
+            assertArrayEquals(shorts, readShorts);
+            int[] readInts = new int[ints.length];
+            reader.readInts(readInts, 0, readInts.length);
+            assertArrayEquals(ints, readInts);
+            long[] readLongs = new long[5];
+            reader.readLongs(readLongs, 2, 3);
+            assertArrayEquals(new long[] {0, 0, 1, -1, Long.MAX_VALUE}, readLongs);
+            float[] readFloats = new float[floats.length];
+            reader.readFloats(readFloats, 0, readFloats.length);
+            assertArrayEquals(floats, readFloats, 0);
+            double[] readDoubles = new double[doubles.length];
+            reader.readDoubles(readDoubles, 0, readDoubles.length);
+            assertArrayEquals(doubles, readDoubles, 0);
+        }
+    }
+
+    @Test
+    public void testTypeIds() throws Exception {
+        FieldSerializer stringSerializer = new FieldSerializer() {
+            @Override
+            public Object create(SerializationStreamReader reader) throws SerializationException {
+                return reader.readString();
+            }
+
+            @Override
+            public void deserial(SerializationStreamReader reader, Object instance) {
+            }
+
+            @Override
+            public void serial(SerializationStreamWriter writer, Object instance) throws SerializationException {
+                writer.writeString((String) instance);
+            }
+        };
+        TypeSerializer ids = new TypeSerializerImpl() {
+            @Override
+            protected FieldSerializer serializer(String name) {
+                throw new IllegalArgumentException(name);
+            }
+
+            @Override
+            protected FieldSerializer serializer(int typeId) {
+                assertEquals(0, typeId);
+                return stringSerializer;
+            }
+
+            @Override
+            public int getTypeId(Class<?> clazz) {
+                return clazz == String.class ? 0 : -1;
+            }
+
+            @Override
+            public String getChecksum() {
+                return "";
+            }
+        };
+
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(ids);
+        writer.setFlags(AbstractSerializationStream.FLAG_TYPE_IDS);
+        writer.writeObject("foo");
+        writer.writeObject(null);
+        writer.writeObject("bar");
+        // only the values end up in the string table, not the type signature
+        assertArrayEquals(new String[] {"foo", "bar"}, writer.getFinishedStringTable());
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(ids, writer.getFullPayload());
+        assertEquals(AbstractSerializationStream.FLAG_TYPE_IDS, reader.getFlags());
+        assertEquals("foo", reader.readObject());
+        assertNull(reader.readObject());
+        assertEquals("bar", reader.readObject());
+
+        ByteBufferSerializationStreamWriter unknown = new ByteBufferSerializationStreamWriter(ids);
+        unknown.setFlags(AbstractSerializationStream.FLAG_TYPE_IDS);
+        try {
+            unknown.writeObject(1);
+            fail("Integer has no type id");
+        } catch (SerializationException expected) {
+            // expected
+        }
+    }
+
+    enum Direction {
+        UP {
+            @Override
+            Direction opposite() {
+                return DOWN;
+            }
+        },
+        DOWN {
+            @Override
+            Direction opposite() {
+                return UP;
+            }
+        };
+
+        abstract Direction opposite();
+    }
+
+    @Test
+    public void testSerializedTypes() throws Exception {
+        FieldSerializer enumSerializer = new FieldSerializer() {
+            @Override
+            public Object create(SerializationStreamReader reader) throws SerializationException {
+                return Direction.values()[reader.readInt()];
+            }
+
+            @Override
+            public void deserial(SerializationStreamReader reader, Object instance) {
+            }
+
+            @Override
+            public void serial(SerializationStreamWriter writer, Object instance) throws SerializationException {
+                writer.writeInt(((Direction) instance).ordinal());
+            }
+        };
+        List<Class<?>> lookedUp = new ArrayList<>();
+        TypeSerializer cached = new TypeSerializerImpl() {
+            @Override
+            protected FieldSerializer serializer(String name) {
+                assertEquals(Direction.class.getCanonicalName(), name);
+                return enumSerializer;
+            }
+
+            @Override
+            public SerializedType getSerializedType(Class<?> clazz) {
+                lookedUp.add(clazz);
+                Class<?> serializedClass = getSerializedClass(clazz);
+                assertEquals(Direction.class, serializedClass);
+                return new SerializedType(getSerializationSignature(serializedClass), -1, enumSerializer);
+            }
+
+            @Override
+            public String getChecksum() {
+                return "";
+            }
+        };
+
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(cached);
+        writer.setFlags(0);
+        writer.writeObject(Direction.UP);
+        writer.writeObject(Direction.DOWN);
+        assertEquals(Arrays.asList(Direction.UP.getClass(), Direction.DOWN.getClass()), lookedUp);
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(cached, writer.getFullPayload());
+        assertSame(Direction.UP, reader.readObject());
+        assertSame(Direction.DOWN, reader.readObject());
+    }
+
+    static class Node {
+        int value;
+    }
+
+    private final FieldSerializer nodeSerializer = new FieldSerializer() {
+        @Override
+        public Object create(SerializationStreamReader reader) {
+            return new Node();
+        }
+
+        @Override
+        public void deserial(SerializationStreamReader reader, Object instance) throws SerializationException {
+            ((Node) instance).value = reader.readInt();
+        }
+
+        @Override
+        public void serial(SerializationStreamWriter writer, Object instance) throws SerializationException {
+            writer.writeInt(((Node) instance).value);
+        }
+    };
+
+    @Test
+    public void testBackReferences() throws Exception {
+        TypeSerializer nodes = new TypeSerializerImpl() {
+            @Override
+            protected FieldSerializer serializer(String name) {
+                return nodeSerializer;
+            }
+
+            @Override
+            public String getChecksum() {
+                return "";
+            }
+        };
+
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(nodes, new SizeClassByteBufferPool());
+        writer.setFlags(0);
+        writer.prepareToWrite();
+        for (int message = 0; message < 2; message++) {
+            // enough objects to grow the identity table several times, each written twice
+            Node[] written = new Node[1000];
+            for (int i = 0; i < written.length; i++) {
+                written[i] = new Node();
+                written[i].value = i;
+                writer.writeObject(written[i]);
+            }
+            for (int i = written.length - 1; i >= 0; i--) {
+                writer.writeObject(written[i]);
+            }
+
+            ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(nodes, writer.getFullPayload());
+            Node[] read = new Node[written.length];
+            for (int i = 0; i < read.length; i++) {
+                read[i] = (Node) reader.readObject();
+                assertEquals(i, read[i].value);
+            }
+            for (int i = read.length - 1; i >= 0; i--) {
+                assertSame(read[i], reader.readObject());
+            }
+
+            // objects from the previous message are forgotten once the writer is reused
+            writer.release();
+            writer.prepareToWrite();
+        }
+    }
+
+    @Test
+    public void testNoObjectIdentity() throws Exception {
+        TypeSerializer trees = new TypeSerializerImpl() {
+            @Override
+            protected FieldSerializer serializer(String name) {
+                return nodeSerializer;
+            }
+
+            @Override
+            public boolean tracksObjectIdentity() {
+                return false;
+            }
+
+            @Override
+            public String getChecksum() {
+                return "";
+            }
+        };
+
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(trees);
+        assertTrue(writer.hasFlags(AbstractSerializationStream.FLAG_NO_OBJECT_IDENTITY));
+        Node node = new Node();
+        node.value = 7;
+        writer.writeObject(node);
+        writer.writeObject(node);
+
+        // without identity, the same object is written twice and read as two copies
+        ByteBuffer payload = writer.getFullPayload();
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(trees, payload.duplicate());
+        Node first = (Node) reader.readObject();
+        Node second = (Node) reader.readObject();
+        assertEquals(7, first.value);
+        assertEquals(7, second.value);
+        assertNotSame(first, second);
+
+        // a reader expecting back-references refuses the stream
+        try {
+            new ByteBufferSerializationStreamReader(t, payload.duplicate());
+            fail("Reader should reject a stream written without object identity");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        // and the other way around
+        ByteBufferSerializationStreamWriter tracking = getStreamWriter();
+        tracking.writeInt(1);
+        try {
+            new ByteBufferSerializationStreamReader(trees, tracking.getFullPayload());
+            fail("Reader should reject a stream written with object identity");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWriterReuse() throws SerializationException {
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(t, new SizeClassByteBufferPool());
+        writer.setFlags(0);
+        writer.prepareToWrite();
+
+        for (int message = 0; message < 3; message++) {
+            // grow past the initial buffer size each time
+            for (int i = 0; i < 1000; i++) {
+                writer.writeInt(message * 1000 + i);
+            }
+            writer.writeString("message #" + message);
+
+            ByteBufferSerializationStreamReader reader = getSinglePayloadStreamReader(writer);
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(message * 1000 + i, reader.readInt());
+            }
+            assertEquals("message #" + message, reader.readString());
+
+            writer.release();
+            writer.prepareToWrite();
+        }
+    }
+
+    @Test
+    public void testDirectBuffers() throws SerializationException {
+        SizeClassByteBufferPool pool = new SizeClassByteBufferPool(SizeClassByteBufferPool.DEFAULT_MAX_POOLED_CAPACITY, 1, true);
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(t, pool);
+        writer.setFlags(0);
+        for (int i = 0; i < 1000; i++) {
+            writer.writeLong(i);
+        }
+        writer.writeString("direct");
+
+        ByteBuffer payload = writer.getFullPayload();
+        assertTrue(payload.isDirect());
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, payload);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, reader.readLong());
+        }
+        assertEquals("direct", reader.readString());
+        writer.release();
+    }
+
+    @Test
+    public void testPooledBuffersAreReused() {
+        SizeClassByteBufferPool pool = new SizeClassByteBufferPool();
+
+        ByteBuffer first = pool.acquire(100);
+        assertEquals(SizeClassByteBufferPool.MIN_CAPACITY, first.capacity());
+        first.putInt(1);
+        pool.release(first);
+
+        ByteBuffer second = pool.acquire(SizeClassByteBufferPool.MIN_CAPACITY);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+
+        ByteBuffer larger = pool.acquire(SizeClassByteBufferPool.MIN_CAPACITY + 1);
+        assertEquals(2 * SizeClassByteBufferPool.MIN_CAPACITY, larger.capacity());
+
+        // buffers too big for the pool are not retained
+        ByteBuffer huge = pool.acquire(SizeClassByteBufferPool.DEFAULT_MAX_POOLED_CAPACITY + 1);
+        pool.release(huge);
+        assertNotSame(huge, pool.acquire(SizeClassByteBufferPool.DEFAULT_MAX_POOLED_CAPACITY + 1));
+    }
+
+    @Test
+    public void testStringDictionary() throws SerializationException {
+        for (int flags : new int[] {0, ByteBufferSerializationStreamWriter.FLAG_VARINT_ENCODING}) {
+            StringDictionary sending = new StringDictionary(4, 10);
+            StringDictionary receiving = new StringDictionary(4, 10);
+            int[] sizes = new int[3];
+            for (int message = 0; message < 3; message++) {
+                ByteBufferSerializationStreamWriter writer = getStreamWriter();
+                writer.setFlags(flags | AbstractSerializationStream.FLAG_STRING_DICTIONARY);
+                writer.writeString("com.example.Type");
+                writer.writeString("user");
+                writer.writeString(null);
+                writer.writeString("a string too long to keep");
+                writer.writeString("message #" + message);
+                writer.writeString("user");
+
+                // build the message as a transport gathering the two buffers would
+                ByteBuffer payload = writer.getPayloadBytes();
+                ByteBuffer stringTable = writer.getStringTableBytes(sending);
+                ByteBuffer wire = ByteBuffer.allocate(payload.remaining() + stringTable.remaining());
+                wire.put(payload).put(stringTable).flip();
+                sizes[message] = wire.remaining();
+
+                ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, wire, receiving);
+                assertEquals("com.example.Type", reader.readString());
+                assertEquals("user", reader.readString());
+                assertNull(reader.readString());
+                assertEquals("a string too long to keep", reader.readString());
+                assertEquals("message #" + message, reader.readString());
+                assertEquals("user", reader.readString());
+            }
+            // later messages only write the one new string, and the one too long to keep, in full
+            assertTrue(sizes[1] < sizes[0]);
+            assertEquals(sizes[1], sizes[2]);
+            assertEquals(4, sending.size());
+            assertEquals(4, receiving.size());
+        }
+    }
+
+    @Test
+    public void testStringDictionaryEviction() throws SerializationException {
+        StringDictionary sending = new StringDictionary(8, StringDictionary.DEFAULT_MAX_STRING_LENGTH);
+        StringDictionary receiving = new StringDictionary(8, StringDictionary.DEFAULT_MAX_STRING_LENGTH);
+        java.util.Random random = new java.util.Random(1);
+        for (int message = 0; message < 200; message++) {
+            ByteBufferSerializationStreamWriter writer = getStreamWriter();
+            writer.setFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY);
+            // more distinct strings than fit, mostly from a few which are used often
+            String[] written = new String[random.nextInt(12)];
+            for (int i = 0; i < written.length; i++) {
+                written[i] = "string #" + (random.nextBoolean() ? random.nextInt(4) : random.nextInt(40));
+                writer.writeString(written[i]);
+            }
+
+            ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload(sending), receiving);
+            for (String string : written) {
+                assertEquals(string, reader.readString());
+            }
+        }
+        assertEquals(8, receiving.size());
+    }
+
+    @Test
+    public void testStringDictionaryRequired() throws SerializationException {
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.setFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY);
+        writer.writeString("foo");
+        try {
+            writer.retain();
+            fail("Writer should not be shared when it uses a dictionary");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        try {
+            writer.getStringTableBytes();
+            fail("Writer should need a dictionary for its string table");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+
+        try {
+            new ByteBufferSerializationStreamReader(t, writer.getFullPayload(new StringDictionary()));
+            fail("Reader should need a dictionary to read the string table");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        // a reader which hasn't seen the earlier messages can't resolve their strings
+        StringDictionary sending = new StringDictionary();
+        for (int message = 0; message < 2; message++) {
+            writer = getStreamWriter();
+            writer.setFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY);
+            writer.writeString("foo");
+            ByteBuffer payload = writer.getFullPayload(sending);
+            if (message == 1) {
+                try {
+                    new ByteBufferSerializationStreamReader(t, payload, new StringDictionary());
+                    fail("Reader should reject a string missing from its dictionary");
+                } catch (IllegalArgumentException expected) {
+                    // expected
+                }
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api;
+
+import org.gwtproject.rpc.api.impl.AbstractEndpointImpl;
+import org.gwtproject.rpc.api.impl.AbstractEndpointImpl.EndpointImplConstructor;
+import org.gwtproject.rpc.serialization.api.SerializationStreamWriter;
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A single call to a remote endpoint, serialized once so that it can be sent to any number
+ * of connected endpoints of the same type, rather than serializing the same arguments again
+ * for each of them. The call is made on an endpoint which isn't connected to anything, and
+ * the message it writes is shared by every transport it is sent to.
+ * <p>
+ * Only methods without callbacks can be broadcast, since each recipient would need its own
+ * callback. The writer factory must write the same format that the recipients' transports
+ * expect, so transports offer a helper to create broadcasts for their endpoints.
+ * <p>
+ * Once all recipients have been sent the message, call {@link #release()} so that its
+ * resources can be freed after the last transport finishes writing it.
+ *
+ * @param <E> the type of endpoint to send the call to
+ */
+public final class Broadcast<E> {
+	private final Class<?> endpointType;
+	private final SerializationStreamWriter writer;
+	private boolean released;
+
+	private Broadcast(Class<?> endpointType, SerializationStreamWriter writer) {
+		this.endpointType = endpointType;
+		this.writer = writer;
+	}
+
+	/**
+	 * Serializes the call made to the given consumer, so that it can be sent to many endpoints.
+	 *
+	 * @param constructor creates endpoints of the type the call will be sent to
+	 * @param writerFactory creates the writer for the message, as the recipients' transport does
+	 * @param call makes exactly one call on the endpoint it is given
+	 * @param <E> the type of endpoint to send the call to
+	 * @return the serialized call
+	 * @throws UnsupportedOperationException if the call is to a method with a callback
+	 */
+	public static <E, W extends SerializationStreamWriter> Broadcast<E> create(
+			EndpointImplConstructor<E> constructor,
+			Function<TypeSerializer, W> writerFactory,
+			Consumer<? super E> call) {
+		Class<?>[] endpointType = new Class<?>[1];
+		W writer = AbstractEndpointImpl.__record(constructor, writerFactory, endpoint -> {
+			endpointType[0] = endpoint.getClass();
+			call.accept(endpoint);
+		});
+		return new Broadcast<>(endpointType[0], writer);
+	}
+
+	/**
+	 * Sends the call to the given endpoint, through its own transport.
+	 *
+	 * @throws IllegalArgumentException if the endpoint isn't of the type the call was made on
+	 */
+	public void sendTo(E endpoint) {
+		if (released) {
+			throw new IllegalStateException("Broadcast has already been released");
+		}
+		if (endpoint.getClass() != endpointType) {
+			throw new IllegalArgumentException("Broadcast was written for " + endpointType.getName() + ", can't be sent to " + endpoint.getClass().getName());
+		}
+		((AbstractEndpointImpl) (Object) endpoint).__sendShared(writer);
+	}
+
+	/**
+	 * Sends the call to each of the given endpoints.
+	 */
+	public void sendTo(Iterable<? extends E> endpoints) {
+		for (E endpoint : endpoints) {
+			sendTo(endpoint);
+		}
+	}
+
+	/**
+	 * Indicates that the call won't be sent to any more endpoints. Transports which are still
+	 * writing it keep their own references, so this can be called as soon as the last
+	 * {@link #sendTo(Object)} returns.
+	 */
+	public void release() {
+		if (!released) {
+			released = true;
+			writer.release();
+		}
+	}
+}
@@ -45,4 +45,38 @@ public interface Callback<T, F> {
 	}
 	void onSuccess(T value);
 	void onFailure(F error);
+
+	/**
+	 * Called instead of {@link #onSuccess(Object)} or {@link #onFailure(Object)} if the endpoint has
+	 * a callback timeout, and no response arrived within it. Any response which arrives later is
+	 * ignored. By default nothing is done, so the callback is simply never called.
+	 */
+	default void onTimeout() {
+	}
+
+	/**
+	 * The time, in {@link System#currentTimeMillis()} terms, by which the caller needs a response,
+	 * or zero if there is no deadline.
+	 * <p></p>
+	 * When passing a callback to a remote call, overriding this gives that call its own deadline in
+	 * place of the endpoint's callback timeout. The deadline is sent along with the call, and the
+	 * remote endpoint drops the call without running it if the deadline has passed by the time it
+	 * is read, leaving the callback to time out.
+	 * <p></p>
+	 * On a callback handed to an endpoint implementation, this is the caller's deadline, translated
+	 * to the local clock. Long running work can check it to give up early, and can pass it on to
+	 * any calls it makes to other endpoints.
+	 */
+	default long getDeadline() {
+		return 0;
+	}
+
+	/**
+	 * On a callback handed to an endpoint implementation, returns true once the caller has
+	 * cancelled the call, see {@link Request#cancel()}. Work on the call can stop then, and any
+	 * response passed to this callback afterwards is ignored, rather than being sent.
+	 */
+	default boolean isCancelled() {
+		return false;
+	}
 }
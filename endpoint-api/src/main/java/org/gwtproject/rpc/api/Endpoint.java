@@ -73,4 +73,12 @@ public @interface Endpoint {
 	@interface BaseClass {
 		Class<?> value();
 	}
+
+	/**
+	 * Indicates that the messages sent in both directions between this endpoint and its remote
+	 * are trees, with no object referenced more than once, so the streams don't need to track
+	 * objects to write back-references. Only one of the two interfaces needs this annotation, and
+	 * a peer built without it will fail on the first message rather than misread it.
+	 */
+	@interface NoObjectIdentity {}
 }
@@ -0,0 +1,32 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api;
+
+/**
+ * Completes the future returned by an endpoint method when the remote implementation failed.
+ * The remote exception itself is not sent, as it may not be serializable, or even known to this
+ * side, and may describe details of the remote endpoint which the caller shouldn't see. It is
+ * reported to the remote endpoint's {@code onError} instead.
+ */
+public class RemoteCallException extends RuntimeException {
+	public RemoteCallException(String message) {
+		super(message);
+	}
+}
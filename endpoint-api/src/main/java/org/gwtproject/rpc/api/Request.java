@@ -0,0 +1,39 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api;
+
+/**
+ * A call which is waiting for its callback to be called. Endpoint methods which take a
+ * {@link Callback} may declare this as their return type, to let the caller give up on the call.
+ * Implementations of such methods on the receiving end should return null, the value is ignored.
+ */
+public interface Request {
+	/**
+	 * Stops waiting for the response. The callback won't be called after this, and the remote
+	 * endpoint is told, so that it can stop working on the call and doesn't send the response.
+	 * Does nothing if the call has already been answered, has timed out or was cancelled.
+	 */
+	void cancel();
+
+	/**
+	 * Returns true while the call is waiting for a response, and hasn't been cancelled.
+	 */
+	boolean isPending();
+}
@@ -72,5 +72,29 @@ public interface Server<S extends Server<S,C>, C extends Client<C,S>> {
 		void close();
 
 		void close(int closeCode, String closeReason);
+
+		/**
+		 * Returns false while the transport has as much data queued for this client as it will
+		 * hold, so that server code can hold back messages which aren't urgent. Transports which
+		 * don't limit their queue are always writable.
+		 */
+		default boolean isWritable() {
+			return true;
+		}
+
+		/**
+		 * Returns the number of bytes sent to this client which haven't been written yet, or zero
+		 * if the transport doesn't track it.
+		 */
+		default long getQueuedBytes() {
+			return 0;
+		}
+
+		/**
+		 * Runs the callback once this connection is writable again, or right away if it already is.
+		 */
+		default void onWritable(Runnable callback) {
+			callback.run();
+		}
 	}
 }
@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api;
+
+/**
+ * Callback for endpoint methods which answer with a stream of items rather than a single value.
+ * Taking one as the final parameter, in place of a {@link Callback}, lets the implementation send
+ * each item as soon as it has it, ending with {@link #onComplete()} or {@link #onFailure(Object)},
+ * so the caller sees the first items right away and neither side has to hold the whole result.
+ * <p></p>
+ * The caller controls how fast items arrive. It lets the implementation have at most
+ * {@link #getWindow()} items on their way at once, and hands out more credit as it finishes with
+ * each item, so a caller which is slow to handle items slows the implementation down, rather than
+ * having items pile up in memory. The implementation can check {@link #isReady()}, or wait for
+ * {@link #onReady(Runnable)}, before producing the next item. Items passed while there is no
+ * credit are queued, unserialized, until the caller is ready for them.
+ * <p></p>
+ * Streams need a connection that stays open, so they only work on websocket endpoints, not on
+ * remote services. They don't time out, but may be cancelled, see {@link Request}.
+ *
+ * @param <T> the type of each item
+ * @param <F> the type of the failure
+ */
+public interface StreamCallback<T, F> {
+	void onNext(T item);
+
+	void onComplete();
+
+	void onFailure(F error);
+
+	/**
+	 * On a callback passed to a call, the number of items that may be sent before the caller has
+	 * handled any of them. Larger windows hide more latency, smaller ones use less memory.
+	 */
+	default int getWindow() {
+		return 64;
+	}
+
+	/**
+	 * On a callback handed to an endpoint implementation, returns true if the next item would be
+	 * sent right away, rather than queued until the caller gives more credit.
+	 */
+	default boolean isReady() {
+		return true;
+	}
+
+	/**
+	 * On a callback handed to an endpoint implementation, runs the given callback once the next
+	 * item would be sent right away, immediately if it already would. The callback runs on the
+	 * thread which received the caller's credit, so should not block. It is not run if the call is
+	 * cancelled first.
+	 */
+	default void onReady(Runnable callback) {
+		callback.run();
+	}
+
+	/**
+	 * On a callback handed to an endpoint implementation, returns true once the caller has
+	 * cancelled the call. Anything passed to this callback afterwards is ignored.
+	 */
+	default boolean isCancelled() {
+		return false;
+	}
+}
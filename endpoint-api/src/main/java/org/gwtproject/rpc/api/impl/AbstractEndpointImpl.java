@@ -20,14 +20,19 @@
 package org.gwtproject.rpc.api.impl;
 
 import com.google.gwt.user.client.rpc.SerializationException;
+import org.gwtproject.rpc.api.Request;
 import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
 import org.gwtproject.rpc.serialization.api.SerializationStreamWriter;
 import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStreamReader;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStreamWriter;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -49,14 +54,82 @@ public abstract class AbstractEndpointImpl {
 		);
 	}
 
+	/**
+	 * Send function which is also told which remote method each message calls, so that a transport
+	 * can tell calls to the same method apart from each other when it has to drop or replace queued
+	 * messages. Transports which don't care can pass any {@link Consumer} as the send function.
+	 */
+	@FunctionalInterface
+	public interface KeyedSend<W> extends Consumer<W> {
+		/**
+		 * Key for messages which must be sent, such as responses and calls which expect a callback.
+		 */
+		int NO_KEY = -1;
+
+		/**
+		 * Sends the message, with the index of the remote method it calls, or {@link #NO_KEY}.
+		 */
+		void accept(W writer, int key);
+
+		@Override
+		default void accept(W writer) {
+			accept(writer, NO_KEY);
+		}
+	}
+
+	/**
+	 * Suggested limit for a batch of messages, see {@link #__enableBatching(Consumer, int)}.
+	 */
+	public static final int DEFAULT_MAX_BATCH_LENGTH = 64 * 1024;
+
+	/**
+	 * Recipient of a message cancelling a call, followed by the callback id of the call. A positive
+	 * id cancels a call made to the receiving endpoint, a negative id tells the receiving endpoint
+	 * that a call it cancelled will not be answered.
+	 */
+	private static final int CANCEL = Integer.MIN_VALUE;
+
+	/**
+	 * Recipient of a message giving credit to a stream, followed by the callback id of the call and
+	 * the number of items which may be sent. Negated callback ids never get this small in practice.
+	 */
+	private static final int CREDIT = Integer.MIN_VALUE + 1;
+
+	/**
+	 * How long a call which timed out stays registered, if there is no callback timeout to use
+	 * instead, so that a late response can still be read and dropped. The type of a response can
+	 * only be known from its call, so an unknown response can't be skipped, and the rest of its
+	 * batch is lost.
+	 */
+	private static final long LATE_RESPONSE_MILLIS = 30_000;
+
 	private final Function<TypeSerializer, SerializationStreamWriter> writerFactory;
 	private final Consumer<SerializationStreamWriter> send;
 
 	private final TypeSerializer serializer;
 
-	// count starts at 1, leaving zero for remote methods
-	private AtomicInteger nextCallbackId = new AtomicInteger(1);
-	private Map<Integer, ReadingCallback> callbacks = new ConcurrentHashMap<>();
+	// count starts at 1, leaving zero for remote methods, see __nextCallbackId
+	private final AtomicInteger nextCallbackId = new AtomicInteger(1);
+	private final CallbackTable<ReadingCallback> callbacks = new CallbackTable<>();
+	private final AtomicLong timedOutCallbacks = new AtomicLong();
+	// calls from the remote endpoint which haven't been answered yet, so they can be cancelled
+	private final CallbackTable<IncomingCall> incoming = new CallbackTable<>();
+	// zero if callbacks wait forever, see __setCallbackTimeout
+	private long callbackTimeoutMillis;
+	// calls from the remote endpoint which were dropped because their deadline had passed
+	private final AtomicLong shedCalls = new AtomicLong();
+
+	// true if this instance only records a call to broadcast, see __record
+	private boolean recording;
+
+	// messages waiting to be sent together, see __enableBatching
+	private final Object batchLock = new Object();
+	// written under batchLock, but read without it by each send to decide whether to batch
+	private volatile Consumer<Runnable> flushScheduler;
+	private int maxBatchLength;
+	private SerializationStreamWriter batch;
+	private int batchCount;
+	private int batchKey;
 
 	protected <W extends SerializationStreamWriter> AbstractEndpointImpl(
 			Function<TypeSerializer, W> writerFactory,
@@ -81,23 +154,495 @@ public abstract class AbstractEndpointImpl {
 
 	public void __onMessage(SerializationStreamReader reader) {
 		try {
-			int recipient = reader.readInt();
-			if (recipient >= 0) {
-				__invoke(recipient, reader);
-			} else {
-				ReadingCallback callback = callbacks.remove(-recipient);
-				callback.handle(reader);
-			}
+			boolean batched = reader instanceof AbstractSerializationStreamReader
+					&& ((AbstractSerializationStream) reader).hasFlags(AbstractSerializationStream.FLAG_BATCH);
+			do {
+				if (batched) {
+					// no message in a batch refers back to objects from another
+					((AbstractSerializationStreamReader) reader).resetObjectIdentity();
+				}
+				int recipient = reader.readInt();
+				if (recipient == CANCEL) {
+					__onCancel(reader.readInt());
+				} else if (recipient == CREDIT) {
+					int callbackId = reader.readInt();
+					__onCredit(callbackId, reader.readInt());
+				} else if (recipient >= 0) {
+					__invoke(recipient, reader);
+				} else {
+					int callbackId = -recipient;
+					ReadingCallback callback = callbacks.get(callbackId);
+					if (callback == null) {
+						// timed out so long ago that it is gone, and the rest of the payload can't
+						// be read without knowing the type of the response
+						__onError(new IllegalStateException("Response for unknown callback " + callbackId + ", ignoring the rest of the message"));
+						return;
+					}
+					if (callback instanceof StreamReadingCallback) {
+						// streams stay registered until their last message
+						callback.handle(reader);
+						if (((StreamReadingCallback) callback).done) {
+							callbacks.remove(callbackId);
+						}
+					} else {
+						if (callbacks.remove(callbackId) != callback) {
+							// forgotten while this message was being read, so only read the response
+							callback.cancelled = true;
+						}
+						// if it timed out, but is still kept for a late response, isCancelled()
+						// tells the callback to only read the response
+						callback.handle(reader);
+					}
+				}
+			} while (batched && reader.readBoolean());
 		} catch (SerializationException ex) {
 			__onError(ex);
 		}
 	}
 
+	/**
+	 * Gives each callback registered from now on the given number of milliseconds to be answered,
+	 * after which it is told that the call timed out, see {@link org.gwtproject.rpc.api.Callback#onTimeout()}.
+	 * Expired callbacks are only noticed when {@link #__expireCallbacks()} is called, which the
+	 * transport should do periodically. Zero, the default, lets callbacks wait forever.
+	 */
+	public void __setCallbackTimeout(long timeoutMillis) {
+		if (timeoutMillis < 0) {
+			throw new IllegalArgumentException("timeoutMillis must not be negative");
+		}
+		callbackTimeoutMillis = timeoutMillis;
+		if (timeoutMillis != 0) {
+			callbacks.setTimeout(timeoutMillis);
+			incoming.setTimeout(timeoutMillis);
+		}
+	}
+
+	/**
+	 * Tells every callback whose deadline has passed that its call timed out. The callback is kept
+	 * for a while longer, for as long as the callback timeout or thirty seconds, so
+	 * that a response which arrives late is still read and dropped, rather than stopping the rest
+	 * of its batch from being read. Transports which set a callback timeout should call this
+	 * regularly, ideally a few times per timeout.
+	 */
+	public void __expireCallbacks() {
+		long now = System.currentTimeMillis();
+		__expireIncomingCalls(now);
+		long graceMillis = callbackTimeoutMillis != 0 ? callbackTimeoutMillis : LATE_RESPONSE_MILLIS;
+		for (ReadingCallback callback : callbacks.expire(now, graceMillis)) {
+			if (callback.cancelled) {
+				// only kept to read the response, nobody is waiting for it
+				continue;
+			}
+			timedOutCallbacks.incrementAndGet();
+			try {
+				callback.timeout();
+			} catch (RuntimeException e) {
+				__onError(e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of calls sent from this endpoint which are still waiting for a response.
+	 */
+	public int __getPendingCallbackCount() {
+		return callbacks.size() - callbacks.expiredSize();
+	}
+
+	/**
+	 * Returns the number of calls sent from this endpoint which timed out before a response arrived.
+	 */
+	public long __getTimedOutCallbackCount() {
+		return timedOutCallbacks.get();
+	}
+
+	/**
+	 * Returns the number of calls from the remote endpoint which were dropped without being run,
+	 * because the caller's deadline had passed before they were read.
+	 */
+	public long __getShedCallCount() {
+		return shedCalls.get();
+	}
+
+	/**
+	 * Registers a call from the remote endpoint which expects a response, so that the caller can
+	 * cancel it until the response is sent. The call is forgotten once the caller's deadline has
+	 * passed, or if the caller sent none, after the callback timeout, if there is one, as by then
+	 * nobody is waiting for the response.
+	 */
+	protected IncomingCall __startIncomingCall(int callbackId, long deadline) {
+		long now = System.currentTimeMillis();
+		// the table is kept small whether or not the transport expires callbacks
+		__expireIncomingCalls(now);
+		if (deadline == 0 && callbackTimeoutMillis != 0) {
+			deadline = now + callbackTimeoutMillis;
+		}
+		IncomingCall call = new IncomingCall();
+		incoming.put(callbackId, call, deadline);
+		return call;
+	}
+
+	/**
+	 * Called by the generated callback before it sends the response to a call. Returns false if the
+	 * response must not be sent, because the caller cancelled the call, gave up on it, or it was
+	 * already answered.
+	 */
+	protected boolean __finishIncomingCall(IncomingCall call) {
+		return incoming.remove(call);
+	}
+
+	/**
+	 * Forgets a call which will never be answered, because the implementation threw instead, or the
+	 * caller's deadline has passed, and tells the implementation that the call was cancelled.
+	 */
+	protected void __abandonIncomingCall(IncomingCall call) {
+		incoming.remove(call);
+		synchronized (call) {
+			__markCancelled(call);
+		}
+	}
+
+	/**
+	 * Marks the call as cancelled, and drops anything a stream still had to send. Must be called
+	 * while holding the call's lock.
+	 */
+	private static void __markCancelled(IncomingCall call) {
+		call.cancelled = true;
+		if (call instanceof IncomingStreamCall) {
+			IncomingStreamCall stream = (IncomingStreamCall) call;
+			stream.pending.clear();
+			stream.end = null;
+			stream.readyCallbacks = null;
+		}
+	}
+
+	private void __expireIncomingCalls(long now) {
+		for (IncomingCall call : incoming.expire(now)) {
+			__abandonIncomingCall(call);
+		}
+	}
+
+	/**
+	 * Registers a call from the remote endpoint which answers with a stream, allowing the given
+	 * number of items to be sent before the caller gives more credit.
+	 */
+	protected IncomingStreamCall __startIncomingStream(int callbackId, int window) {
+		IncomingStreamCall call = new IncomingStreamCall(window);
+		incoming.put(callbackId, call, 0);
+		return call;
+	}
+
+	/**
+	 * Sends the next item of a stream, or queues it until the caller gives more credit.
+	 */
+	protected void __sendStreamItem(IncomingStreamCall call, Send item) {
+		List<Runnable> ready;
+		synchronized (call) {
+			if (call.isCancelled() || call.ended) {
+				return;
+			}
+			call.pending.addLast(item);
+			ready = __drainStream(call);
+		}
+		__run(ready);
+	}
+
+	/**
+	 * Ends a stream, once any items still waiting for credit have been sent. The end doesn't need
+	 * credit of its own.
+	 */
+	protected void __endStream(IncomingStreamCall call, Send end) {
+		synchronized (call) {
+			if (call.isCancelled() || call.ended) {
+				return;
+			}
+			call.ended = true;
+			call.end = end;
+			__drainStream(call);
+		}
+	}
+
+	private void __onCredit(int callbackId, int credit) {
+		IncomingCall call = incoming.get(callbackId);
+		if (!(call instanceof IncomingStreamCall)) {
+			// the stream already ended
+			return;
+		}
+		IncomingStreamCall stream = (IncomingStreamCall) call;
+		List<Runnable> ready;
+		synchronized (stream) {
+			stream.credit += credit;
+			ready = __drainStream(stream);
+		}
+		__run(ready);
+	}
+
+	/**
+	 * Sends as much of the stream as the caller has given credit for, and returns the callbacks
+	 * waiting for the stream to be ready, if it now is. Items are sent while holding the stream's
+	 * lock, so that they leave in order, and nothing follows a cancellation.
+	 */
+	private List<Runnable> __drainStream(IncomingStreamCall call) {
+		int callbackId = call.id;
+		while (call.credit > 0 && !call.pending.isEmpty()) {
+			Send item = call.pending.pollFirst();
+			call.credit--;
+			__send(-callbackId, writer -> {
+				writer.writeBoolean(true);
+				// an item follows
+				writer.writeBoolean(true);
+				item.send(writer);
+			});
+		}
+		if (call.pending.isEmpty() && call.end != null) {
+			Send end = call.end;
+			call.end = null;
+			if (__finishIncomingCall(call)) {
+				__send(-callbackId, end);
+			}
+			return null;
+		}
+		if (call.ended || call.credit == 0 || call.readyCallbacks == null) {
+			return null;
+		}
+		List<Runnable> ready = call.readyCallbacks;
+		call.readyCallbacks = null;
+		return ready;
+	}
+
+	private static void __run(List<Runnable> callbacks) {
+		if (callbacks != null) {
+			for (Runnable callback : callbacks) {
+				callback.run();
+			}
+		}
+	}
+
+	private void __sendCredit(int callbackId, int credit) {
+		__send(CREDIT, writer -> {
+			writer.writeInt(callbackId);
+			writer.writeInt(credit);
+		});
+	}
+
+	/**
+	 * Returns true if cancelling a call should tell the remote endpoint. Transports which send each
+	 * call as a separate request have no endpoint on the other end which could still be told.
+	 */
+	protected boolean __sendsCancellations() {
+		return true;
+	}
+
+	private void __cancel(ReadingCallback callback) {
+		int callbackId = callback.id;
+		if (callback.cancelled || callbacks.get(callbackId) != callback || callback.expired) {
+			// already answered, timed out or cancelled
+			return;
+		}
+		// the callback stays registered, so that a response which is already on its way can be
+		// read, and is removed once the remote endpoint confirms that no response will follow
+		callback.cancelled = true;
+		if (__sendsCancellations()) {
+			__send(CANCEL, writer -> writer.writeInt(callbackId));
+		}
+	}
+
+	private void __onCancel(int callbackId) {
+		if (callbackId > 0) {
+			IncomingCall call = incoming.remove(callbackId);
+			if (call != null) {
+				// a stream sends while holding its lock, so once this has the lock, nothing more
+				// will be sent for the call after the confirmation
+				synchronized (call) {
+					__markCancelled(call);
+					__send(CANCEL, writer -> writer.writeInt(-callbackId));
+				}
+			}
+			// otherwise the response was sent already, and the caller will ignore it
+		} else {
+			ReadingCallback callback = callbacks.get(-callbackId);
+			if (callback != null && callback.cancelled) {
+				callbacks.remove(-callbackId);
+			}
+		}
+	}
+
+	/**
+	 * Returns an id for a new callback, from 1 to {@link Integer#MAX_VALUE}, as ids are negated to
+	 * mark a deadline or a response, and the smallest values are used for cancellation and credit.
+	 * Once the count wraps around, the ids of calls which are still registered, such as long lived
+	 * streams, are skipped.
+	 */
+	private int __nextCallbackId() {
+		while (true) {
+			int callbackId = nextCallbackId.getAndIncrement() & Integer.MAX_VALUE;
+			if (callbackId != 0 && callbacks.get(callbackId) == null) {
+				return callbackId;
+			}
+		}
+	}
+
+	private long __deadlineFor(ReadingCallback callback) {
+		if (callback instanceof StreamReadingCallback) {
+			// streams may take any amount of time, so only end when they are cancelled
+			return 0;
+		}
+		long deadline = callback.getDeadline();
+		if (deadline != 0 || callbackTimeoutMillis == 0) {
+			return deadline;
+		}
+		return System.currentTimeMillis() + callbackTimeoutMillis;
+	}
+
+	/**
+	 * Writes the id of a callback, followed by the time left until its deadline if it has one.
+	 * The deadline is sent as a duration rather than a time, so that the two ends don't need to
+	 * agree on the time, and the id is negated to tell the remote end that it is there.
+	 */
+	private static void __writeCallbackId(SerializationStreamWriter writer, int callbackId, long deadline) throws SerializationException {
+		if (deadline == 0) {
+			writer.writeInt(callbackId);
+			return;
+		}
+		long remaining = deadline - System.currentTimeMillis();
+		writer.writeInt(-callbackId);
+		writer.writeInt((int) Math.max(0, Math.min(Integer.MAX_VALUE, remaining)));
+	}
+
+	/**
+	 * Reads the deadline which follows a callback id read by the generated {@link #__invoke},
+	 * if the id says that there is one, and returns it in local time, or zero if there is none.
+	 * The time remaining is counted from when the message was received, so that time spent waiting
+	 * to be dispatched counts against the deadline.
+	 */
+	protected long __readDeadline(int callbackId, SerializationStreamReader reader) throws SerializationException {
+		if (callbackId >= 0) {
+			return 0;
+		}
+		long received = reader instanceof AbstractSerializationStreamReader
+				? ((AbstractSerializationStreamReader) reader).getCreatedMillis()
+				: System.currentTimeMillis();
+		return received + reader.readInt();
+	}
+
+	/**
+	 * Returns true if the given deadline has passed, so that the generated {@link #__invoke} drops
+	 * the call instead of running it. The caller has given up on the response, so there is no
+	 * point in doing the work.
+	 */
+	protected boolean __shed(long deadline) {
+		if (deadline == 0 || deadline > System.currentTimeMillis()) {
+			return false;
+		}
+		shedCalls.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Collects the messages sent from this endpoint into batches, each sent as a single message
+	 * with a shared string table. Objects are not shared, each message is written as if it was sent
+	 * alone, so that an object changed between two sends arrives as it was when each was sent. A
+	 * batch is started by the first message sent after the previous one was sent, and is sent when
+	 * the flush that it schedules runs, or as soon as its payload reaches the given length,
+	 * whichever comes first. Messages are written to the batch as they
+	 * are sent, so threads sending at the same time take turns, but don't wait for the flush.
+	 * <p></p>
+	 * The remote endpoint must understand {@link AbstractSerializationStream#FLAG_BATCH}, and the
+	 * writers must support {@link SerializationStreamWriter#mark()}.
+	 *
+	 * @param flushScheduler runs the given flush once the batch has collected messages for long enough
+	 * @param maxBatchLength payload length, in the writer's units, at which a batch is sent at once
+	 */
+	public void __enableBatching(Consumer<Runnable> flushScheduler, int maxBatchLength) {
+		synchronized (batchLock) {
+			this.flushScheduler = flushScheduler;
+			this.maxBatchLength = maxBatchLength;
+		}
+	}
+
+	/**
+	 * Sends the messages collected so far, if batching is enabled.
+	 */
+	public void __flush() {
+		synchronized (batchLock) {
+			__flushBatch();
+		}
+	}
+
+	private void __flushBatch() {
+		if (batch == null) {
+			return;
+		}
+		SerializationStreamWriter writer = batch;
+		int count = batchCount;
+		batch = null;
+		batchCount = 0;
+		if (count == 0) {
+			writer.release();
+			return;
+		}
+		if (count > 1) {
+			try {
+				writer.writeBoolean(false);
+			} catch (SerializationException e) {
+				// the message can't be finished, so nothing in it can be sent
+				writer.release();
+				__onError(e);
+				return;
+			}
+			((AbstractSerializationStream) writer).addFlags(AbstractSerializationStream.FLAG_BATCH);
+		}
+		// sent while holding the lock, so that batches leave in the order they were written
+		__endCall(writer, count == 1 ? batchKey : KeyedSend.NO_KEY);
+	}
+
+	/**
+	 * Writes a message to the current batch, starting a new one if needed.
+	 */
+	private void __sendBatched(int recipient, Send s, int key) {
+		synchronized (batchLock) {
+			if (batch == null) {
+				batch = __startCall();
+			}
+			int mark = batch.mark();
+			boolean written = false;
+			try {
+				if (batchCount > 0) {
+					batch.writeBoolean(true);
+				}
+				((AbstractSerializationStreamWriter) batch).resetObjectIdentity();
+				batch.writeInt(recipient);
+				s.send(batch);
+				written = true;
+			} catch (SerializationException e) {
+				__onError(e);
+				throw new RuntimeException(e);
+			} finally {
+				if (!written) {
+					// drop the partial message, the next one starts with an empty object table
+					// so nothing will refer back to objects which were never written
+					batch.truncate(mark);
+				}
+			}
+			batchKey = key;
+			if (++batchCount == 1) {
+				flushScheduler.accept(this::__flush);
+			}
+			if (batch.mark() >= maxBatchLength) {
+				__flushBatch();
+			}
+		}
+	}
+
 	private SerializationStreamWriter __startCall() {
 		return writerFactory.apply(serializer);
 	}
-	private void __endCall(SerializationStreamWriter writer) {
-		send.accept(writer);
+	private void __endCall(SerializationStreamWriter writer, int key) {
+		if (send instanceof KeyedSend) {
+			((KeyedSend<SerializationStreamWriter>) send).accept(writer, key);
+		} else {
+			send.accept(writer);
+		}
 	}
 
 	/**
@@ -108,43 +653,141 @@ public abstract class AbstractEndpointImpl {
 	}
 
 	protected void __send(int recipient, Send s) {
+		// negative recipients are responses to callbacks, which must not be dropped
+		int key = recipient >= 0 ? recipient : KeyedSend.NO_KEY;
+		if (flushScheduler != null) {
+			__sendBatched(recipient, s, key);
+			return;
+		}
 		SerializationStreamWriter writer = __startCall();
+		boolean written = false;
 		try {
 			writer.writeInt(recipient);
 			s.send(writer);
-			__endCall(writer);
+			written = true;
 		} catch (SerializationException e) {
 			__onError(e);
 			throw new RuntimeException(e);
+		} finally {
+			if (!written) {
+				// the message will never be sent, let the writer clean up
+				writer.release();
+			}
 		}
+		__endCall(writer, key);
 	}
-	protected void __send(int recipient, Send s, ReadingCallback callback) {
+	protected Request __send(int recipient, Send s, ReadingCallback callback) {
+		if (recording) {
+			throw new UnsupportedOperationException("Methods with callbacks can't be broadcast, each recipient would need its own callback");
+		}
+		callback.endpoint = this;
+		if (flushScheduler != null) {
+			// the batch may be sent as soon as the message is written, so register first
+			int callbackId = __nextCallbackId();
+			long deadline = __deadlineFor(callback);
+			callbacks.put(callbackId, callback, deadline);
+			try {
+				__sendBatched(recipient, writer -> {
+					__writeCallbackId(writer, callbackId, deadline);
+					s.send(writer);
+				}, KeyedSend.NO_KEY);
+			} catch (Throwable t) {
+				callbacks.remove(callbackId);
+				throw t;
+			}
+			return callback;
+		}
 		SerializationStreamWriter writer = __startCall();
+		boolean written = false;
+		int callbackId;
+		long deadline = __deadlineFor(callback);
 		try {
 			writer.writeInt(recipient);
 
 			// add the callbackId to the message to send so the remote end knows it will need a callback
 			// object when handling the rest of the body
-			int callbackId = nextCallbackId.getAndIncrement();
-			writer.writeInt(callbackId);
+			callbackId = __nextCallbackId();
+			__writeCallbackId(writer, callbackId, deadline);
 			s.send(writer);
-
-			try {
-				// register first, then send over the wire
-				callbacks.put(callbackId, callback);
-				__endCall(writer);
-			} catch (Throwable t) {
-				// if the send fails, remove the callback again and let the exception happen
-				callbacks.remove(callbackId);
-				throw t;
-			}
+			written = true;
 		} catch (SerializationException e) {
 			__onError(e);
 			throw new RuntimeException(e);
+		} finally {
+			if (!written) {
+				// the message will never be sent, let the writer clean up
+				writer.release();
+			}
 		}
+
+		try {
+			// register first, then send over the wire
+			callbacks.put(callbackId, callback, deadline);
+			__endCall(writer, KeyedSend.NO_KEY);
+		} catch (Throwable t) {
+			// if the send fails, remove the callback again and let the exception happen
+			callbacks.remove(callbackId);
+			throw t;
+		}
+		return callback;
+	}
+
+	/**
+	 * Sends a message which was written once for many endpoints of this type, see
+	 * {@link org.gwtproject.rpc.api.Broadcast}. The writer is retained for this send, and
+	 * the transport releases it once it has been written.
+	 */
+	public void __sendShared(SerializationStreamWriter writer) {
+		writer.retain();
+		try {
+			synchronized (batchLock) {
+				// anything batched was sent first, so it must arrive first
+				__flushBatch();
+				__endCall(writer, KeyedSend.NO_KEY);
+			}
+		} catch (Throwable t) {
+			writer.release();
+			throw t;
+		}
+	}
+
+	/**
+	 * Creates an endpoint which isn't connected to anything, and passes it to the given
+	 * call, returning the writer holding the one message it sent. Methods which take a
+	 * callback can't be recorded, as the callback ids in the message would only be
+	 * meaningful to the recording endpoint.
+	 *
+	 * @throws IllegalStateException if the call doesn't send exactly one message
+	 */
+	public static <E, W extends SerializationStreamWriter> W __record(
+			EndpointImplConstructor<E> constructor,
+			Function<TypeSerializer, W> writerFactory,
+			Consumer<? super E> call) {
+		List<W> sent = new ArrayList<>(1);
+		E endpoint = constructor.create(writerFactory, sent::add, (onMessage, serializer) -> {});
+		((AbstractEndpointImpl) endpoint).recording = true;
+		try {
+			call.accept(endpoint);
+		} catch (RuntimeException | Error e) {
+			for (W writer : sent) {
+				writer.release();
+			}
+			throw e;
+		}
+		if (sent.size() != 1) {
+			for (W writer : sent) {
+				writer.release();
+			}
+			throw new IllegalStateException("Expected exactly one message to be sent, but " + sent.size() + " were");
+		}
+		return sent.get(0);
 	}
 
-	protected static abstract class ReadingCallback {
+	protected static abstract class ReadingCallback extends CallbackTable.Entry implements Request {
+		// the endpoint which made the call, set when it is sent
+		AbstractEndpointImpl endpoint;
+		volatile boolean cancelled;
+
 		public final void handle(SerializationStreamReader reader) throws SerializationException {
 			boolean success = reader.readBoolean();
 			if (success) {
@@ -155,5 +798,133 @@ public abstract class AbstractEndpointImpl {
 		}
 		public abstract void success(SerializationStreamReader reader) throws org.gwtproject.rpc.serialization.api.SerializationException;
 		public abstract void failure(SerializationStreamReader reader) throws org.gwtproject.rpc.serialization.api.SerializationException;
+
+		/**
+		 * Called instead of success or failure if no response arrived in time. Endpoints generated
+		 * before timeouts existed don't override this, and so ignore timeouts.
+		 */
+		public void timeout() {
+		}
+
+		/**
+		 * The deadline of the callback passed to the call, see {@link org.gwtproject.rpc.api.Callback#getDeadline()}.
+		 */
+		public long getDeadline() {
+			return 0;
+		}
+
+		@Override
+		public final void cancel() {
+			if (endpoint != null) {
+				endpoint.__cancel(this);
+			}
+		}
+
+		@Override
+		public final boolean isPending() {
+			return endpoint != null && !cancelled && endpoint.callbacks.get(id) == this && !expired;
+		}
+
+		/**
+		 * Returns true if the call was cancelled or timed out, so the response is only read, and
+		 * not passed on.
+		 */
+		public final boolean isCancelled() {
+			return cancelled || expired;
+		}
+	}
+
+	/**
+	 * Reads the messages of a stream, see {@link org.gwtproject.rpc.api.StreamCallback}. Each item
+	 * is a success carrying {@code true} and the item, the end is a success carrying {@code false},
+	 * and a failure is a failure as usual. Credit for more items is sent as the items are handled.
+	 */
+	protected static abstract class StreamReadingCallback extends ReadingCallback {
+		private final int window;
+		private int handled;
+		boolean done;
+
+		protected StreamReadingCallback(int window) {
+			if (window <= 0) {
+				throw new IllegalArgumentException("window must be positive");
+			}
+			this.window = window;
+		}
+
+		@Override
+		public final void success(SerializationStreamReader reader) throws org.gwtproject.rpc.serialization.api.SerializationException {
+			if (!reader.readBoolean()) {
+				done = true;
+				complete();
+				return;
+			}
+			item(reader);
+			// credit is given back in halves of the window, after the items were handled, so that
+			// the sender neither waits for every item nor gets ahead of a slow consumer
+			if (++handled >= (window + 1) / 2 && !isCancelled()) {
+				int credit = handled;
+				handled = 0;
+				endpoint.__sendCredit(id, credit);
+			}
+		}
+
+		@Override
+		public final void failure(SerializationStreamReader reader) throws org.gwtproject.rpc.serialization.api.SerializationException {
+			done = true;
+			error(reader);
+		}
+
+		public abstract void item(SerializationStreamReader reader) throws org.gwtproject.rpc.serialization.api.SerializationException;
+		public abstract void complete();
+		public abstract void error(SerializationStreamReader reader) throws org.gwtproject.rpc.serialization.api.SerializationException;
+	}
+
+	/**
+	 * A call received from the remote endpoint which expects a response, kept until the response
+	 * is sent, so that the caller can cancel it.
+	 */
+	protected static class IncomingCall extends CallbackTable.Entry {
+		private volatile boolean cancelled;
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	/**
+	 * A call received from the remote endpoint which answers with a stream, holding the items
+	 * waiting for credit from the caller.
+	 */
+	protected static final class IncomingStreamCall extends IncomingCall {
+		private int credit;
+		private final ArrayDeque<Send> pending = new ArrayDeque<>();
+		// set once the implementation has ended the stream, end is cleared once it is sent
+		private boolean ended;
+		private Send end;
+		private List<Runnable> readyCallbacks;
+
+		private IncomingStreamCall(int window) {
+			credit = window;
+		}
+
+		public synchronized boolean isReady() {
+			return !isCancelled() && !ended && credit > 0 && pending.isEmpty();
+		}
+
+		public void onReady(Runnable callback) {
+			synchronized (this) {
+				if (isCancelled() || ended) {
+					return;
+				}
+				if (credit == 0 || !pending.isEmpty()) {
+					if (readyCallbacks == null) {
+						readyCallbacks = new ArrayList<>();
+					}
+					readyCallbacks.add(callback);
+					return;
+				}
+			}
+			callback.run();
+		}
 	}
 }
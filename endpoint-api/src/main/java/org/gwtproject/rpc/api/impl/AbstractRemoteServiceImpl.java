@@ -52,6 +52,13 @@ public abstract class AbstractRemoteServiceImpl<R extends Endpoint.NoRemoteEndpo
 
 	public abstract String getChecksum();
 
+	@Override
+	protected boolean __sendsCancellations() {
+		// each call is its own request, so there is nobody left on the other end to tell, the
+		// response will still arrive and be ignored
+		return false;
+	}
+
 	@Override
 	public String getSerializationPolicyName() {
 		throw new UnsupportedOperationException("getSerializationPolicyName is not supported, use getChecksum instead");
@@ -0,0 +1,284 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Calls waiting for a response, by callback id. The callbacks themselves are the entries, so
+ * registering one allocates nothing beyond the callback, and ids are never boxed. Endpoints also
+ * use a table to keep track of the calls they have received but not yet answered. Callbacks are
+ * kept in an open addressed array, and as ids are handed out in sequence and mostly answered in
+ * order, the low bits of the id are used as the hash, so lookups almost never probe.
+ * <p></p>
+ * Callbacks with a deadline are also linked into a hashed timing wheel, one slot per tick, so that
+ * {@link #expire(long, long)} only looks at the slots for the ticks which have passed, rather than at
+ * every pending callback. Expired callbacks can be kept for a grace period, so that a response which
+ * was already on its way can still be matched to its call and read.
+ * <p></p>
+ * All methods are synchronized. Each endpoint has its own table, so the lock is rarely contended.
+ */
+final class CallbackTable<E extends CallbackTable.Entry> {
+	/**
+	 * The table's bookkeeping, set while an entry is in the table.
+	 */
+	static abstract class Entry {
+		int id;
+		long deadline;
+		// true once the deadline has passed, while the entry is kept for its grace period
+		boolean expired;
+		Entry prev;
+		Entry next;
+	}
+
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final int WHEEL_SIZE = 256;
+	private static final long MIN_TICK_MILLIS = 10;
+
+	private Entry[] slots = new Entry[DEFAULT_CAPACITY];
+	private int size;
+	private int expiredSize;
+
+	private final Entry[] wheel = new Entry[WHEEL_SIZE];
+	private long tickMillis = MIN_TICK_MILLIS;
+	// the last tick which expire() has finished with
+	private long lastTick = -1;
+
+	/**
+	 * Sets the length of a tick from the timeout that callbacks will usually be given, so that a
+	 * timeout is spread over a good part of the wheel, and callbacks expire within a few percent of
+	 * their deadline.
+	 */
+	synchronized void setTimeout(long timeoutMillis) {
+		tickMillis = Math.max(MIN_TICK_MILLIS, timeoutMillis / (WHEEL_SIZE / 4));
+		lastTick = -1;
+		// the slots depend on the tick length, so put anything already waiting in its new place
+		Arrays.fill(wheel, null);
+		for (Entry callback : slots) {
+			if (callback != null && callback.deadline != 0) {
+				link(callback);
+			}
+		}
+	}
+
+	/**
+	 * Adds the callback with the given id, which must not already be in use. A deadline of zero
+	 * means the callback never expires.
+	 */
+	synchronized void put(int id, E callback, long deadline) {
+		callback.id = id;
+		callback.deadline = deadline;
+		callback.expired = false;
+		int mask = slots.length - 1;
+		int i = id & mask;
+		while (slots[i] != null) {
+			i = (i + 1) & mask;
+		}
+		slots[i] = callback;
+		if (++size > slots.length >> 1) {
+			resize();
+		}
+		if (deadline != 0) {
+			link(callback);
+		}
+	}
+
+	/**
+	 * Returns the callback with the given id, or null if there is none.
+	 */
+	synchronized E get(int id) {
+		int i = indexOf(id);
+		return i == -1 ? null : (E) slots[i];
+	}
+
+	/**
+	 * Removes and returns the callback with the given id, or null if there is none.
+	 */
+	synchronized E remove(int id) {
+		int i = indexOf(id);
+		if (i == -1) {
+			return null;
+		}
+		Entry callback = slots[i];
+		removeAt(i);
+		if (callback.deadline != 0) {
+			unlink(callback);
+		}
+		if (callback.expired) {
+			expiredSize--;
+		}
+		return (E) callback;
+	}
+
+	/**
+	 * Removes the given callback, if it is still registered, and returns true if it was.
+	 */
+	synchronized boolean remove(E callback) {
+		int i = indexOf(callback.id);
+		if (i == -1 || slots[i] != callback) {
+			return false;
+		}
+		remove(callback.id);
+		return true;
+	}
+
+	/**
+	 * Removes and returns the callbacks whose deadline is no later than the given time.
+	 */
+	synchronized List<E> expire(long now) {
+		return expire(now, 0);
+	}
+
+	/**
+	 * Returns the callbacks whose deadline is no later than the given time. Each is kept, marked
+	 * as expired, until the grace period has passed too, and then removed without being returned
+	 * again. A grace period of zero removes them straight away.
+	 */
+	synchronized List<E> expire(long now, long graceMillis) {
+		List<E> expired = null;
+		long nowTick = now / tickMillis;
+		if (lastTick == -1 || nowTick - lastTick > WHEEL_SIZE) {
+			// first call, or a long pause, look at every slot once
+			lastTick = nowTick - WHEEL_SIZE;
+		}
+		for (long tick = lastTick + 1; tick <= nowTick; tick++) {
+			Entry callback = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+			while (callback != null) {
+				Entry next = callback.next;
+				// anything in this slot but due on a later turn of the wheel is left alone
+				if (callback.deadline <= now) {
+					if (callback.expired) {
+						// the grace period is over as well
+						remove(callback.id);
+					} else {
+						if (graceMillis == 0) {
+							remove(callback.id);
+						} else {
+							// still found by id, but only until the grace period has passed
+							unlink(callback);
+							callback.deadline = now + graceMillis;
+							callback.expired = true;
+							expiredSize++;
+							link(callback);
+						}
+						if (expired == null) {
+							expired = new ArrayList<>();
+						}
+						expired.add((E) callback);
+					}
+				}
+				callback = next;
+			}
+		}
+		// the current tick isn't over, so callbacks due later in it are found by the next call
+		lastTick = nowTick - 1;
+		if (expired == null) {
+			return Collections.emptyList();
+		}
+		return expired;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of callbacks which are only kept for their grace period.
+	 */
+	synchronized int expiredSize() {
+		return expiredSize;
+	}
+
+	private int indexOf(int id) {
+		int mask = slots.length - 1;
+		for (int i = id & mask; ; i = (i + 1) & mask) {
+			Entry candidate = slots[i];
+			if (candidate == null) {
+				return -1;
+			}
+			if (candidate.id == id) {
+				return i;
+			}
+		}
+	}
+
+	private void link(Entry callback) {
+		int slot = (int) ((callback.deadline / tickMillis) & (WHEEL_SIZE - 1));
+		Entry head = wheel[slot];
+		callback.prev = null;
+		callback.next = head;
+		if (head != null) {
+			head.prev = callback;
+		}
+		wheel[slot] = callback;
+	}
+
+	private void unlink(Entry callback) {
+		if (callback.prev != null) {
+			callback.prev.next = callback.next;
+		} else {
+			int slot = (int) ((callback.deadline / tickMillis) & (WHEEL_SIZE - 1));
+			wheel[slot] = callback.next;
+		}
+		if (callback.next != null) {
+			callback.next.prev = callback.prev;
+		}
+		callback.prev = null;
+		callback.next = null;
+	}
+
+	/**
+	 * Empties the given slot, and moves later entries of the same probe sequence back to fill the
+	 * gap, so that lookups never need to step over deleted entries.
+	 */
+	private void removeAt(int i) {
+		int mask = slots.length - 1;
+		slots[i] = null;
+		size--;
+		for (int j = (i + 1) & mask; slots[j] != null; j = (j + 1) & mask) {
+			int home = slots[j].id & mask;
+			// move the entry back if the gap lies between its home slot and where it is now
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				slots[i] = slots[j];
+				slots[j] = null;
+				i = j;
+			}
+		}
+	}
+
+	private void resize() {
+		Entry[] old = slots;
+		slots = new Entry[old.length << 1];
+		int mask = slots.length - 1;
+		for (Entry callback : old) {
+			if (callback != null) {
+				int i = callback.id & mask;
+				while (slots[i] != null) {
+					i = (i + 1) & mask;
+				}
+				slots[i] = callback;
+			}
+		}
+	}
+}
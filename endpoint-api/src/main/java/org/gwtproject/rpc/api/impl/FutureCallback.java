@@ -0,0 +1,131 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api.impl;
+
+import org.gwtproject.rpc.api.Callback;
+import org.gwtproject.rpc.api.RemoteCallException;
+import org.gwtproject.rpc.api.Request;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Adapts between callbacks and the futures returned by endpoint methods declared to return a
+ * {@link CompletionStage} or {@link CompletableFuture}. Such methods are sent exactly like methods
+ * which take a {@code Callback<T, String>}, with the failure described by a string.
+ * <p></p>
+ * GWT doesn't have {@link CompletableFuture}, so this class, and endpoints which return futures,
+ * are only for use on the JVM.
+ */
+public final class FutureCallback<T> implements Callback<T, String> {
+	private final CompletableFuture<T> future = new CompletableFuture<>();
+
+	/**
+	 * Returns the future which is completed by this callback.
+	 */
+	public CompletableFuture<T> getFuture() {
+		return future;
+	}
+
+	/**
+	 * Connects the future to the call, so that cancelling the future cancels the call.
+	 */
+	public void setRequest(Request request) {
+		future.whenComplete((value, error) -> {
+			if (future.isCancelled()) {
+				request.cancel();
+			}
+		});
+	}
+
+	@Override
+	public void onSuccess(T value) {
+		future.complete(value);
+	}
+
+	@Override
+	public void onFailure(String error) {
+		future.completeExceptionally(new RemoteCallException(error));
+	}
+
+	@Override
+	public void onTimeout() {
+		future.completeExceptionally(new TimeoutException("No response arrived within the callback timeout"));
+	}
+
+	/**
+	 * The failure sent back to the caller when the implementation fails. The exception itself may
+	 * describe server internals, so it is only reported locally, and the caller just learns that
+	 * the call failed.
+	 */
+	public static final String FAILURE_MESSAGE = "The call failed on the remote endpoint; see its log for details";
+
+	/**
+	 * Passes the result of a stage returned by an endpoint implementation to the callback which
+	 * sends it back to the caller, once the stage completes. No thread waits for the stage. If the
+	 * stage fails, the caller is sent {@link #FAILURE_MESSAGE}, and the exception is passed to
+	 * {@code onError} instead.
+	 */
+	public static <T> void subscribe(CompletionStage<T> stage, Callback<T, String> callback, Consumer<Throwable> onError) {
+		if (stage == null) {
+			fail(new IllegalStateException("Endpoint method returned null instead of a CompletionStage"), callback, onError);
+			return;
+		}
+		stage.whenComplete((value, error) -> {
+			if (error == null) {
+				callback.onSuccess(value);
+			} else {
+				if (error instanceof CompletionException && error.getCause() != null) {
+					error = error.getCause();
+				}
+				fail(error, callback, onError);
+			}
+		});
+	}
+
+	/**
+	 * Calls the endpoint implementation, and passes the result of the stage it returns to the
+	 * callback, as {@link #subscribe(CompletionStage, Callback, Consumer)} does. If the
+	 * implementation throws instead of returning a stage, that is reported the same way as a
+	 * failed stage, so that the caller isn't left waiting for a response.
+	 */
+	public static <T> void subscribe(Supplier<? extends CompletionStage<T>> call, Callback<T, String> callback, Consumer<Throwable> onError) {
+		CompletionStage<T> stage;
+		try {
+			stage = call.get();
+		} catch (RuntimeException e) {
+			fail(e, callback, onError);
+			return;
+		}
+		subscribe(stage, callback, onError);
+	}
+
+	private static <T> void fail(Throwable error, Callback<T, String> callback, Consumer<Throwable> onError) {
+		try {
+			onError.accept(error);
+		} finally {
+			callback.onFailure(FAILURE_MESSAGE);
+		}
+	}
+}
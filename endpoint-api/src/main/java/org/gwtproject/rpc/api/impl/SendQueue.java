@@ -0,0 +1,348 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Bounded queue of outgoing messages for a single connection, used by server transports so that a
+ * client which reads slowly can't make the server buffer an unbounded amount of data for it. Every
+ * message counts against the limit from the time it is sent until the transport reports that it
+ * has been written, and once the limit would be exceeded the queue's {@link OverflowPolicy} decides
+ * what happens to the new message.
+ * <p></p>
+ * Messages are handed to the transport in the order they were sent, and at most
+ * {@code maxInFlight} at a time, so transports which can only have one write outstanding can use a
+ * limit of one, while those with a write queue of their own can take everything immediately.
+ * <p></p>
+ * Responses to calls, and calls which expect a callback, are never dropped or replaced, as the
+ * other end would wait for them forever. If the limit is reached and only such messages are
+ * waiting, the new message is queued anyway.
+ * <p></p>
+ * This class blocks threads, and so is only for use on the JVM.
+ */
+public class SendQueue {
+	/**
+	 * Default limit on the number of bytes queued for one connection.
+	 */
+	public static final long DEFAULT_MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+
+	/**
+	 * What to do with a message which would take the queue over its limit.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Block the sending thread until enough earlier messages have been written. If the
+		 * transport can't block the current thread, the message is queued anyway, but only up to
+		 * twice the limit, beyond which the connection is closed as with {@link #DISCONNECT}.
+		 */
+		BLOCK,
+		/**
+		 * Discard the oldest messages which haven't been handed to the transport yet, until the
+		 * new one fits.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Replace a waiting call to the same remote method with the new one, so only the latest of
+		 * each is sent. Calls which don't replace anything are queued, so memory is bounded by the
+		 * number of remote methods rather than by a byte count.
+		 */
+		COALESCE,
+		/**
+		 * Close the connection, discarding everything that was queued.
+		 */
+		DISCONNECT
+	}
+
+	/**
+	 * One serialized message, in whatever form the transport writes it.
+	 */
+	public interface Message {
+		/**
+		 * The number of bytes this message counts against the limit.
+		 */
+		int size();
+
+		/**
+		 * Starts writing the message. The transport must call {@code onWritten} once the write
+		 * has completed or failed, and release the message's resources.
+		 */
+		void write(Runnable onWritten);
+
+		/**
+		 * Releases the message's resources without writing it.
+		 */
+		void discard();
+	}
+
+	/**
+	 * The connection that the queue writes to.
+	 */
+	public interface Transport {
+		/**
+		 * Closes the connection, called when the {@link OverflowPolicy#DISCONNECT} policy is
+		 * applied.
+		 */
+		void disconnect(String reason);
+
+		/**
+		 * Returns false if the current thread must not be blocked, for example because it is the
+		 * thread that completes writes.
+		 */
+		default boolean canBlock() {
+			return true;
+		}
+	}
+
+	/**
+	 * Key for messages that may not be dropped or replaced.
+	 */
+	public static final int NO_KEY = AbstractEndpointImpl.KeyedSend.NO_KEY;
+
+	private static final class Entry {
+		private final Message message;
+		private final int size;
+		private final int key;
+
+		private Entry(Message message, int size, int key) {
+			this.message = message;
+			this.size = size;
+			this.key = key;
+		}
+	}
+
+	private final Transport transport;
+	private final long maxQueuedBytes;
+	private final OverflowPolicy policy;
+	private final int maxInFlight;
+
+	private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+	private final List<Runnable> writableCallbacks = new ArrayList<>();
+	private long queuedBytes;
+	private int inFlight;
+	private boolean writable = true;
+	private boolean draining;
+	private boolean closed;
+
+	public SendQueue(Transport transport, long maxQueuedBytes, OverflowPolicy policy, int maxInFlight) {
+		if (maxQueuedBytes <= 0) {
+			throw new IllegalArgumentException("maxQueuedBytes must be positive");
+		}
+		if (maxInFlight <= 0) {
+			throw new IllegalArgumentException("maxInFlight must be positive");
+		}
+		this.transport = transport;
+		this.maxQueuedBytes = maxQueuedBytes;
+		this.policy = policy;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Queues a message to be written. The key identifies the remote method being called, so that
+	 * calls to it can be dropped or coalesced, or is {@link #NO_KEY} if the message must be sent.
+	 */
+	public void send(Message message, int key) {
+		int size = message.size();
+		List<Entry> dropped = null;
+		boolean disconnect = false;
+		synchronized (this) {
+			if (!closed && queuedBytes + size > maxQueuedBytes) {
+				switch (policy) {
+					case BLOCK:
+						if (!transport.canBlock()) {
+							// nothing will make room while this thread runs, so the queue can only be
+							// let go over its limit for so long before the connection has to go
+							disconnect = queuedBytes != 0 && queuedBytes + size - maxQueuedBytes > maxQueuedBytes;
+						} else {
+							// don't wait for a message which could never fit, only for an empty queue
+							while (!closed && queuedBytes != 0 && queuedBytes + size > maxQueuedBytes) {
+								try {
+									wait();
+								} catch (InterruptedException e) {
+									Thread.currentThread().interrupt();
+									break;
+								}
+							}
+						}
+						break;
+					case DROP_OLDEST:
+						dropped = new ArrayList<>();
+						for (Iterator<Entry> it = pending.iterator(); it.hasNext() && queuedBytes + size > maxQueuedBytes; ) {
+							Entry entry = it.next();
+							if (entry.key != NO_KEY) {
+								it.remove();
+								queuedBytes -= entry.size;
+								dropped.add(entry);
+							}
+						}
+						break;
+					case COALESCE:
+						if (key != NO_KEY) {
+							for (Iterator<Entry> it = pending.iterator(); it.hasNext(); ) {
+								Entry entry = it.next();
+								if (entry.key == key) {
+									// the newer call goes to the back, after anything sent before it
+									it.remove();
+									queuedBytes -= entry.size;
+									dropped = new ArrayList<>(1);
+									dropped.add(entry);
+									break;
+								}
+							}
+						}
+						break;
+					case DISCONNECT:
+						disconnect = true;
+						break;
+				}
+			}
+			if (closed || disconnect) {
+				if (!closed) {
+					dropped = closeLocked();
+				}
+			} else {
+				pending.addLast(new Entry(message, size, key));
+				queuedBytes += size;
+				if (queuedBytes >= maxQueuedBytes) {
+					writable = false;
+				}
+				message = null;
+			}
+		}
+		if (message != null) {
+			message.discard();
+		}
+		discard(dropped);
+		if (disconnect) {
+			transport.disconnect("Too much data queued for this connection");
+		}
+		drain();
+	}
+
+	/**
+	 * Returns false once the queue has reached its limit, until it has been drained to half of
+	 * the limit.
+	 */
+	public synchronized boolean isWritable() {
+		return writable;
+	}
+
+	/**
+	 * Returns the number of bytes sent but not yet written.
+	 */
+	public synchronized long getQueuedBytes() {
+		return queuedBytes;
+	}
+
+	/**
+	 * Runs the callback once the queue is writable, immediately if it already is. The callback is
+	 * not run if the queue is closed first.
+	 */
+	public void onWritable(Runnable callback) {
+		synchronized (this) {
+			if (!writable && !closed) {
+				writableCallbacks.add(callback);
+				return;
+			}
+		}
+		callback.run();
+	}
+
+	/**
+	 * Discards everything that hasn't been handed to the transport, and any later messages, to be
+	 * called when the connection has closed.
+	 */
+	public void close() {
+		List<Entry> dropped;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			dropped = closeLocked();
+		}
+		discard(dropped);
+	}
+
+	private List<Entry> closeLocked() {
+		closed = true;
+		List<Entry> dropped = new ArrayList<>(pending);
+		for (Entry entry : pending) {
+			queuedBytes -= entry.size;
+		}
+		pending.clear();
+		writableCallbacks.clear();
+		notifyAll();
+		return dropped;
+	}
+
+	private static void discard(List<Entry> entries) {
+		if (entries != null) {
+			for (Entry entry : entries) {
+				entry.message.discard();
+			}
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			Entry next;
+			synchronized (this) {
+				if (draining || inFlight >= maxInFlight || pending.isEmpty()) {
+					return;
+				}
+				// only one thread writes at a time, so that messages reach the transport in order
+				draining = true;
+				next = pending.pollFirst();
+				inFlight++;
+			}
+			try {
+				next.message.write(() -> written(next));
+			} finally {
+				synchronized (this) {
+					draining = false;
+				}
+			}
+		}
+	}
+
+	private void written(Entry entry) {
+		List<Runnable> callbacks = null;
+		synchronized (this) {
+			inFlight--;
+			queuedBytes -= entry.size;
+			if (!writable && queuedBytes <= maxQueuedBytes / 2) {
+				writable = true;
+				callbacks = new ArrayList<>(writableCallbacks);
+				writableCallbacks.clear();
+			}
+			notifyAll();
+		}
+		if (callbacks != null) {
+			for (Runnable callback : callbacks) {
+				callback.run();
+			}
+		}
+		// if the write completed before the transport returned, the draining thread continues
+		drain();
+	}
+}
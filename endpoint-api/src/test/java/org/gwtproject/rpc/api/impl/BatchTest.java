@@ -0,0 +1,227 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api.impl;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import org.gwtproject.rpc.serialization.api.FieldSerializer;
+import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
+import org.gwtproject.rpc.serialization.api.SerializationStreamWriter;
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.api.impl.TypeSerializerImpl;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends batches of messages carrying objects from one endpoint to another, and checks what each
+ * message reads back.
+ */
+public class BatchTest {
+	/**
+	 * Mutable value, so that a test can change it between two sends.
+	 */
+	private static final class Box {
+		private int value;
+
+		private Box(int value) {
+			this.value = value;
+		}
+	}
+
+	private static final TypeSerializer SERIALIZER = new TypeSerializerImpl() {
+		@Override
+		protected FieldSerializer serializer(String name) {
+			if (!Box.class.getCanonicalName().equals(name)) {
+				return null;
+			}
+			return new FieldSerializer() {
+				@Override
+				public Object create(SerializationStreamReader reader) {
+					return new Box(0);
+				}
+
+				@Override
+				public void deserial(SerializationStreamReader reader, Object instance) throws org.gwtproject.rpc.serialization.api.SerializationException {
+					((Box) instance).value = reader.readInt();
+				}
+
+				@Override
+				public void serial(SerializationStreamWriter writer, Object instance) throws org.gwtproject.rpc.serialization.api.SerializationException {
+					writer.writeInt(((Box) instance).value);
+				}
+			};
+		}
+
+		@Override
+		public String getChecksum() {
+			return "";
+		}
+	};
+
+	/**
+	 * Endpoint with a single remote method, which takes any number of boxes. Batches are only
+	 * flushed when the test says so.
+	 */
+	private static final class BatchingEndpoint extends AbstractEndpointImpl {
+		private final List<Throwable> errors = new ArrayList<>();
+		private final List<Box[]> received = new ArrayList<>();
+		private final ArrayDeque<ByteBuffer> outbox;
+		private int flushes;
+
+		private BatchingEndpoint(ArrayDeque<ByteBuffer> outbox) {
+			super(
+					serializer -> {
+						ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer);
+						writer.prepareToWrite();
+						return writer;
+					},
+					(ByteBufferSerializationStreamWriter writer) -> {
+						ByteBuffer payload = writer.getFullPayload();
+						ByteBuffer copy = ByteBuffer.allocate(payload.remaining()).order(payload.order());
+						copy.put(payload).flip();
+						writer.release();
+						outbox.add(copy);
+					},
+					SERIALIZER,
+					(onMessage, serializer) -> {
+					}
+			);
+			this.outbox = outbox;
+			__enableBatching(flush -> flushes++, Integer.MAX_VALUE);
+		}
+
+		@Override
+		protected void __onError(Throwable ex) {
+			errors.add(ex);
+		}
+
+		@Override
+		protected void __invoke(int recipient, SerializationStreamReader reader) throws SerializationException {
+			assertEquals(0, recipient);
+			Box[] boxes = new Box[reader.readInt()];
+			for (int i = 0; i < boxes.length; i++) {
+				boxes[i] = (Box) reader.readObject();
+			}
+			received.add(boxes);
+		}
+
+		private void send(Box... boxes) {
+			__send(0, writer -> {
+				writer.writeInt(boxes.length);
+				for (Box box : boxes) {
+					writer.writeObject(box);
+				}
+			});
+		}
+
+		private void deliverTo(BatchingEndpoint other) {
+			while (!outbox.isEmpty()) {
+				other.__onMessage(new ByteBufferSerializationStreamReader(SERIALIZER, outbox.poll()));
+			}
+		}
+	}
+
+	private final ArrayDeque<ByteBuffer> outbox = new ArrayDeque<>();
+	private final BatchingEndpoint sender = new BatchingEndpoint(outbox);
+	private final BatchingEndpoint receiver = new BatchingEndpoint(new ArrayDeque<>());
+
+	@After
+	public void noErrors() {
+		assertEquals(new ArrayList<>(), sender.errors);
+		assertEquals(new ArrayList<>(), receiver.errors);
+	}
+
+	@Test
+	public void testObjectChangedBetweenMessages() {
+		Box box = new Box(1);
+		sender.send(box);
+		box.value = 2;
+		sender.send(box);
+		sender.__flush();
+		// both messages were sent together, with a single flush scheduled
+		assertEquals(1, outbox.size());
+		assertEquals(1, sender.flushes);
+
+		sender.deliverTo(receiver);
+		assertEquals(2, receiver.received.size());
+		Box first = receiver.received.get(0)[0];
+		Box second = receiver.received.get(1)[0];
+		// each message reads the box as it was when that message was sent
+		assertEquals(1, first.value);
+		assertEquals(2, second.value);
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void testObjectSharedWithinMessage() {
+		Box box = new Box(3);
+		sender.send(new Box(1));
+		sender.send(box, box, new Box(4));
+		sender.send(box);
+		sender.__flush();
+		assertEquals(1, outbox.size());
+
+		sender.deliverTo(receiver);
+		assertEquals(3, receiver.received.size());
+		Box[] boxes = receiver.received.get(1);
+		assertEquals(3, boxes.length);
+		assertSame(boxes[0], boxes[1]);
+		assertEquals(3, boxes[0].value);
+		assertEquals(4, boxes[2].value);
+		assertNotSame(boxes[0], receiver.received.get(2)[0]);
+		assertEquals(3, receiver.received.get(2)[0].value);
+	}
+
+	@Test
+	public void testBatchAfterFailedMessage() {
+		Box box = new Box(1);
+		sender.send(new Box(0));
+		try {
+			sender.__send(0, writer -> {
+				writer.writeInt(2);
+				writer.writeObject(box);
+				throw new SerializationException("can't write the second box");
+			});
+			fail("the failed message should be reported to the caller");
+		} catch (RuntimeException expected) {
+			assertTrue(expected.getCause() instanceof SerializationException);
+		}
+		assertEquals(1, sender.errors.size());
+		sender.errors.clear();
+
+		// the partial message was dropped, the batch carries on without it
+		sender.send(box);
+		sender.__flush();
+		assertEquals(1, outbox.size());
+
+		sender.deliverTo(receiver);
+		assertEquals(2, receiver.received.size());
+		assertEquals(0, receiver.received.get(0)[0].value);
+		assertEquals(1, receiver.received.get(1)[0].value);
+	}
+}
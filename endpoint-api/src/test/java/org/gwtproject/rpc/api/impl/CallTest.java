@@ -0,0 +1,336 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api.impl;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import org.gwtproject.rpc.api.Request;
+import org.gwtproject.rpc.serialization.api.FieldSerializer;
+import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.api.impl.TypeSerializerImpl;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Makes calls which expect a single response between two endpoints connected back to back.
+ * Messages are only delivered, and calls only answered, when the test says so.
+ */
+public class CallTest {
+	private static final TypeSerializer SERIALIZER = new TypeSerializerImpl() {
+		@Override
+		protected FieldSerializer serializer(String name) {
+			return null;
+		}
+
+		@Override
+		public String getChecksum() {
+			return "";
+		}
+	};
+
+	/**
+	 * A call received by an endpoint, waiting for the test to answer it.
+	 */
+	private static final class Received {
+		private final int callbackId;
+		private final long deadline;
+		private final int value;
+		private final AbstractEndpointImpl.IncomingCall call;
+
+		private Received(int callbackId, long deadline, int value, AbstractEndpointImpl.IncomingCall call) {
+			this.callbackId = callbackId;
+			this.deadline = deadline;
+			this.value = value;
+			this.call = call;
+		}
+	}
+
+	/**
+	 * Endpoint with a single remote method, which answers with the number it was given.
+	 */
+	private static final class LoopbackEndpoint extends AbstractEndpointImpl {
+		private final ArrayDeque<ByteBuffer> outbox;
+		private final List<Throwable> errors = new ArrayList<>();
+		private final List<Received> received = new ArrayList<>();
+
+		private LoopbackEndpoint(ArrayDeque<ByteBuffer> outbox) {
+			super(
+					serializer -> {
+						ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer);
+						writer.prepareToWrite();
+						return writer;
+					},
+					(ByteBufferSerializationStreamWriter writer) -> {
+						ByteBuffer payload = writer.getFullPayload();
+						ByteBuffer copy = ByteBuffer.allocate(payload.remaining()).order(payload.order());
+						copy.put(payload).flip();
+						writer.release();
+						outbox.add(copy);
+					},
+					SERIALIZER,
+					(onMessage, serializer) -> {
+					}
+			);
+			this.outbox = outbox;
+		}
+
+		@Override
+		protected void __onError(Throwable ex) {
+			errors.add(ex);
+		}
+
+		@Override
+		protected void __invoke(int recipient, SerializationStreamReader reader) throws SerializationException {
+			assertEquals(0, recipient);
+			int header = reader.readInt();
+			int callbackId = Math.abs(header);
+			long deadline = __readDeadline(header, reader);
+			int value = reader.readInt();
+			if (__shed(deadline)) {
+				return;
+			}
+			received.add(new Received(callbackId, deadline, value, __startIncomingCall(callbackId, deadline)));
+		}
+
+		private Request echo(int value, List<String> events) {
+			return __send(0, writer -> writer.writeInt(value), new ReadingCallback() {
+				@Override
+				public void success(SerializationStreamReader reader) throws org.gwtproject.rpc.serialization.api.SerializationException {
+					int response = reader.readInt();
+					if (!isCancelled()) {
+						events.add(String.valueOf(response));
+					}
+				}
+
+				@Override
+				public void failure(SerializationStreamReader reader) {
+					events.add("failure");
+				}
+
+				@Override
+				public void timeout() {
+					events.add("timeout");
+				}
+			});
+		}
+
+		/**
+		 * Answers the call as the generated callback would, returns false if it was not sent.
+		 */
+		private boolean respond(Received call) {
+			if (!__finishIncomingCall(call.call)) {
+				return false;
+			}
+			__send(-call.callbackId, writer -> {
+				writer.writeBoolean(true);
+				writer.writeInt(call.value);
+			});
+			return true;
+		}
+
+		/**
+		 * Takes the next message from this endpoint's outbox, reading it as the transport would
+		 * as soon as it arrives.
+		 */
+		private ByteBufferSerializationStreamReader receive() {
+			return new ByteBufferSerializationStreamReader(SERIALIZER, outbox.poll());
+		}
+
+		/**
+		 * Hands every message waiting in this endpoint's outbox to the other endpoint.
+		 */
+		private int deliverTo(LoopbackEndpoint other) {
+			int count = 0;
+			while (!outbox.isEmpty()) {
+				other.__onMessage(receive());
+				count++;
+			}
+			return count;
+		}
+	}
+
+	private final ArrayDeque<ByteBuffer> callerOutbox = new ArrayDeque<>();
+	private final ArrayDeque<ByteBuffer> calleeOutbox = new ArrayDeque<>();
+	private final LoopbackEndpoint caller = new LoopbackEndpoint(callerOutbox);
+	private final LoopbackEndpoint callee = new LoopbackEndpoint(calleeOutbox);
+	private final List<String> events = new ArrayList<>();
+
+	@After
+	public void noErrors() {
+		assertEquals(new ArrayList<>(), caller.errors);
+		assertEquals(new ArrayList<>(), callee.errors);
+	}
+
+	@Test
+	public void testNoDeadline() {
+		caller.echo(1, events);
+		caller.deliverTo(callee);
+		assertEquals(1, callee.received.size());
+		assertEquals(0, callee.received.get(0).deadline);
+
+		assertTrue(callee.respond(callee.received.get(0)));
+		callee.deliverTo(caller);
+		assertEquals(Arrays.asList("1"), events);
+		assertEquals(0, caller.__getPendingCallbackCount());
+	}
+
+	@Test
+	public void testAnsweredWithinDeadline() {
+		caller.__setCallbackTimeout(10_000);
+		long before = System.currentTimeMillis();
+		caller.echo(1, events);
+		caller.deliverTo(callee);
+		assertEquals(1, callee.received.size());
+		long deadline = callee.received.get(0).deadline;
+		assertTrue(deadline > before && deadline <= System.currentTimeMillis() + 10_000);
+
+		assertTrue(callee.respond(callee.received.get(0)));
+		callee.deliverTo(caller);
+		assertEquals(Arrays.asList("1"), events);
+		assertEquals(0, callee.__getShedCallCount());
+	}
+
+	@Test
+	public void testShedAfterWaitingToBeRead() throws InterruptedException {
+		caller.__setCallbackTimeout(50);
+		caller.echo(1, events);
+		// the message arrives in time, but waits to be dispatched until after its deadline
+		ByteBufferSerializationStreamReader reader = caller.receive();
+		Thread.sleep(100);
+		callee.__onMessage(reader);
+
+		assertEquals(1, callee.__getShedCallCount());
+		assertTrue(callee.received.isEmpty());
+		assertTrue(calleeOutbox.isEmpty());
+	}
+
+	@Test
+	public void testIncomingCallExpires() throws InterruptedException {
+		caller.__setCallbackTimeout(50);
+		caller.echo(1, events);
+		caller.deliverTo(callee);
+		assertEquals(1, callee.received.size());
+		Received call = callee.received.get(0);
+		assertFalse(call.call.isCancelled());
+
+		Thread.sleep(100);
+		callee.__expireCallbacks();
+		// the caller has given up, so the implementation is told and the answer is not sent
+		assertTrue(call.call.isCancelled());
+		assertFalse(callee.respond(call));
+		assertTrue(calleeOutbox.isEmpty());
+
+		caller.__expireCallbacks();
+		assertEquals(Arrays.asList("timeout"), events);
+		assertEquals(1, caller.__getTimedOutCallbackCount());
+		assertEquals(0, caller.__getPendingCallbackCount());
+	}
+
+	@Test
+	public void testCancelRemovesIncomingCall() {
+		Request request = caller.echo(1, events);
+		caller.deliverTo(callee);
+		assertEquals(1, callee.received.size());
+		Received call = callee.received.get(0);
+
+		request.cancel();
+		assertFalse(request.isPending());
+		assertEquals(1, caller.deliverTo(callee));
+		// the implementation is told, and its answer is not sent
+		assertTrue(call.call.isCancelled());
+		assertFalse(callee.respond(call));
+
+		// only the confirmation goes back, after which the caller forgets the call
+		assertEquals(1, callee.deliverTo(caller));
+		assertEquals(0, caller.__getPendingCallbackCount());
+		assertTrue(events.isEmpty());
+	}
+
+	@Test
+	public void testCancelCrossesResponse() {
+		Request request = caller.echo(1, events);
+		caller.deliverTo(callee);
+		Received call = callee.received.get(0);
+
+		// the call is answered before the cancellation arrives
+		request.cancel();
+		assertTrue(callee.respond(call));
+		assertEquals(1, caller.deliverTo(callee));
+		assertFalse(call.call.isCancelled());
+
+		// so no confirmation is sent, and the response is read and dropped
+		assertEquals(1, callee.deliverTo(caller));
+		assertTrue(events.isEmpty());
+		assertEquals(0, caller.__getPendingCallbackCount());
+	}
+
+	@Test
+	public void testAbandonedIncomingCall() {
+		Request request = caller.echo(1, events);
+		caller.deliverTo(callee);
+		Received call = callee.received.get(0);
+
+		// as the generated code does when the implementation throws
+		callee.__abandonIncomingCall(call.call);
+		assertTrue(call.call.isCancelled());
+		assertFalse(callee.respond(call));
+		assertTrue(calleeOutbox.isEmpty());
+
+		// the call is gone, so a cancellation from the caller isn't confirmed
+		request.cancel();
+		caller.deliverTo(callee);
+		assertTrue(calleeOutbox.isEmpty());
+	}
+
+	@Test
+	public void testLateResponseDropped() throws InterruptedException {
+		caller.__setCallbackTimeout(50);
+		caller.echo(1, events);
+		caller.echo(2, events);
+		caller.deliverTo(callee);
+		assertEquals(2, callee.received.size());
+
+		Thread.sleep(100);
+		caller.__expireCallbacks();
+		assertEquals(Arrays.asList("timeout", "timeout"), events);
+
+		// the callee didn't notice the deadline before answering
+		assertTrue(callee.respond(callee.received.get(0)));
+		assertTrue(callee.respond(callee.received.get(1)));
+		callee.deliverTo(caller);
+		// both responses are read and dropped
+		assertEquals(Arrays.asList("timeout", "timeout"), events);
+		assertEquals(0, caller.__getPendingCallbackCount());
+
+		// and only timed out once
+		caller.__expireCallbacks();
+		assertEquals(2, caller.__getTimedOutCallbackCount());
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api.impl;
+
+import org.gwtproject.rpc.api.impl.AbstractEndpointImpl.ReadingCallback;
+import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CallbackTableTest {
+	private static ReadingCallback callback() {
+		return new ReadingCallback() {
+			@Override
+			public void success(SerializationStreamReader reader) {
+			}
+
+			@Override
+			public void failure(SerializationStreamReader reader) {
+			}
+		};
+	}
+
+	@Test
+	public void testPutAndRemove() {
+		CallbackTable<ReadingCallback> table = new CallbackTable<>();
+		List<ReadingCallback> callbacks = new ArrayList<>();
+		// enough to resize the table a few times
+		for (int id = 1; id <= 100; id++) {
+			ReadingCallback callback = callback();
+			callbacks.add(callback);
+			table.put(id, callback, 0);
+		}
+		assertEquals(100, table.size());
+		assertNull(table.remove(101));
+		assertSame(callbacks.get(41), table.get(42));
+		assertNull(table.get(101));
+
+		for (int id = 1; id <= 100; id++) {
+			assertSame(callbacks.get(id - 1), table.remove(id));
+			assertNull(table.remove(id));
+		}
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testRemoveKeepsProbeSequence() {
+		CallbackTable<ReadingCallback> table = new CallbackTable<>();
+		// ids with the same low bits all want the same slot, so each probes past the one before
+		ReadingCallback first = callback();
+		ReadingCallback second = callback();
+		ReadingCallback third = callback();
+		table.put(16, first, 0);
+		table.put(32, second, 0);
+		table.put(48, third, 0);
+		// and this one wants the slot the second ended up in
+		ReadingCallback other = callback();
+		table.put(1, other, 0);
+
+		assertSame(first, table.remove(16));
+		// the later entries must have been moved back to stay reachable
+		assertSame(third, table.remove(48));
+		assertSame(other, table.remove(1));
+		assertSame(second, table.remove(32));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testRandomPutAndRemove() {
+		CallbackTable<ReadingCallback> table = new CallbackTable<>();
+		Map<Integer, ReadingCallback> expected = new HashMap<>();
+		Random random = new Random(1);
+		int nextId = 1;
+		for (int i = 0; i < 100_000; i++) {
+			if (expected.isEmpty() || random.nextInt(3) != 0) {
+				ReadingCallback callback = callback();
+				table.put(nextId, callback, 0);
+				expected.put(nextId, callback);
+				nextId++;
+			} else {
+				// mostly answered in order, but not always
+				int id = nextId - 1 - random.nextInt(Math.min(nextId - 1, 50));
+				assertSame(expected.remove(id), table.remove(id));
+			}
+			assertEquals(expected.size(), table.size());
+		}
+		for (Map.Entry<Integer, ReadingCallback> entry : expected.entrySet()) {
+			assertSame(entry.getValue(), table.remove(entry.getKey()));
+		}
+	}
+
+	@Test
+	public void testExpire() {
+		CallbackTable<ReadingCallback> table = new CallbackTable<>();
+		table.setTimeout(1000);
+		ReadingCallback soon = callback();
+		ReadingCallback later = callback();
+		ReadingCallback answered = callback();
+		ReadingCallback never = callback();
+		table.put(1, soon, 10_100);
+		table.put(2, later, 10_900);
+		table.put(3, answered, 10_100);
+		table.put(4, never, 0);
+		assertSame(answered, table.remove(3));
+
+		assertTrue(table.expire(10_000).isEmpty());
+		List<ReadingCallback> expired = table.expire(10_500);
+		assertEquals(1, expired.size());
+		assertSame(soon, expired.get(0));
+		assertNull(table.remove(1));
+
+		expired = table.expire(11_000);
+		assertEquals(1, expired.size());
+		assertSame(later, expired.get(0));
+
+		// even after the wheel has gone round many times
+		assertTrue(table.expire(1_000_000).isEmpty());
+		assertSame(never, table.remove(4));
+	}
+
+	@Test
+	public void testExpireLaterInCurrentTick() {
+		// ticks are 10ms long
+		CallbackTable<ReadingCallback> table = new CallbackTable<>();
+		ReadingCallback callback = callback();
+		table.put(1, callback, 105);
+
+		// the tick from 100 to 110 has started, but the callback isn't due yet
+		assertTrue(table.expire(101).isEmpty());
+		assertEquals(1, table.size());
+
+		// so it must be found later in the same tick, not on the next turn of the wheel
+		List<ReadingCallback> expired = table.expire(106);
+		assertEquals(1, expired.size());
+		assertSame(callback, expired.get(0));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testExpireAfterWheelTurn() {
+		// ticks are 10ms long, and the wheel has 256 of them
+		CallbackTable<ReadingCallback> table = new CallbackTable<>();
+		ReadingCallback nextTurn = callback();
+		ReadingCallback thisTurn = callback();
+		table.put(1, nextTurn, 100 + 2560);
+		table.put(2, thisTurn, 100);
+
+		// both are in the same slot, only one is due
+		List<ReadingCallback> expired = table.expire(105);
+		assertEquals(1, expired.size());
+		assertSame(thisTurn, expired.get(0));
+
+		assertTrue(table.expire(2600).isEmpty());
+		expired = table.expire(2665);
+		assertEquals(1, expired.size());
+		assertSame(nextTurn, expired.get(0));
+	}
+
+	@Test
+	public void testSetTimeoutMovesWaitingCallbacks() {
+		CallbackTable<ReadingCallback> table = new CallbackTable<>();
+		ReadingCallback callback = callback();
+		table.put(1, callback, 5_000);
+		table.setTimeout(60_000);
+
+		assertTrue(table.expire(4_000).isEmpty());
+		List<ReadingCallback> expired = table.expire(5_000);
+		assertEquals(1, expired.size());
+		assertSame(callback, expired.get(0));
+	}
+
+	@Test
+	public void testExpireWithGracePeriod() {
+		CallbackTable<ReadingCallback> table = new CallbackTable<>();
+		ReadingCallback callback = callback();
+		ReadingCallback answered = callback();
+		table.put(1, callback, 100);
+		table.put(2, answered, 100);
+
+		List<ReadingCallback> expired = table.expire(100, 50);
+		assertEquals(2, expired.size());
+		// both are still found, so that a late response can be read
+		assertSame(callback, table.get(1));
+		assertTrue(callback.expired);
+		assertEquals(2, table.size());
+		assertEquals(2, table.expiredSize());
+
+		// a late response removes its call
+		assertSame(answered, table.remove(2));
+		assertEquals(1, table.expiredSize());
+
+		// not returned again once the grace period is over, only forgotten
+		assertTrue(table.expire(149, 50).isEmpty());
+		assertSame(callback, table.get(1));
+		assertTrue(table.expire(150, 50).isEmpty());
+		assertNull(table.get(1));
+		assertEquals(0, table.size());
+		assertEquals(0, table.expiredSize());
+
+		// a reused callback starts over
+		table.put(3, callback, 200);
+		assertFalse(callback.expired);
+		assertEquals(0, table.expiredSize());
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api.impl;
+
+import org.gwtproject.rpc.api.Callback;
+import org.gwtproject.rpc.api.RemoteCallException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks what the caller of a method returning a future is sent, as the generated code subscribes
+ * to the stage the implementation returns.
+ */
+public class FutureCallbackTest {
+	private final List<String> sent = new ArrayList<>();
+	private final List<Throwable> errors = new ArrayList<>();
+
+	private final Callback<String, String> callback = new Callback<String, String>() {
+		@Override
+		public void onSuccess(String value) {
+			sent.add("success: " + value);
+		}
+
+		@Override
+		public void onFailure(String error) {
+			sent.add("failure: " + error);
+		}
+	};
+
+	@Test
+	public void testSuccess() {
+		FutureCallback.subscribe(() -> CompletableFuture.completedFuture("a"), callback, errors::add);
+		assertEquals(list("success: a"), sent);
+		assertTrue(errors.isEmpty());
+	}
+
+	@Test
+	public void testCompletedLater() {
+		CompletableFuture<String> future = new CompletableFuture<>();
+		FutureCallback.subscribe(() -> future, callback, errors::add);
+		assertTrue(sent.isEmpty());
+
+		future.complete("a");
+		assertEquals(list("success: a"), sent);
+	}
+
+	@Test
+	public void testThrowsSynchronously() {
+		IllegalStateException thrown = new IllegalStateException("secret");
+		FutureCallback.subscribe(() -> {
+			throw thrown;
+		}, callback, errors::add);
+		assertEquals(list("failure: " + FutureCallback.FAILURE_MESSAGE), sent);
+		assertEquals(1, errors.size());
+		assertSame(thrown, errors.get(0));
+	}
+
+	@Test
+	public void testCompletedExceptionally() {
+		CompletableFuture<String> future = new CompletableFuture<>();
+		FutureCallback.subscribe(() -> future, callback, errors::add);
+
+		IllegalStateException thrown = new IllegalStateException("secret");
+		future.completeExceptionally(thrown);
+		assertEquals(list("failure: " + FutureCallback.FAILURE_MESSAGE), sent);
+		assertEquals(1, errors.size());
+		assertSame(thrown, errors.get(0));
+	}
+
+	@Test
+	public void testFailedInDependentStage() {
+		CompletableFuture<String> future = new CompletableFuture<>();
+		IllegalStateException thrown = new IllegalStateException("secret");
+		CompletionStage<String> stage = future.thenApply(value -> {
+			throw thrown;
+		});
+		FutureCallback.subscribe(() -> stage, callback, errors::add);
+
+		future.complete("a");
+		assertEquals(list("failure: " + FutureCallback.FAILURE_MESSAGE), sent);
+		// the exception the implementation threw, not the wrapper added by the stage
+		assertEquals(1, errors.size());
+		assertSame(thrown, errors.get(0));
+		assertFalse(errors.get(0) instanceof CompletionException);
+	}
+
+	@Test
+	public void testReturnsNull() {
+		FutureCallback.subscribe(() -> null, callback, errors::add);
+		assertEquals(list("failure: " + FutureCallback.FAILURE_MESSAGE), sent);
+		assertEquals(1, errors.size());
+	}
+
+	@Test
+	public void testErrorHandlerThrows() {
+		try {
+			FutureCallback.subscribe(() -> {
+				throw new IllegalStateException("secret");
+			}, callback, error -> {
+				throw new IllegalStateException("can't log");
+			});
+			fail("the error handler's exception should be thrown");
+		} catch (IllegalStateException expected) {
+			assertEquals("can't log", expected.getMessage());
+		}
+		// the caller still gets its response
+		assertEquals(list("failure: " + FutureCallback.FAILURE_MESSAGE), sent);
+	}
+
+	@Test
+	public void testCallerSideFailure() throws InterruptedException {
+		FutureCallback<String> caller = new FutureCallback<>();
+		FutureCallback.subscribe(() -> {
+			throw new IllegalStateException("secret");
+		}, caller, errors::add);
+
+		try {
+			caller.getFuture().get();
+			fail("the call failed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RemoteCallException);
+			assertEquals(FutureCallback.FAILURE_MESSAGE, e.getCause().getMessage());
+			assertFalse(e.getCause().getMessage().contains("secret"));
+		}
+	}
+
+	private static List<String> list(String... values) {
+		List<String> list = new ArrayList<>();
+		for (String value : values) {
+			list.add(value);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api.impl;
+
+import org.gwtproject.rpc.api.impl.SendQueue.OverflowPolicy;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SendQueueTest {
+	private final List<String> written = new ArrayList<>();
+	private final List<String> discarded = new ArrayList<>();
+	private final List<String> disconnects = new ArrayList<>();
+	private volatile boolean canBlock = true;
+
+	private final SendQueue.Transport transport = new SendQueue.Transport() {
+		@Override
+		public void disconnect(String reason) {
+			disconnects.add(reason);
+		}
+
+		@Override
+		public boolean canBlock() {
+			return canBlock;
+		}
+	};
+
+	/**
+	 * Message which stays in flight until the test completes it.
+	 */
+	private final class TestMessage implements SendQueue.Message {
+		private final String name;
+		private final int size;
+		private Runnable onWritten;
+
+		private TestMessage(String name, int size) {
+			this.name = name;
+			this.size = size;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public void write(Runnable onWritten) {
+			synchronized (written) {
+				written.add(name);
+				this.onWritten = onWritten;
+			}
+		}
+
+		@Override
+		public void discard() {
+			discarded.add(name);
+		}
+
+		private void complete() {
+			Runnable onWritten;
+			synchronized (written) {
+				onWritten = this.onWritten;
+			}
+			assertNotNull(name + " was not written", onWritten);
+			onWritten.run();
+		}
+	}
+
+	@Test
+	public void testQueuedBytes() {
+		SendQueue queue = new SendQueue(transport, 100, OverflowPolicy.BLOCK, 1);
+		TestMessage a = new TestMessage("a", 10);
+		TestMessage b = new TestMessage("b", 20);
+		TestMessage c = new TestMessage("c", 30);
+		queue.send(a, SendQueue.NO_KEY);
+		queue.send(b, SendQueue.NO_KEY);
+		queue.send(c, SendQueue.NO_KEY);
+
+		// only one write at a time, but everything counts until it is written
+		assertEquals(list("a"), written);
+		assertEquals(60, queue.getQueuedBytes());
+
+		a.complete();
+		assertEquals(list("a", "b"), written);
+		assertEquals(50, queue.getQueuedBytes());
+
+		b.complete();
+		c.complete();
+		assertEquals(list("a", "b", "c"), written);
+		assertEquals(0, queue.getQueuedBytes());
+		assertTrue(discarded.isEmpty());
+	}
+
+	@Test
+	public void testMaxInFlight() {
+		SendQueue queue = new SendQueue(transport, 100, OverflowPolicy.BLOCK, 2);
+		TestMessage a = new TestMessage("a", 10);
+		TestMessage b = new TestMessage("b", 10);
+		TestMessage c = new TestMessage("c", 10);
+		queue.send(a, SendQueue.NO_KEY);
+		queue.send(b, SendQueue.NO_KEY);
+		queue.send(c, SendQueue.NO_KEY);
+		assertEquals(list("a", "b"), written);
+
+		b.complete();
+		assertEquals(list("a", "b", "c"), written);
+		assertEquals(20, queue.getQueuedBytes());
+	}
+
+	@Test
+	public void testOnWritable() {
+		SendQueue queue = new SendQueue(transport, 100, OverflowPolicy.BLOCK, 1);
+		List<String> events = new ArrayList<>();
+		queue.onWritable(() -> events.add("initially"));
+		assertEquals(list("initially"), events);
+
+		TestMessage a = new TestMessage("a", 40);
+		TestMessage b = new TestMessage("b", 30);
+		TestMessage c = new TestMessage("c", 30);
+		queue.send(a, SendQueue.NO_KEY);
+		queue.send(b, SendQueue.NO_KEY);
+		queue.send(c, SendQueue.NO_KEY);
+		assertFalse(queue.isWritable());
+		queue.onWritable(() -> events.add("drained"));
+
+		// 60 bytes left is still more than half of the limit
+		a.complete();
+		assertFalse(queue.isWritable());
+		assertEquals(list("initially"), events);
+
+		b.complete();
+		assertTrue(queue.isWritable());
+		assertEquals(list("initially", "drained"), events);
+	}
+
+	@Test
+	public void testBlock() throws InterruptedException {
+		SendQueue queue = new SendQueue(transport, 50, OverflowPolicy.BLOCK, 1);
+		TestMessage a = new TestMessage("a", 40);
+		queue.send(a, SendQueue.NO_KEY);
+
+		Thread sender = new Thread(() -> queue.send(new TestMessage("b", 20), SendQueue.NO_KEY));
+		sender.start();
+		sender.join(100);
+		assertTrue("sender should wait for room in the queue", sender.isAlive());
+		assertEquals(list("a"), written);
+
+		a.complete();
+		sender.join(TimeUnit.SECONDS.toMillis(10));
+		assertFalse(sender.isAlive());
+		assertEquals(list("a", "b"), written);
+		assertEquals(20, queue.getQueuedBytes());
+	}
+
+	@Test
+	public void testBlockWhenThreadCantBlock() {
+		canBlock = false;
+		SendQueue queue = new SendQueue(transport, 50, OverflowPolicy.BLOCK, 1);
+		queue.send(new TestMessage("a", 40), SendQueue.NO_KEY);
+		queue.send(new TestMessage("b", 20), SendQueue.NO_KEY);
+
+		// queued anyway, over the limit
+		assertEquals(60, queue.getQueuedBytes());
+		assertFalse(queue.isWritable());
+		assertTrue(discarded.isEmpty());
+		assertTrue(disconnects.isEmpty());
+	}
+
+	@Test
+	public void testDefaultLimitWhenThreadCantBlock() {
+		// as a server's event loop sends with the default policy and limit
+		canBlock = false;
+		SendQueue queue = new SendQueue(transport, SendQueue.DEFAULT_MAX_QUEUED_BYTES, OverflowPolicy.BLOCK, 1);
+		int size = 1024 * 1024;
+		int fit = (int) (2 * SendQueue.DEFAULT_MAX_QUEUED_BYTES / size);
+		for (int i = 0; i < fit; i++) {
+			queue.send(new TestMessage("m" + i, size), SendQueue.NO_KEY);
+		}
+		// queued past the limit, up to twice the limit
+		assertEquals(2 * SendQueue.DEFAULT_MAX_QUEUED_BYTES, queue.getQueuedBytes());
+		assertTrue(disconnects.isEmpty());
+		assertTrue(discarded.isEmpty());
+
+		queue.send(new TestMessage("over", size), SendQueue.NO_KEY);
+		assertEquals(1, disconnects.size());
+		// everything but the message being written is dropped
+		assertEquals(fit, discarded.size());
+		assertTrue(discarded.contains("over"));
+		assertFalse(discarded.contains("m0"));
+		assertEquals(size, queue.getQueuedBytes());
+	}
+
+	@Test
+	public void testBlockOnClose()throws InterruptedException {
+		SendQueue queue = new SendQueue(transport, 50, OverflowPolicy.BLOCK, 1);
+		queue.send(new TestMessage("a", 40), SendQueue.NO_KEY);
+
+		Thread sender = new Thread(() -> queue.send(new TestMessage("b", 20), SendQueue.NO_KEY));
+		sender.start();
+		sender.join(100);
+		assertTrue(sender.isAlive());
+
+		queue.close();
+		sender.join(TimeUnit.SECONDS.toMillis(10));
+		assertFalse(sender.isAlive());
+		assertEquals(list("b"), discarded);
+	}
+
+	@Test
+	public void testDropOldest() {
+		SendQueue queue = new SendQueue(transport, 100, OverflowPolicy.DROP_OLDEST, 1);
+		TestMessage a = new TestMessage("a", 40);
+		queue.send(a, 1);
+		queue.send(new TestMessage("b", 30), SendQueue.NO_KEY);
+		queue.send(new TestMessage("c", 20), 2);
+		queue.send(new TestMessage("d", 10), 3);
+
+		// a is already being written, b may not be dropped, so c is the oldest which can go
+		queue.send(new TestMessage("e", 20), 4);
+		assertEquals(list("c"), discarded);
+		assertEquals(100, queue.getQueuedBytes());
+
+		// nothing left that may be dropped, so it is queued anyway
+		queue.send(new TestMessage("f", 40), SendQueue.NO_KEY);
+		assertEquals(list("c", "d", "e"), discarded);
+		assertEquals(110, queue.getQueuedBytes());
+
+		a.complete();
+		assertEquals(list("a", "b"), written);
+	}
+
+	@Test
+	public void testCoalesce() {
+		SendQueue queue = new SendQueue(transport, 40, OverflowPolicy.COALESCE, 1);
+		TestMessage a = new TestMessage("a", 30);
+		queue.send(a, 1);
+		TestMessage b = new TestMessage("b", 10);
+		queue.send(b, 2);
+		TestMessage c = new TestMessage("c", 10);
+		queue.send(c, 3);
+
+		// replaces the waiting call to the same method, and goes after c
+		TestMessage d = new TestMessage("d", 10);
+		queue.send(d, 2);
+		assertEquals(list("b"), discarded);
+		assertEquals(50, queue.getQueuedBytes());
+
+		// calls which don't replace anything, and messages without a key, are never dropped
+		TestMessage e = new TestMessage("e", 10);
+		queue.send(e, SendQueue.NO_KEY);
+		assertEquals(list("b"), discarded);
+		assertEquals(60, queue.getQueuedBytes());
+
+		a.complete();
+		c.complete();
+		d.complete();
+		e.complete();
+		assertEquals(list("a", "c", "d", "e"), written);
+		assertEquals(0, queue.getQueuedBytes());
+	}
+
+	@Test
+	public void testDisconnect() {
+		SendQueue queue = new SendQueue(transport, 50, OverflowPolicy.DISCONNECT, 1);
+		TestMessage a = new TestMessage("a", 20);
+		queue.send(a, SendQueue.NO_KEY);
+		queue.send(new TestMessage("b", 20), SendQueue.NO_KEY);
+		assertTrue(disconnects.isEmpty());
+
+		queue.send(new TestMessage("c", 20), SendQueue.NO_KEY);
+		assertEquals(1, disconnects.size());
+		// both the queued message and the one which didn't fit
+		assertEquals(2, discarded.size());
+		assertTrue(discarded.containsAll(list("b", "c")));
+
+		// later messages are discarded without disconnecting again
+		queue.send(new TestMessage("d", 10), SendQueue.NO_KEY);
+		assertEquals(1, disconnects.size());
+		assertEquals(3, discarded.size());
+		assertEquals("d", discarded.get(2));
+
+		// the write which was in flight still completes
+		a.complete();
+		assertEquals(0, queue.getQueuedBytes());
+		assertEquals(list("a"), written);
+	}
+
+	@Test
+	public void testClose() {
+		SendQueue queue = new SendQueue(transport, 60, OverflowPolicy.BLOCK, 1);
+		TestMessage a = new TestMessage("a", 30);
+		queue.send(a, SendQueue.NO_KEY);
+		queue.send(new TestMessage("b", 30), SendQueue.NO_KEY);
+		queue.onWritable(() -> fail("queue is closed"));
+
+		queue.close();
+		assertEquals(list("b"), discarded);
+		assertEquals(30, queue.getQueuedBytes());
+
+		queue.send(new TestMessage("c", 10), SendQueue.NO_KEY);
+		assertEquals(list("b", "c"), discarded);
+
+		a.complete();
+		assertEquals(0, queue.getQueuedBytes());
+		assertEquals(list("a"), written);
+	}
+
+	private static List<String> list(String... names) {
+		List<String> list = new ArrayList<>();
+		for (String name : names) {
+			list.add(name);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * #%L
+ * gwt-websockets-api
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.api.impl;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import org.gwtproject.rpc.api.Request;
+import org.gwtproject.rpc.serialization.api.FieldSerializer;
+import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.api.impl.TypeSerializerImpl;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streams a sequence of numbers between two endpoints connected back to back. Messages are only
+ * delivered when the test says so, so it can check what has been sent at each point.
+ */
+public class StreamTest {
+	private static final TypeSerializer SERIALIZER = new TypeSerializerImpl() {
+		@Override
+		protected FieldSerializer serializer(String name) {
+			return null;
+		}
+
+		@Override
+		public String getChecksum() {
+			return "";
+		}
+	};
+
+	/**
+	 * Endpoint with a single remote method, which streams numbers to the caller. The test sends
+	 * the items itself, through the stream call the endpoint received.
+	 */
+	private static final class LoopbackEndpoint extends AbstractEndpointImpl {
+		private final ArrayDeque<ByteBuffer> outbox;
+		private final List<Throwable> errors = new ArrayList<>();
+		private IncomingStreamCall stream;
+
+		private LoopbackEndpoint(ArrayDeque<ByteBuffer> outbox) {
+			super(
+					serializer -> {
+						ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer);
+						writer.prepareToWrite();
+						return writer;
+					},
+					(ByteBufferSerializationStreamWriter writer) -> {
+						ByteBuffer payload = writer.getFullPayload();
+						ByteBuffer copy = ByteBuffer.allocate(payload.remaining()).order(payload.order());
+						copy.put(payload).flip();
+						writer.release();
+						outbox.add(copy);
+					},
+					SERIALIZER,
+					(onMessage, serializer) -> {
+					}
+			);
+			this.outbox = outbox;
+		}
+
+		@Override
+		protected void __onError(Throwable ex) {
+			errors.add(ex);
+		}
+
+		@Override
+		protected void __invoke(int recipient, SerializationStreamReader reader) throws SerializationException {
+			assertEquals(0, recipient);
+			int header = reader.readInt();
+			int callbackId = Math.abs(header);
+			__readDeadline(header, reader);
+			int window = reader.readInt();
+			stream = __startIncomingStream(callbackId, window);
+		}
+
+		private Request numbers(int window, List<String> events) {
+			return __send(0, writer -> writer.writeInt(window), new StreamReadingCallback(window) {
+				@Override
+				public void item(SerializationStreamReader reader) throws org.gwtproject.rpc.serialization.api.SerializationException {
+					int value = reader.readInt();
+					if (!isCancelled()) {
+						events.add(String.valueOf(value));
+					}
+				}
+
+				@Override
+				public void complete() {
+					if (!isCancelled()) {
+						events.add("complete");
+					}
+				}
+
+				@Override
+				public void error(SerializationStreamReader reader) {
+					events.add("error");
+				}
+			});
+		}
+
+		private void sendItem(int value) {
+			__sendStreamItem(stream, writer -> writer.writeInt(value));
+		}
+
+		private void end() {
+			__endStream(stream, writer -> {
+				writer.writeBoolean(true);
+				writer.writeBoolean(false);
+			});
+		}
+
+		/**
+		 * Hands every message waiting in this endpoint's outbox to the other endpoint.
+		 */
+		private int deliverTo(LoopbackEndpoint other) {
+			int count = 0;
+			while (!outbox.isEmpty()) {
+				other.__onMessage(new ByteBufferSerializationStreamReader(SERIALIZER, outbox.poll()));
+				count++;
+			}
+			return count;
+		}
+	}
+
+	private final ArrayDeque<ByteBuffer> callerOutbox = new ArrayDeque<>();
+	private final ArrayDeque<ByteBuffer> calleeOutbox = new ArrayDeque<>();
+	private final LoopbackEndpoint caller = new LoopbackEndpoint(callerOutbox);
+	private final LoopbackEndpoint callee = new LoopbackEndpoint(calleeOutbox);
+	private final List<String> events = new ArrayList<>();
+
+	@After
+	public void noErrors() {
+		assertEquals(new ArrayList<>(), caller.errors);
+		assertEquals(new ArrayList<>(), callee.errors);
+	}
+
+	private void pump() {
+		while (caller.deliverTo(callee) + callee.deliverTo(caller) > 0) {
+			// until neither end has anything left to say
+		}
+	}
+
+	@Test
+	public void testItemsWaitForCredit() {
+		caller.numbers(4, events);
+		caller.deliverTo(callee);
+		assertNotNull(callee.stream);
+		assertTrue(callee.stream.isReady());
+
+		for (int i = 0; i < 10; i++) {
+			callee.sendItem(i);
+		}
+		// only the window is sent, the rest waits for credit
+		assertEquals(4, calleeOutbox.size());
+		assertFalse(callee.stream.isReady());
+
+		callee.deliverTo(caller);
+		assertEquals(Arrays.asList("0", "1", "2", "3"), events);
+		// credit is given back in halves of the window
+		assertEquals(2, callerOutbox.size());
+
+		caller.deliverTo(callee);
+		assertEquals(4, calleeOutbox.size());
+
+		pump();
+		assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"), events);
+		assertTrue(callee.stream.isReady());
+	}
+
+	@Test
+	public void testOnReady() {
+		caller.numbers(2, events);
+		caller.deliverTo(callee);
+		List<String> ready = new ArrayList<>();
+		callee.sendItem(0);
+		callee.sendItem(1);
+		callee.stream.onReady(() -> ready.add("ready"));
+		assertTrue(ready.isEmpty());
+
+		pump();
+		assertEquals(Arrays.asList("0", "1"), events);
+		assertEquals(Arrays.asList("ready"), ready);
+	}
+
+	@Test
+	public void testEndAfterPendingItems() {
+		caller.numbers(2, events);
+		caller.deliverTo(callee);
+		for (int i = 0; i < 5; i++) {
+			callee.sendItem(i);
+		}
+		callee.end();
+		// the end doesn't overtake the items waiting for credit
+		assertEquals(2, calleeOutbox.size());
+
+		pump();
+		assertEquals(Arrays.asList("0", "1", "2", "3", "4", "complete"), events);
+		assertEquals(0, caller.__getPendingCallbackCount());
+
+		// anything after the end is ignored
+		callee.sendItem(5);
+		callee.end();
+		assertTrue(calleeOutbox.isEmpty());
+	}
+
+	@Test
+	public void testNothingAfterCancel() {
+		Request request = caller.numbers(2, events);
+		caller.deliverTo(callee);
+		for (int i = 0; i < 5; i++) {
+			callee.sendItem(i);
+		}
+		assertEquals(2, calleeOutbox.size());
+
+		request.cancel();
+		assertFalse(request.isPending());
+		caller.deliverTo(callee);
+		assertTrue(callee.stream.isCancelled());
+		// the two items sent before, then the confirmation that nothing more will be sent
+		assertEquals(3, calleeOutbox.size());
+
+		callee.sendItem(5);
+		callee.end();
+		assertEquals(3, calleeOutbox.size());
+
+		pump();
+		// the items which were already on their way are read, but not passed on
+		assertTrue(events.isEmpty());
+		assertEquals(0, caller.__getPendingCallbackCount());
+		// and no credit was given for them
+		assertTrue(callerOutbox.isEmpty());
+	}
+}
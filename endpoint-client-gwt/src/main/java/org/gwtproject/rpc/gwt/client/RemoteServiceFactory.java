@@ -35,12 +35,22 @@ public final class RemoteServiceFactory {
 	}
 
 	public static <T extends RemoteServiceAsync> T create(EndpointImplConstructor<T> constructor) {
+		return create(constructor, 0);
+	}
+
+	/**
+	 * Creates the service, adding the given flags to the writer of each request, such as
+	 * {@link StringSerializationStreamWriter#FLAG_PACKED_ARRAYS}, provided that the server is
+	 * able to read them.
+	 */
+	public static <T extends RemoteServiceAsync> T create(EndpointImplConstructor<T> constructor, int writerFlags) {
 		Consumer<String>[] responseHandler = new Consumer[1];
 		T[] instance = (T[]) new RemoteServiceAsync[1];
 		instance[0] = constructor.create(
 				serializer -> {
 					StringSerializationStreamWriter writer = new StringSerializationStreamWriter(serializer);
 					writer.prepareToWrite();
+					writer.addFlags(writerFlags);
 					return writer;
 				},
 				stream -> {
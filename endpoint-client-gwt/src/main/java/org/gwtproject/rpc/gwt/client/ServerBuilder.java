@@ -33,8 +33,11 @@ import org.gwtproject.rpc.api.impl.AbstractWebSocketServerImpl;
 import org.gwtproject.rpc.gwt.client.impl.ServerBuilderImpl;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.StringDictionary;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
@@ -89,6 +92,17 @@ public interface ServerBuilder<S extends Server<? super S, ?>> {
 	 */
 	ServerBuilder<S> setProtocol(String protocol);
 
+	/**
+	 * Offers the server a string dictionary of the given number of strings for the next server
+	 * instances started. If the server accepts, strings which were already sent on the connection
+	 * are written as their index in the dictionary rather than in full, in both directions. Zero,
+	 * the default, makes no offer.
+	 *
+	 * @param capacity
+	 * @return
+	 */
+	ServerBuilder<S> setStringDictionary(int capacity);
+
 	/**
 	 * Creates a new instance of the specified server type, starts, and returns it. May
 	 * be called more than once to create additional connections, such as after the first
@@ -124,22 +138,37 @@ public interface ServerBuilder<S extends Server<? super S, ?>> {
 			public E start() {
 				AtomicReference<WebSocket> socket = new AtomicReference<>();
 				AtomicReference<Consumer<ArrayBuffer>> onmessage = new AtomicReference<>();
+				int dictionaryCapacity = getStringDictionaryCapacity();
+				StringDictionary outgoingStrings = dictionaryCapacity == 0 ? null : new StringDictionary(dictionaryCapacity, StringDictionary.DEFAULT_MAX_STRING_LENGTH);
+				StringDictionary incomingStrings = dictionaryCapacity == 0 ? null : new StringDictionary(dictionaryCapacity, StringDictionary.DEFAULT_MAX_STRING_LENGTH);
+				// set once the server shows that it accepted the dictionary, by using it
+				AtomicBoolean dictionaryAccepted = new AtomicBoolean();
 				E instance = constructor.create(
 						serializer -> {
 							ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer);
 							writer.prepareToWrite();
+							// the server only accepts our checksum, so it assigns the same type ids
+							writer.addFlags(AbstractSerializationStream.FLAG_TYPE_IDS);
+							if (dictionaryAccepted.get()) {
+								writer.addFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY);
+							}
 							return writer;
 						},
-						stream -> socket.get().send(Js.<Int8Array>uncheckedCast(TypedArrayHelper.unwrap(stream.getFullPayload()))),
+						stream -> socket.get().send(Js.<Int8Array>uncheckedCast(TypedArrayHelper.unwrap(stream.getFullPayload(outgoingStrings)))),
 						(send, serializer) -> {
 							onmessage.set(message -> {
 								ByteBuffer bb = TypedArrayHelper.wrap(message);
-								send.accept(new ByteBufferSerializationStreamReader(serializer, bb));
+								ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(serializer, bb, incomingStrings);
+								if (incomingStrings != null && reader.hasFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY)) {
+									dictionaryAccepted.set(true);
+								}
+								send.accept(reader);
 							});
 						}
 				);
 
-				socket.set(new WebSocket(getUrl() + "?checksum=" + ((AbstractWebSocketServerImpl<?, ?>) instance).getChecksum()));
+				socket.set(new WebSocket(getUrl() + "?checksum=" + ((AbstractWebSocketServerImpl<?, ?>) instance).getChecksum()
+						+ (dictionaryCapacity == 0 ? "" : "&dictionary=" + dictionaryCapacity)));
 				socket.get().binaryType = "arraybuffer";
 				socket.get().onclose = e -> {
 					int closeCode = Js.asPropertyMap(e).getAsAny("code").asInt();
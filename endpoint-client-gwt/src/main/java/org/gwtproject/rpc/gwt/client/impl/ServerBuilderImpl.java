@@ -27,6 +27,7 @@ public abstract class ServerBuilderImpl<S extends Server<? super S, ?>> implemen
 	private String url;
 	private URL urlBuilder = new URL(DomGlobal.self.location.href);
 	private ConnectionErrorHandler errorHandler;
+	private int stringDictionaryCapacity;
 
 	/**
 	 *
@@ -76,4 +77,16 @@ public abstract class ServerBuilderImpl<S extends Server<? super S, ?>> implemen
 		urlBuilder.pathname = path;
 		return this;
 	}
+
+	@Override
+	public ServerBuilder<S> setStringDictionary(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity must not be negative");
+		}
+		stringDictionaryCapacity = capacity;
+		return this;
+	}
+	public int getStringDictionaryCapacity() {
+		return stringDictionaryCapacity;
+	}
 }
\ No newline at end of file
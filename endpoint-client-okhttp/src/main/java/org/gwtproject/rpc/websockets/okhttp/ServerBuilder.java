@@ -19,6 +19,17 @@ public interface ServerBuilder<S extends Server<? super S, ?>> {
      * @return
      */
     ServerBuilder<S> setUrl(String url);
+
+    /**
+     * Offers the server a string dictionary of the given number of strings for the next connections
+     * started. If the server accepts, strings which were already sent on the connection are written
+     * as their index in the dictionary rather than in full, in both directions. Zero, the default,
+     * makes no offer.
+     *
+     * @param capacity the number of strings each end keeps
+     * @return
+     */
+    ServerBuilder<S> setStringDictionary(int capacity);
 //
 //    /**
 //     * Sets the path for the next server to be started. Defaults to the RemoteServiceRelativePath
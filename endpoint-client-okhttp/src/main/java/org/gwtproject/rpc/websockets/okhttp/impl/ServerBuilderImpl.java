@@ -2,8 +2,12 @@ package org.gwtproject.rpc.websockets.okhttp.impl;
 
 import okhttp3.*;
 import okio.ByteString;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferPool;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.SizeClassByteBufferPool;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.StringDictionary;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 import org.gwtproject.rpc.websockets.okhttp.ServerBuilder;
 import org.gwtproject.rpc.api.Client;
 import org.gwtproject.rpc.api.Server;
@@ -20,8 +24,15 @@ public class ServerBuilderImpl<S extends Server<? super S, ?>> implements Server
         private WebSocket websocket;
         private S endpoint;
         private Consumer<ByteBuffer> onMessage;
+        private final ByteBufferPool bufferPool = new SizeClassByteBufferPool();
+        private final StringDictionary outgoingStrings;
+        private final StringDictionary incomingStrings;
+        // set once the server shows that it accepted the dictionary, by using it
+        private volatile boolean dictionaryAccepted;
 
-        public ServerImpl(Request.Builder reqBuilder, AbstractEndpointImpl.EndpointImplConstructor<S> constructor, C client) {
+        public ServerImpl(Request.Builder reqBuilder, AbstractEndpointImpl.EndpointImplConstructor<S> constructor, C client, int dictionaryCapacity) {
+            outgoingStrings = dictionaryCapacity == 0 ? null : new StringDictionary(dictionaryCapacity, StringDictionary.DEFAULT_MAX_STRING_LENGTH);
+            incomingStrings = dictionaryCapacity == 0 ? null : new StringDictionary(dictionaryCapacity, StringDictionary.DEFAULT_MAX_STRING_LENGTH);
 
             WebSocketListener listener = new WebSocketListener() {
                 @Override
@@ -51,14 +62,35 @@ public class ServerBuilderImpl<S extends Server<? super S, ?>> implements Server
 
             endpoint = constructor.create(
                     serializer -> {
-                        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer);
+                        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer, bufferPool);
                         writer.prepareToWrite();
+                        // the server only accepts our checksum, so it assigns the same type ids
+                        writer.addFlags(AbstractSerializationStream.FLAG_TYPE_IDS);
+                        if (dictionaryAccepted) {
+                            writer.addFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY);
+                        }
                         return writer;
                     },
-                    stream -> websocket.send(ByteString.of(stream.getFullPayload())),
+                    stream -> {
+                        // ByteString copies the bytes, so the buffers can be reused right away
+                        if (outgoingStrings == null) {
+                            websocket.send(ByteString.of(stream.getFullPayload()));
+                        } else {
+                            // each string table depends on the messages sent before it, so the
+                            // messages are queued in the order their tables are built
+                            synchronized (outgoingStrings) {
+                                websocket.send(ByteString.of(stream.getFullPayload(outgoingStrings)));
+                            }
+                        }
+                        stream.release();
+                    },
                     (send, serializer) -> {
                         onMessage = buffer -> {
-                            send.accept(new ByteBufferSerializationStreamReader(serializer, buffer));
+                            ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(serializer, buffer, incomingStrings);
+                            if (incomingStrings != null && reader.hasFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY)) {
+                                dictionaryAccepted = true;
+                            }
+                            send.accept(reader);
                         };
                     }
             );
@@ -68,7 +100,8 @@ public class ServerBuilderImpl<S extends Server<? super S, ?>> implements Server
             // Append the checksum querystring. This should be entirely safe since the builder isn't exposed to client code at all
             Request withoutQueryString = reqBuilder.build();
             Request.Builder withQueryString = withoutQueryString.newBuilder()
-                    .url(withoutQueryString.url().toString() + "?checksum=" + ((AbstractWebSocketServerImpl<?, ?>) endpoint).getChecksum());
+                    .url(withoutQueryString.url().toString() + "?checksum=" + ((AbstractWebSocketServerImpl<?, ?>) endpoint).getChecksum()
+                            + (dictionaryCapacity == 0 ? "" : "&dictionary=" + dictionaryCapacity));
 
             websocket = new OkHttpClient().newWebSocket(withQueryString.build(), listener);
 
@@ -80,6 +113,7 @@ public class ServerBuilderImpl<S extends Server<? super S, ?>> implements Server
         }
     }
     private Request.Builder reqBuilder = new Request.Builder();
+    private int dictionaryCapacity;
 //    private URL urlBuilder = new URL(DomGlobal.window.location.getHref());
 //    private ConnectionErrorHandler errorHandler;
 
@@ -104,6 +138,15 @@ public class ServerBuilderImpl<S extends Server<? super S, ?>> implements Server
         return this;
     }
 
+    @Override
+    public ServerBuilder<S> setStringDictionary(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.dictionaryCapacity = capacity;
+        return this;
+    }
+
 //    /**
 //     * @return the url
 //     */
@@ -136,7 +179,7 @@ public class ServerBuilderImpl<S extends Server<? super S, ?>> implements Server
     @Override
     public <C extends Client<C, ? extends S>> S start(C client) {
         //noinspection unchecked
-        return (S) new ServerImpl(reqBuilder, constructor, client).getEndpoint();
+        return (S) new ServerImpl(reqBuilder, constructor, client, dictionaryCapacity).getEndpoint();
     }
 
 }
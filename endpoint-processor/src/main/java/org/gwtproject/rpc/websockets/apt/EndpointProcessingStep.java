@@ -203,33 +203,99 @@ public class EndpointProcessingStep implements ProcessingStep {
 			}
 			methodBuilder.addJavadoc(method.getElement().getEnclosingElement().getSimpleName().toString());
 
-			methodBuilder.beginControlFlow("__send($L, activeWriter ->", methodIndex);
+			if (method.hasStream(processingEnv)) {
+				// read once, so that the credit the callee starts with matches what we give back
+				methodBuilder.addStatement("int window = callback.getWindow()");
+			}
+			if (method.returnsFuture(processingEnv)) {
+				// sent like a call with a callback, which completes the future
+				ClassName futureCallback = ClassName.get("org.gwtproject.rpc.api.impl", "FutureCallback");
+				methodBuilder.returns(TypeName.get(method.getMirror().getReturnType()));
+				methodBuilder.addStatement("$T<$T> callback = new $T<>()", futureCallback, method.getCallbackSuccessType(processingEnv), futureCallback);
+				methodBuilder.beginControlFlow("callback.setRequest(__send($L, activeWriter ->", methodIndex);
+			} else if (method.returnsRequest(processingEnv)) {
+				// hand the pending call back to the caller, so it can be cancelled
+				methodBuilder.returns(TypeName.get(method.getMirror().getReturnType()));
+				methodBuilder.beginControlFlow("return __send($L, activeWriter ->", methodIndex);
+			} else {
+				methodBuilder.beginControlFlow("__send($L, activeWriter ->", methodIndex);
+			}
 
 			// instead of using the actual params, using this so we don't attempt to write the callback
 			List<? extends TypeName> parameterNames = method.getTypesToWrite(processingEnv);
+			if (method.hasStream(processingEnv)) {
+				methodBuilder.addStatement("activeWriter.writeInt(window)");
+			}
 			for (int paramIndex = 0; paramIndex < parameterNames.size(); paramIndex++) {
 				TypeName paramTypeName = parameterNames.get(paramIndex);
 				methodBuilder.addStatement("s.$L(arg$L, activeWriter)", writeMethodName(paramTypeName), paramIndex);
 			}
 
 			methodBuilder.endControlFlow();
-			if (method.hasCallback(processingEnv)) {
+			if (method.hasStream(processingEnv)) {
+				TypeSpec readingCallback = TypeSpec.anonymousClassBuilder("window")
+						.superclass(ClassName.get("org.gwtproject.rpc.api.impl", "AbstractEndpointImpl", "StreamReadingCallback"))
+						.addMethod(MethodSpec.methodBuilder("item")
+								.addParameter(SerializationStreamReader.class, "reader")
+								.addModifiers(Modifier.PUBLIC)
+								.addStatement("$T value = s.$L(reader)", method.getCallbackSuccessType(processingEnv), readMethodName(method.getCallbackSuccessType(processingEnv)))
+								.beginControlFlow("if (!isCancelled())")
+								.addStatement("callback.onNext(value)")
+								.endControlFlow()
+								.build())
+						.addMethod(MethodSpec.methodBuilder("complete")
+								.addModifiers(Modifier.PUBLIC)
+								.beginControlFlow("if (!isCancelled())")
+								.addStatement("callback.onComplete()")
+								.endControlFlow()
+								.build())
+						.addMethod(MethodSpec.methodBuilder("error")
+								.addParameter(SerializationStreamReader.class, "reader")
+								.addModifiers(Modifier.PUBLIC)
+								.addStatement("$T error = s.$L(reader)", method.getCallbackFailureType(processingEnv), readMethodName(method.getCallbackFailureType(processingEnv)))
+								.beginControlFlow("if (!isCancelled())")
+								.addStatement("callback.onFailure(error)")
+								.endControlFlow()
+								.build())
+						.build();
+				methodBuilder.addCode(", $L", readingCallback);
+			} else if (method.hasResponse(processingEnv)) {
 				TypeSpec readingCallback = TypeSpec.anonymousClassBuilder("")
 						.superclass(ClassName.get("org.gwtproject.rpc.api.impl", "AbstractEndpointImpl", "ReadingCallback"))
 						.addMethod(MethodSpec.methodBuilder("success")
 								.addParameter(SerializationStreamReader.class, "reader")
 								.addModifiers(Modifier.PUBLIC)
-								.addStatement("callback.onSuccess(s.$L(reader))", readMethodName(method.getCallbackSuccessType(processingEnv)))
+								.addStatement("$T value = s.$L(reader)", method.getCallbackSuccessType(processingEnv), readMethodName(method.getCallbackSuccessType(processingEnv)))
+								.beginControlFlow("if (!isCancelled())")
+								.addStatement("callback.onSuccess(value)")
+								.endControlFlow()
 								.build())
 						.addMethod(MethodSpec.methodBuilder("failure")
 								.addParameter(SerializationStreamReader.class, "reader")
 								.addModifiers(Modifier.PUBLIC)
-								.addStatement("callback.onFailure(s.$L(reader))", readMethodName(method.getCallbackFailureType(processingEnv)))
+								.addStatement("$T error = s.$L(reader)", method.getCallbackFailureType(processingEnv), readMethodName(method.getCallbackFailureType(processingEnv)))
+								.beginControlFlow("if (!isCancelled())")
+								.addStatement("callback.onFailure(error)")
+								.endControlFlow()
+								.build())
+						.addMethod(MethodSpec.methodBuilder("timeout")
+								.addModifiers(Modifier.PUBLIC)
+								.addStatement("callback.onTimeout()")
+								.build())
+						.addMethod(MethodSpec.methodBuilder("getDeadline")
+								.addModifiers(Modifier.PUBLIC)
+								.returns(long.class)
+								.addStatement("return callback.getDeadline()")
 								.build())
 						.build();
 				methodBuilder.addCode(", $L", readingCallback);
 			}
-			methodBuilder.addStatement(")");
+			if (method.returnsFuture(processingEnv)) {
+				methodBuilder.addStatement("))");
+				methodBuilder.addStatement("return callback.getFuture()");
+			} else {
+				methodBuilder.addStatement(")");
+			}
 
 			builder.addMethod(methodBuilder
 					.addModifiers(Modifier.PUBLIC)
@@ -243,32 +309,110 @@ public class EndpointProcessingStep implements ProcessingStep {
 				.addException(SerializationException.class)
 				.addModifiers(Modifier.PROTECTED);
 		CodeBlock.Builder invokeBody = CodeBlock.builder()
-				.addStatement("int callbackId")
 				.beginControlFlow("switch (recipient)");
 		List<EndpointMethod> remoteEndpointMethods = remoteModel.getEndpointMethods(processingEnv);
 		for (int i = 0; i < remoteEndpointMethods.size(); i++) {
 			EndpointMethod remoteMethod = remoteEndpointMethods.get(i);
 			invokeBody.beginControlFlow("case $L:", i);
-			if (remoteMethod.hasCallback(processingEnv)) {
-				invokeBody.add("// read callbackId first\n");
-				invokeBody.addStatement("callbackId = reader.readInt()");
+			// Note the use of "types to write" - this seems backward, but we're calling into the
+			// interface, not generating it
+			List<? extends TypeName> argTypes = remoteMethod.getTypesToWrite(processingEnv);
+			if (remoteMethod.hasResponse(processingEnv)) {
+				invokeBody.add("// read callbackId first, negative if a deadline follows it\n");
+				invokeBody.addStatement("int header = reader.readInt()");
+				invokeBody.addStatement("int callbackId = Math.abs(header)");
+				invokeBody.addStatement("long deadline = __readDeadline(header, reader)");
+				if (remoteMethod.hasStream(processingEnv)) {
+					invokeBody.addStatement("int window = reader.readInt()");
+				}
+				// read every argument even if the call is dropped, so that anything after it in
+				// the message can still be read
+				for (int argIndex = 0; argIndex < argTypes.size(); argIndex++) {
+					TypeName argType = argTypes.get(argIndex);
+					invokeBody.addStatement("$T arg$L = s.$L(reader)", argType, argIndex, readMethodName(argType));
+				}
+				invokeBody.beginControlFlow("if (__shed(deadline))")
+						.addStatement("break")
+						.endControlFlow();
+				if (remoteMethod.hasStream(processingEnv)) {
+					invokeBody.addStatement("$T call = __startIncomingStream(callbackId, window)", ClassName.get("org.gwtproject.rpc.api.impl", "AbstractEndpointImpl", "IncomingStreamCall"));
+				} else {
+					invokeBody.addStatement("$T call = __startIncomingCall(callbackId, deadline)", ClassName.get("org.gwtproject.rpc.api.impl", "AbstractEndpointImpl", "IncomingCall"));
+				}
 			}
 			String remoteGetter = model.getRemoteEndpointGetterMethodName(processingEnv);
+			if (remoteMethod.hasResponse(processingEnv)) {
+				invokeBody.beginControlFlow("try");
+			}
+			if (remoteMethod.returnsFuture(processingEnv)) {
+				// the response is sent by a callback once the returned stage completes, or with the
+				// failure if the implementation throws instead
+				invokeBody.add("$T.subscribe(() -> ", ClassName.get("org.gwtproject.rpc.api.impl", "FutureCallback"));
+			}
 			invokeBody.add("$L().$L(", remoteGetter, remoteMethod.getElement().getSimpleName().toString());
 			boolean first = true;
-			// Note the use of "types to write" - this seems backward, but we're calling into the
-			// interface, not generating it
-			for (TypeName s : remoteMethod.getTypesToWrite(processingEnv)) {
+			for (int argIndex = 0; argIndex < argTypes.size(); argIndex++) {
 				if (!first) {
 					invokeBody.add(", ");
 				}
 				first = false;
-				invokeBody.add("s.$L(reader)", readMethodName(s));
-			}
-			if (remoteMethod.hasCallback(processingEnv)) {
-				if (!first) {
-					invokeBody.add(", ");
+				if (remoteMethod.hasResponse(processingEnv)) {
+					invokeBody.add("arg$L", argIndex);
+				} else {
+					invokeBody.add("s.$L(reader)", readMethodName(argTypes.get(argIndex)));
 				}
+			}
+			if (remoteMethod.returnsFuture(processingEnv)) {
+				invokeBody.add("), ");
+			} else if (remoteMethod.hasCallback(processingEnv) && !first) {
+				invokeBody.add(", ");
+			}
+			if (remoteMethod.hasStream(processingEnv)) {
+				TypeName itemType = remoteMethod.getCallbackSuccessType(processingEnv);
+				TypeName callbackFailureType = remoteMethod.getCallbackFailureType(processingEnv);
+				invokeBody.add("$L",
+						TypeSpec.anonymousClassBuilder("")
+								.superclass(remoteMethod.getCallbackTypeName(processingEnv))
+								.addMethod(MethodSpec.methodBuilder("onNext")
+										.addParameter(itemType, "item")
+										.addModifiers(Modifier.PUBLIC)
+										.beginControlFlow("__sendStreamItem(call, activeWriter ->")
+										.addStatement("s.$L(item, activeWriter)", writeMethodName(itemType))
+										.endControlFlow().addStatement(")")
+										.build())
+								.addMethod(MethodSpec.methodBuilder("onComplete")
+										.addModifiers(Modifier.PUBLIC)
+										.beginControlFlow("__endStream(call, activeWriter ->")
+										.addComment("a success without an item ends the stream")
+										.addStatement("activeWriter.writeBoolean(true)")
+										.addStatement("activeWriter.writeBoolean(false)")
+										.endControlFlow().addStatement(")")
+										.build())
+								.addMethod(MethodSpec.methodBuilder("onFailure")
+										.addParameter(callbackFailureType, "error")
+										.addModifiers(Modifier.PUBLIC)
+										.beginControlFlow("__endStream(call, activeWriter ->")
+										.addStatement("activeWriter.writeBoolean(false)")
+										.addStatement("s.$L(error, activeWriter)", writeMethodName(callbackFailureType))
+										.endControlFlow().addStatement(")")
+										.build())
+								.addMethod(MethodSpec.methodBuilder("isReady")
+										.addModifiers(Modifier.PUBLIC)
+										.returns(boolean.class)
+										.addStatement("return call.isReady()")
+										.build())
+								.addMethod(MethodSpec.methodBuilder("onReady")
+										.addParameter(Runnable.class, "callback")
+										.addModifiers(Modifier.PUBLIC)
+										.addStatement("call.onReady(callback)")
+										.build())
+								.addMethod(MethodSpec.methodBuilder("isCancelled")
+										.addModifiers(Modifier.PUBLIC)
+										.returns(boolean.class)
+										.addStatement("return call.isCancelled()")
+										.build())
+								.build());
+			} else if (remoteMethod.hasResponse(processingEnv)) {
 				TypeName callbackSuccessType = remoteMethod.getCallbackSuccessType(processingEnv);
 				TypeName callbackFailureType = remoteMethod.getCallbackFailureType(processingEnv);
 				invokeBody.add("$L",
@@ -277,6 +421,10 @@ public class EndpointProcessingStep implements ProcessingStep {
 								.addMethod(MethodSpec.methodBuilder("onSuccess")
 										.addParameter(callbackSuccessType, "value")
 										.addModifiers(Modifier.PUBLIC)
+										.beginControlFlow("if (!__finishIncomingCall(call))")
+										.addComment("cancelled, or already answered")
+										.addStatement("return")
+										.endControlFlow()
 										.addComment("indicate that a callback in in use (negative reference)")
 										.beginControlFlow("__send(-callbackId, activeWriter ->")
 										.addComment("indicate that the operation was a success")
@@ -288,6 +436,10 @@ public class EndpointProcessingStep implements ProcessingStep {
 								.addMethod(MethodSpec.methodBuilder("onFailure")
 										.addParameter(callbackFailureType, "error")
 										.addModifiers(Modifier.PUBLIC)
+										.beginControlFlow("if (!__finishIncomingCall(call))")
+										.addComment("cancelled, or already answered")
+										.addStatement("return")
+										.endControlFlow()
 										.addComment("indicate that a callback in in use (negative reference)")
 										.beginControlFlow("__send(-callbackId, activeWriter ->")
 										.addComment("indicate that the operation was a failure")
@@ -296,10 +448,31 @@ public class EndpointProcessingStep implements ProcessingStep {
 										.addStatement("s.$L(error, activeWriter)", writeMethodName(callbackFailureType))
 										.endControlFlow().addStatement(")")
 										.build())
+								.addMethod(MethodSpec.methodBuilder("getDeadline")
+										.addModifiers(Modifier.PUBLIC)
+										.returns(long.class)
+										.addStatement("return deadline")
+										.build())
+								.addMethod(MethodSpec.methodBuilder("isCancelled")
+										.addModifiers(Modifier.PUBLIC)
+										.returns(boolean.class)
+										.addStatement("return call.isCancelled()")
+										.build())
 								.build());
 			}
 
+			if (remoteMethod.returnsFuture(processingEnv)) {
+				// failures are logged here, only a generic message goes back to the caller
+				invokeBody.add(", this::__onError");
+			}
 			invokeBody.addStatement(")");
+			if (remoteMethod.hasResponse(processingEnv)) {
+				invokeBody.nextControlFlow("catch ($T t)", Throwable.class)
+						.add("// the implementation won't answer, so don't keep the call around waiting for it\n")
+						.addStatement("__abandonIncomingCall(call)")
+						.addStatement("throw t")
+						.endControlFlow();
+			}
 
 			invokeBody.addStatement("break")
 					.endControlFlow();
@@ -361,8 +534,13 @@ public class EndpointProcessingStep implements ProcessingStep {
 	}
 
 	private TypeSpec declareSerializer(EndpointModel model, EndpointModel remoteModel, String serTypeName) {
+		AnnotationSpec.Builder wiring = AnnotationSpec.builder(SerializationWiring.class);
+		if (!model.tracksObjectIdentity() || !remoteModel.tracksObjectIdentity()) {
+			// both directions must agree, so either interface can turn it off
+			wiring.addMember("objectIdentity", "false");
+		}
 		Builder builder = TypeSpec.interfaceBuilder(serTypeName)
-				.addAnnotation(SerializationWiring.class)
+				.addAnnotation(wiring.build())
 				.addModifiers(Modifier.PUBLIC);
 
 		builder.addMethod(MethodSpec.methodBuilder("createSerializer")
@@ -466,7 +644,7 @@ public class EndpointProcessingStep implements ProcessingStep {
 			}
 			m.setParameters(params);
 
-			if (endpointMethod.hasCallback(processingEnv)) {
+			if (endpointMethod.hasResponse(processingEnv)) {
 				EndpointMethodCallback callback = new EndpointMethodCallback();
 				callback.setSuccessTypeId(endpointMethod.getCallbackSuccessType(processingEnv).toString());
 				callback.setFailureTypeId(endpointMethod.getCallbackFailureType(processingEnv).toString());
@@ -20,6 +20,8 @@
 package org.gwtproject.rpc.websockets.apt.model;
 
 import org.gwtproject.rpc.api.Callback;
+import org.gwtproject.rpc.api.Request;
+import org.gwtproject.rpc.api.StreamCallback;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
@@ -30,8 +32,12 @@ import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.ExecutableType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Collectors;
 
 public class EndpointMethod {
@@ -46,6 +52,18 @@ public class EndpointMethod {
 
 
 	public void validate(ProcessingEnvironment env) {
+		if (returnsFuture(env)) {
+			if (hasCallback(env)) {
+				env.getMessager().printMessage(Diagnostic.Kind.ERROR, "Endpoint methods can't both return a future and take a Callback", element);
+			} else if (((DeclaredType) mirror.getReturnType()).getTypeArguments().size() != 1
+					|| ((DeclaredType) mirror.getReturnType()).getTypeArguments().get(0).getKind() == TypeKind.WILDCARD) {
+				env.getMessager().printMessage(Diagnostic.Kind.ERROR, "Futures returned from endpoint methods must have a concrete type argument", element);
+			}
+		} else if (mirror.getReturnType().getKind() != TypeKind.VOID && !returnsRequest(env)) {
+			env.getMessager().printMessage(Diagnostic.Kind.ERROR, "Endpoint methods must return void, a CompletionStage or CompletableFuture, or Request if they take a Callback", element);
+		} else if (returnsRequest(env) && !hasCallback(env)) {
+			env.getMessager().printMessage(Diagnostic.Kind.ERROR, "Only endpoint methods which take a Callback can return Request", element);
+		}
 	}
 
 	public ExecutableType getMirror() {
@@ -57,22 +75,69 @@ public class EndpointMethod {
 	}
 
 	public TypeName getCallbackTypeName(ProcessingEnvironment env) {
-		assert hasCallback(env) : "No callback, can't return callback type";
+		assert hasResponse(env) : "No callback, can't return callback type";
+		if (returnsFuture(env)) {
+			return ParameterizedTypeName.get(ClassName.get(Callback.class), getCallbackSuccessType(env), getCallbackFailureType(env));
+		}
 		return ClassName.get(mirror.getParameterTypes().get(mirror.getParameterTypes().size() - 1));
 	}
 
+	/**
+	 * Returns true if the caller expects a response, either through a callback or a future.
+	 */
+	public boolean hasResponse(ProcessingEnvironment env) {
+		return hasCallback(env) || returnsFuture(env);
+	}
+
+	/**
+	 * Returns true if the method returns a {@link CompletionStage} or {@link CompletableFuture},
+	 * which is sent as if the method took a {@code Callback<T, String>} instead.
+	 */
+	public boolean returnsFuture(ProcessingEnvironment env) {
+		TypeMirror returnType = mirror.getReturnType();
+		if (returnType.getKind() != TypeKind.DECLARED) {
+			return false;
+		}
+		String rawType = ClassName.get(env.getTypeUtils().erasure(returnType)).toString();
+		return rawType.equals(CompletionStage.class.getName()) || rawType.equals(CompletableFuture.class.getName());
+	}
+
+	/**
+	 * Returns true if the last parameter is a {@link Callback} or a {@link StreamCallback}.
+	 */
 	public boolean hasCallback(ProcessingEnvironment env) {
+		String lastParamType = getLastParamRawType(env);
+		return Callback.class.getName().equals(lastParamType) || StreamCallback.class.getName().equals(lastParamType);
+	}
+
+	/**
+	 * Returns true if the last parameter is a {@link StreamCallback}, so the response is a stream.
+	 */
+	public boolean hasStream(ProcessingEnvironment env) {
+		return StreamCallback.class.getName().equals(getLastParamRawType(env));
+	}
+
+	private String getLastParamRawType(ProcessingEnvironment env) {
 		List<? extends TypeMirror> params = mirror.getParameterTypes();
 		if (params.isEmpty()) {
-			return false;
+			return null;
 		}
 
 		TypeMirror lastParamType = params.get(params.size() - 1);
 		if (lastParamType.getKind() != TypeKind.DECLARED) {
-			return false;
+			return null;
 		}
 		TypeMirror rawType = env.getTypeUtils().erasure(lastParamType);
-		return ClassName.get(rawType).toString().equals(Callback.class.getName());
+		return ClassName.get(rawType).toString();
+	}
+
+	/**
+	 * Returns true if the method returns a {@link Request}, to let the caller cancel it.
+	 */
+	public boolean returnsRequest(ProcessingEnvironment env) {
+		TypeMirror returnType = mirror.getReturnType();
+		return returnType.getKind() == TypeKind.DECLARED
+				&& ClassName.get(env.getTypeUtils().erasure(returnType)).toString().equals(Request.class.getName());
 	}
 
 	/**
@@ -90,6 +155,10 @@ public class EndpointMethod {
 					.map(TypeName::get)
 					.collect(Collectors.toList());
 		}
+		if (returnsFuture(env)) {
+			TypeMirror value = ((DeclaredType) mirror.getReturnType()).getTypeArguments().get(0);
+			return Arrays.asList(TypeName.get(value), ClassName.get(String.class));
+		}
 		return Collections.emptyList();
 	}
 
@@ -109,12 +178,12 @@ public class EndpointMethod {
 	}
 
 	public TypeName getCallbackSuccessType(ProcessingEnvironment processingEnv) {
-		assert hasCallback(processingEnv) : this;
+		assert hasResponse(processingEnv) : this;
 		return getTypesToRead(processingEnv).get(0);
 	}
 
 	public TypeName getCallbackFailureType(ProcessingEnvironment processingEnv) {
-		assert hasCallback(processingEnv) : this;
+		assert hasResponse(processingEnv) : this;
 		return getTypesToRead(processingEnv).get(1);
 	}
 
@@ -21,6 +21,7 @@ package org.gwtproject.rpc.websockets.apt.model;
 
 import org.gwtproject.rpc.api.Endpoint;
 import org.gwtproject.rpc.api.Endpoint.BaseClass;
+import org.gwtproject.rpc.api.Endpoint.NoObjectIdentity;
 import org.gwtproject.rpc.api.Endpoint.NoRemoteEndpoint;
 import org.gwtproject.rpc.api.Endpoint.RemoteEndpointSupplier;
 import com.google.auto.common.MoreTypes;
@@ -166,6 +167,10 @@ public class EndpointModel implements Comparable<EndpointModel> {
 				.collect(Collectors.toList());
 	}
 
+	public boolean tracksObjectIdentity() {
+		return endpointElement.getAnnotation(NoObjectIdentity.class) == null;
+	}
+
 	public String getGeneratedTypeName() {
 		return endpointElement.getSimpleName().toString() + "_Impl";
 	}
@@ -20,6 +20,7 @@
 package samples.easychatroom2.server;
 
 import org.gwtproject.rpc.jakarta.servlet.websocket.AbstractServerImpl;
+import org.gwtproject.rpc.api.Broadcast;
 import org.gwtproject.rpc.api.Callback;
 import samples.easychatroom2.shared.ChatClient;
 import samples.easychatroom2.shared.ChatClient_Impl;
@@ -92,9 +93,10 @@ public class ChatServerImpl extends AbstractServerImpl<ChatServer, ChatClient> i
 		ChatClient c = getClient();
 		String userName = loggedIn.get(c);
 
-		for (ChatClient connected : loggedIn.keySet()) {
-			connected.say(userName, message);
-		}
+		// serialize the message once, rather than once per connected client
+		Broadcast<ChatClient> said = broadcast(connected -> connected.say(userName, message));
+		said.sendTo(loggedIn.keySet());
+		said.release();
 	}
 
 	@Override
@@ -25,24 +25,50 @@ import org.gwtproject.rpc.api.impl.AbstractEndpointImpl.EndpointImplConstructor;
 import com.google.gwt.user.client.rpc.SerializationException;
 import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamReader;
 import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamWriter;
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
 import org.gwtproject.rpc.api.impl.AbstractNoRemoteImpl;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ReadListener;
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.WriteListener;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.Locale;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.zip.GZIPOutputStream;
 
 /**
  * Handles POST calls with a similar API to GWT2-style RPC. The primary difference is
  * that since no reflection is used to handle serialization or dispatch, both the policy
  * wiring is absent, and this class must be created differently.
+ * <p>
+ * Service methods may call their callback after they return, from any thread. When
+ * that happens the request is put into asynchronous mode with
+ * {@link HttpServletRequest#startAsync(ServletRequest, ServletResponse)}, releasing the
+ * container thread until the callback fires, so the servlet must be registered with
+ * async support enabled. Calls which don't respond within {@link #getAsyncTimeout()}
+ * are failed. Note that {@link #getThreadLocalRequest()} and
+ * {@link #getThreadLocalResponse()} are only set on the thread that invoked the
+ * service method.
  */
 public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends HttpServlet {
 
@@ -71,6 +97,11 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 	private static final String CONTENT_ENCODING = "Content-Encoding";
 	private static final String CONTENT_TYPE_APPLICATION_JSON_UTF8 = "application/json; charset=utf-8";
 
+	/**
+	 * Default time to wait for a service method to call its callback, in milliseconds.
+	 */
+	public static final long DEFAULT_ASYNC_TIMEOUT_MILLIS = 30_000;
+
 	private static final String GENERIC_FAILURE_MSG = "The call failed on the server; see server log for details";
 
 	protected transient ThreadLocal<HttpServletRequest> perThreadRequest;
@@ -291,21 +322,43 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 	 *           exception (the exception will be the one thrown by the service)
 	 */
 	public String processCall(String payload) throws SerializationException {
+		StringSerializationStreamWriter[] holder = new StringSerializationStreamWriter[1];
+		invoke(payload, writer -> {
+			holder[0] = writer;
+		});
+
+		if (holder[0] == null) {
+			throw new IllegalStateException("Service did not respond before returning, async responses are only supported by processPost");
+		}
+		return holder[0].toString();
+	}
+
+	/**
+	 * Creates the writer for a single response. Subclasses can override this to add flags to the
+	 * writer, such as {@link StringSerializationStreamWriter#FLAG_PACKED_ARRAYS}, provided that the
+	 * clients calling this servlet are able to read them. Use addFlags rather than setFlags, so that
+	 * flags the writer already set for its serializer are kept.
+	 */
+	protected StringSerializationStreamWriter createWriter(TypeSerializer serializer) {
+		StringSerializationStreamWriter writer = new StringSerializationStreamWriter(serializer);
+		writer.prepareToWrite();
+		return writer;
+	}
+
+	/**
+	 * Decodes and invokes the call in the given payload, passing the writer holding the
+	 * response to the given consumer when the service responds, so that it can either be
+	 * turned into a String or streamed to the client.
+	 */
+	private void invoke(CharSequence payload, Consumer<StringSerializationStreamWriter> respond) throws SerializationException {
 		// First, check for possible XSRF situation
 		String checksum = checkPermutationStrongName();
 
 		// Construct the client instance
-		String[] holder = new String[1];
 		Runnable[] executeCall = new Runnable[1];
 		NoRemoteEndpoint<S> c = clientFactory.create(
-				ts -> {
-					StringSerializationStreamWriter writer = new StringSerializationStreamWriter(ts);
-					writer.prepareToWrite();
-					return writer;
-				},
-				writer -> {
-					holder[0] = writer.toString();
-				},
+				this::createWriter,
+				respond,
 				(serializationStreamReaderConsumer, typeSerializer) -> {
 					// this will be called during creation before it is time to set it up, so we stash it away for right afterward
 					executeCall[0] = () -> serializationStreamReaderConsumer.accept(new StringSerializationStreamReader(typeSerializer, payload));
@@ -323,9 +376,6 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 
 		// execute the stashed function, causing the payload to be parsed and executed
 		executeCall[0].run();
-
-		assert holder[0] != null : "Async responses not yet supported!";
-		return holder[0];
 	}
 
 	/**
@@ -341,18 +391,52 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 	public final void processPost(HttpServletRequest request,
 								  HttpServletResponse response) throws IOException, ServletException,
 			SerializationException {
-		// Read the request fully.
-		//
-		String requestPayload = readContent(request);
+		if (isNonBlocking() && request.isAsyncSupported()) {
+			// Read the request as it arrives, and dispatch once it is complete.
+			//
+			checkContentHeaders(request);
+			new PendingCall(request, response).readNonBlocking();
+			return;
+		}
+
+		CharSequence requestPayload;
+		if (isStreaming()) {
+			// Decode the request into a single buffer to parse from.
+			//
+			requestPayload = readContentStreaming(request);
+		} else {
+			// Read the request fully.
+			//
+			String payload = readContent(request);
+
+			// Let subclasses see the serialized request.
+			//
+			onBeforeRequestDeserialized(payload);
+			requestPayload = payload;
+		}
 
-		// Let subclasses see the serialized request.
+		// Invoke the core dispatching logic, which hands the serialized result
+		// to the pending call, either before returning or later from another thread.
 		//
-		onBeforeRequestDeserialized(requestPayload);
+		PendingCall call = new PendingCall(request, response);
+		invoke(requestPayload, call::respond);
 
-		// Invoke the core dispatching logic, which returns the serialized
-		// result.
+		// Write the response now if there is one, or wait for it asynchronously.
 		//
-		String responsePayload = processCall(requestPayload);
+		call.dispatched();
+	}
+
+	/**
+	 * Writes the serialized response of a call, letting subclasses see it first unless
+	 * streaming.
+	 */
+	private void sendResponse(HttpServletRequest request,
+							  HttpServletResponse response, StringSerializationStreamWriter responseWriter) throws IOException {
+		if (isStreaming()) {
+			writeResponse(request, response, responseWriter);
+			return;
+		}
+		String responsePayload = responseWriter.toString();
 
 		// Let subclasses see the serialized response.
 		//
@@ -363,6 +447,331 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 		writeResponse(request, response, responsePayload);
 	}
 
+	/**
+	 * Override this method to change how long a service method has to call its
+	 * callback after returning, before the call is failed with a generic failure
+	 * response. A value of zero or less means that calls never time out.
+	 *
+	 * @return the timeout in milliseconds, {@link #DEFAULT_ASYNC_TIMEOUT_MILLIS} by default
+	 */
+	protected long getAsyncTimeout() {
+		return DEFAULT_ASYNC_TIMEOUT_MILLIS;
+	}
+
+	/**
+	 * Tracks one call from dispatch until its response is written. If the service
+	 * responds before {@link #dispatched()} the response is written on the container
+	 * thread, otherwise the request is put into async mode, and the response is
+	 * written from whichever thread calls {@link #respond(StringSerializationStreamWriter)},
+	 * unless the call has already timed out.
+	 * <p>
+	 * In {@link #isNonBlocking() non-blocking} mode the request is put into async mode
+	 * before anything is read, the body is collected as the container reports it is
+	 * available, and the call is only dispatched once it is complete. The response is
+	 * then written as the container reports that the client can accept more of it.
+	 */
+	private final class PendingCall implements AsyncListener, ReadListener, WriteListener {
+		private final HttpServletRequest request;
+		private final HttpServletResponse response;
+
+		private StringSerializationStreamWriter responseWriter;
+		private AsyncContext asyncContext;
+		private boolean finished;
+		private boolean completed;
+		// true while respond() writes, so that a timeout leaves completing to it
+		private boolean writing;
+		private boolean timedOut;
+
+		private boolean nonBlocking;
+		private ByteArrayOutputStream requestBytes;
+		private byte[] buffer;
+		private byte[] responseBytes;
+		private int responseOffset;
+
+		private PendingCall(HttpServletRequest request, HttpServletResponse response) {
+			this.request = request;
+			this.response = response;
+		}
+
+		private void respond(StringSerializationStreamWriter writer) {
+			synchronized (this) {
+				if (finished) {
+					// timed out or failed, nothing left to write to
+					return;
+				}
+				if (asyncContext == null) {
+					// still on the container thread, dispatched() will write it
+					responseWriter = writer;
+					return;
+				}
+				finished = true;
+				writing = true;
+			}
+			boolean listening = false;
+			try {
+				if (nonBlocking) {
+					// onWritePossible() completes the request once the last byte is written
+					listening = writeResponseNonBlocking(writer);
+				} else {
+					sendResponse(request, response, writer);
+				}
+			} catch (Throwable e) {
+				writeFailure(e);
+			}
+			boolean cutOff;
+			synchronized (this) {
+				writing = false;
+				cutOff = timedOut;
+			}
+			if (!listening || cutOff) {
+				complete();
+			}
+		}
+
+		private void dispatched() throws IOException {
+			StringSerializationStreamWriter writer;
+			synchronized (this) {
+				writer = responseWriter;
+				if (writer == null) {
+					if (!request.isAsyncSupported()) {
+						throw new IllegalStateException("Service did not respond before returning, but this servlet is not async-supported");
+					}
+					startAsync();
+					return;
+				}
+				finished = true;
+			}
+			sendResponse(request, response, writer);
+		}
+
+		/**
+		 * Completes the async request, unless that was already done, as the timeout may
+		 * end the request while the response is still being written.
+		 */
+		private void complete() {
+			synchronized (this) {
+				if (completed) {
+					return;
+				}
+				completed = true;
+			}
+			asyncContext.complete();
+		}
+
+		private void startAsync() {
+			asyncContext = request.startAsync(request, response);
+			asyncContext.setTimeout(Math.max(0, getAsyncTimeout()));
+			asyncContext.addListener(this);
+		}
+
+		private void writeFailure(Throwable e) {
+			if (response.isCommitted()) {
+				getServletContext().log("Exception while writing async RPC response", e);
+			} else {
+				response.reset();
+				writeResponseForUnexpectedFailure(getServletContext(), response, e);
+			}
+		}
+
+		private void fail(Throwable e) {
+			synchronized (this) {
+				if (finished) {
+					return;
+				}
+				finished = true;
+			}
+			writeFailure(e);
+			complete();
+		}
+
+		private void readNonBlocking() throws IOException {
+			nonBlocking = true;
+			int contentLength = request.getContentLength();
+			requestBytes = new ByteArrayOutputStream(contentLength > 0 ? contentLength : BUFFER_SIZE);
+			buffer = new byte[BUFFER_SIZE];
+			synchronized (this) {
+				startAsync();
+			}
+			request.getInputStream().setReadListener(this);
+		}
+
+		@Override
+		public void onDataAvailable() throws IOException {
+			ServletInputStream in = request.getInputStream();
+			while (in.isReady()) {
+				int byteCount = in.read(buffer);
+				if (byteCount == -1) {
+					break;
+				}
+				requestBytes.write(buffer, 0, byteCount);
+			}
+		}
+
+		@Override
+		public void onAllDataRead() {
+			String requestPayload = new String(requestBytes.toByteArray(), CHARSET_UTF8);
+			requestBytes = null;
+
+			// The service and checkPermutationStrongName() expect the thread-locals to be set.
+			//
+			synchronized (RemoteServiceServlet.this) {
+				validateThreadLocalData();
+				perThreadRequest.set(request);
+				perThreadResponse.set(response);
+			}
+			try {
+				onBeforeRequestDeserialized(requestPayload);
+				invoke(requestPayload, this::respond);
+			} catch (Throwable e) {
+				fail(e);
+			} finally {
+				perThreadRequest.set(null);
+				perThreadResponse.set(null);
+			}
+		}
+
+		/**
+		 * Encodes the response and starts writing it as the client accepts it, returning false if
+		 * there is nothing to wait for, as a failure was sent instead.
+		 */
+		private boolean writeResponseNonBlocking(StringSerializationStreamWriter writer) throws IOException {
+			String responsePayload = writer.toString();
+			onAfterResponseSerialized(responsePayload);
+
+			boolean gzipEncode = acceptsGzipEncoding(request)
+					&& exceedsUncompressedContentLengthLimit(responsePayload);
+			responseBytes = encodeResponse(getServletContext(), response, responsePayload, gzipEncode);
+			if (responseBytes == null) {
+				// the failure has already been sent
+				return false;
+			}
+			response.getOutputStream().setWriteListener(this);
+			return true;
+		}
+
+		@Override
+		public void onWritePossible() throws IOException {
+			ServletOutputStream out = response.getOutputStream();
+			while (true) {
+				// each write only takes what the container can buffer, so the lock is held briefly,
+				// and a timeout can't complete the request in the middle of one
+				synchronized (this) {
+					if (completed || !out.isReady()) {
+						return;
+					}
+					if (responseOffset < responseBytes.length) {
+						int length = Math.min(BUFFER_SIZE, responseBytes.length - responseOffset);
+						out.write(responseBytes, responseOffset, length);
+						responseOffset += length;
+						continue;
+					}
+				}
+				complete();
+				return;
+			}
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			// reading the request or writing the response failed, usually as the client went away
+			synchronized (this) {
+				finished = true;
+			}
+			getServletContext().log("Error while reading or writing RPC payload", t);
+			complete();
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			boolean responding;
+			synchronized (this) {
+				timedOut = true;
+				responding = finished;
+				if (responding) {
+					if (writing || completed) {
+						// completing now could cut the response off part way through a write, or
+						// let the rest of it go to another request, so respond() completes once
+						// it is done
+						return;
+					}
+					// the response is waiting for a slow client to accept more, and is cut off as
+					// the client has waited long enough. onWritePossible() writes while holding
+					// the lock, so once this is set nothing more is written.
+					completed = true;
+				}
+				finished = true;
+			}
+			if (responding) {
+				asyncContext.complete();
+				return;
+			}
+			writeResponseForUnexpectedFailure(getServletContext(), response,
+					new TimeoutException("Service did not respond within " + getAsyncTimeout() + "ms"));
+			complete();
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			synchronized (this) {
+				finished = true;
+			}
+			getServletContext().log("Error while waiting for async RPC response", event.getThrowable());
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+
+	/**
+	 * Override this method to return true to read requests and write responses
+	 * with non-blocking I/O, so that a client sending or receiving a large payload
+	 * over a slow connection doesn't hold a container thread while it does so. The
+	 * request is put into async mode before the body is read, and the call is only
+	 * dispatched once the whole body has arrived. This only applies when the
+	 * servlet is registered with async support enabled, otherwise requests are read
+	 * and written as usual.
+	 * <p>
+	 * As the response must be in memory to be written as the client can accept it,
+	 * {@link #isStreaming()} is ignored in this mode. The time allowed by
+	 * {@link #getAsyncTimeout()} includes reading the request and writing the response.
+	 *
+	 * @return true to use non-blocking I/O, false by default
+	 */
+	protected boolean isNonBlocking() {
+		return false;
+	}
+
+	/**
+	 * Override this method to return true to stream requests and responses as
+	 * UTF-8, rather than holding each as both bytes and a String. The request is
+	 * decoded directly into the buffer the payload is parsed from, and the response
+	 * is encoded into the response's output stream (through gzip, if the client
+	 * accepts it) as it is written, so a large call only needs one copy of each
+	 * payload in memory, rather than several.
+	 * <p>
+	 * Memory still grows with the size of the payload: the whole request is
+	 * decoded before it is parsed, as the reader counts its tokens first, and the
+	 * whole response is held as characters until it is written, as the string
+	 * table is sent ahead of the values which refer to it. Only the copies between
+	 * bytes and Strings are avoided.
+	 * <p>
+	 * In this mode {@link #readContent(HttpServletRequest)},
+	 * {@link #onBeforeRequestDeserialized(String)} and
+	 * {@link #onAfterResponseSerialized(String)} are not called, as there is no
+	 * String of the payload to pass to them. The response has no Content-Length,
+	 * so is sent chunked.
+	 *
+	 * @return true to stream payloads, false by default
+	 */
+	protected boolean isStreaming() {
+		return false;
+	}
+
 	/**
 	 * Override this method in order to control the parsing of the incoming
 	 * request. For example, you may want to bypass the check of the Content-Type
@@ -378,6 +787,59 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 	 */
 	protected String readContent(HttpServletRequest request)
 			throws ServletException, IOException {
+		checkContentHeaders(request);
+
+		/*
+		 * Need to support 'Transfer-Encoding: chunked', so do not rely on
+		 * presence of a 'Content-Length' request header.
+		 */
+		InputStream in = request.getInputStream();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		ByteArrayOutputStream out = new  ByteArrayOutputStream(BUFFER_SIZE);
+		try {
+			while (true) {
+				int byteCount = in.read(buffer);
+				if (byteCount == -1) {
+					break;
+				}
+				out.write(buffer, 0, byteCount);
+			}
+			return new String(out.toByteArray(), CHARSET_UTF8);
+		} finally {
+			if (in != null) {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the request into a buffer for {@link #isStreaming() streaming} mode,
+	 * decoding the UTF-8 bytes as they arrive rather than collecting them first.
+	 * The buffer is sized from the Content-Length header when it is present.
+	 */
+	private CharSequence readContentStreaming(HttpServletRequest request)
+			throws ServletException, IOException {
+		checkContentHeaders(request);
+
+		int contentLength = request.getContentLength();
+		StringBuilder content = new StringBuilder(contentLength > 0 ? contentLength : BUFFER_SIZE);
+		char[] buffer = new char[BUFFER_SIZE];
+		try (Reader in = new InputStreamReader(request.getInputStream(), CHARSET_UTF8)) {
+			while (true) {
+				int charCount = in.read(buffer);
+				if (charCount == -1) {
+					break;
+				}
+				content.append(buffer, 0, charCount);
+			}
+		}
+		return content;
+	}
+
+	/**
+	 * Checks that the request has the expected Content-Type and character encoding.
+	 */
+	private static void checkContentHeaders(HttpServletRequest request) throws ServletException {
 		if (GWT_RPC_CONTENT_TYPE != null) {
 			assert (GWT_RPC_CONTENT_TYPE != null);
 			String contentType = request.getContentType();
@@ -422,28 +884,6 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 						+ "'.  Expected '" + CHARSET_UTF8_NAME + "'");
 			}
 		}
-
-		/*
-		 * Need to support 'Transfer-Encoding: chunked', so do not rely on
-		 * presence of a 'Content-Length' request header.
-		 */
-		InputStream in = request.getInputStream();
-		byte[] buffer = new byte[BUFFER_SIZE];
-		ByteArrayOutputStream out = new  ByteArrayOutputStream(BUFFER_SIZE);
-		try {
-			while (true) {
-				int byteCount = in.read(buffer);
-				if (byteCount == -1) {
-					break;
-				}
-				out.write(buffer, 0, byteCount);
-			}
-			return new String(out.toByteArray(), CHARSET_UTF8);
-		} finally {
-			if (in != null) {
-				in.close();
-			}
-		}
 	}
 
 	/**
@@ -470,6 +910,31 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 		writeResponse(getServletContext(), response,
 				responsePayload, gzipEncode);
 	}
+
+	/**
+	 * Writes the response held by the given writer straight into the
+	 * {@link HttpServletResponse}, gzip encoding it if the client accepts that.
+	 */
+	private void writeResponse(HttpServletRequest request,
+							   HttpServletResponse response, StringSerializationStreamWriter responseWriter) throws IOException {
+		boolean gzipEncode = acceptsGzipEncoding(request);
+		if (gzipEncode) {
+			setGzipEncodingHeader(response);
+		}
+		response.setContentType(CONTENT_TYPE_APPLICATION_JSON_UTF8);
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setHeader(CONTENT_DISPOSITION, ATTACHMENT);
+
+		OutputStream output = response.getOutputStream();
+		if (gzipEncode) {
+			output = new GZIPOutputStream(output, BUFFER_SIZE);
+		}
+		// closing the writer finishes the gzip stream, and closes the response
+		try (Writer out = new OutputStreamWriter(output, CHARSET_UTF8)) {
+			responseWriter.writeTo(out);
+		}
+	}
+
 	/**
 	 * Returns <code>true</code> if the {@link HttpServletRequest} accepts Gzip
 	 * encoding. This is done by checking that the accept-encoding header
@@ -517,7 +982,21 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 	private static void writeResponse(ServletContext servletContext,
 									 HttpServletResponse response, String responseContent, boolean gzipResponse)
 			throws IOException {
+		byte[] responseBytes = encodeResponse(servletContext, response, responseContent, gzipResponse);
+		if (responseBytes != null) {
+			response.getOutputStream().write(responseBytes);
+		}
+	}
 
+	/**
+	 * Encodes the response content and sets the response headers to match, compressing it if
+	 * <code>gzipResponse</code> is <code>true</code>.
+	 *
+	 * @return the bytes to write, or null if compressing failed and an error has been sent instead
+	 */
+	private static byte[] encodeResponse(ServletContext servletContext,
+										 HttpServletResponse response, String responseContent, boolean gzipResponse)
+			throws IOException {
 		byte[] responseBytes = responseContent.getBytes(CHARSET_UTF8);
 		if (gzipResponse) {
 			// Compress the reply and adjust headers.
@@ -547,7 +1026,7 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 			if (caught != null) {
 				servletContext.log("Unable to compress response", caught);
 				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-				return;
+				return null;
 			}
 		}
 
@@ -557,7 +1036,7 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 		response.setContentType(CONTENT_TYPE_APPLICATION_JSON_UTF8);
 		response.setStatus(HttpServletResponse.SC_OK);
 		response.setHeader(CONTENT_DISPOSITION, ATTACHMENT);
-		response.getOutputStream().write(responseBytes);
+		return responseBytes;
 	}
 
 	/**
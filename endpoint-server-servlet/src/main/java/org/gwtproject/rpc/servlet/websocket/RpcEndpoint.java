@@ -19,13 +19,23 @@
  */
 package org.gwtproject.rpc.servlet.websocket;
 
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferPool;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.SizeClassByteBufferPool;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.StringDictionary;
+import org.gwtproject.rpc.api.Broadcast;
 import org.gwtproject.rpc.api.Client;
 import org.gwtproject.rpc.api.Server;
 import org.gwtproject.rpc.api.Server.Connection;
+import org.gwtproject.rpc.api.impl.AbstractEndpointImpl;
 import org.gwtproject.rpc.api.impl.AbstractEndpointImpl.EndpointImplConstructor;
+import org.gwtproject.rpc.api.impl.AbstractEndpointImpl.KeyedSend;
 import org.gwtproject.rpc.api.impl.AbstractWebSocketClientImpl;
+import org.gwtproject.rpc.api.impl.SendQueue;
+import org.gwtproject.rpc.api.impl.SendQueue.OverflowPolicy;
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 
 import javax.websocket.CloseReason;
 import javax.websocket.OnClose;
@@ -37,6 +47,10 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
@@ -44,6 +58,10 @@ public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
 	private final EndpointImplConstructor<C> clientConstructor;
 
 	private Consumer<ByteBuffer> handleMessage;
+	private SendQueue sendQueue;
+	private ScheduledFuture<?> callbackExpiry;
+	// set once onOpen has accepted the connection, onClose is also called for rejected ones
+	private volatile boolean opened;
 
 	public RpcEndpoint(S server, EndpointImplConstructor<C> clientConstructor) {
 		this.server = server;
@@ -56,20 +74,162 @@ public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
 	}
 
 
+	/**
+	 * Creates the pool that outgoing messages on this connection will be written to. By default each
+	 * connection gets its own pool, subclasses can override this to share a pool between connections,
+	 * or to use direct buffers if the container can write those to the socket without copying them.
+	 */
+	protected ByteBufferPool createBufferPool() {
+		return new SizeClassByteBufferPool();
+	}
+
+	/**
+	 * Returns the number of bytes which may be queued for one connection before the
+	 * {@link #getOverflowPolicy() overflow policy} is applied.
+	 */
+	protected long getMaxQueuedBytes() {
+		return SendQueue.DEFAULT_MAX_QUEUED_BYTES;
+	}
+
+	/**
+	 * Returns what to do with messages sent to a client which isn't reading them quickly enough,
+	 * see {@link #getMaxQueuedBytes()}. Defaults to blocking the sending thread, as a
+	 * {@code BasicRemote} would.
+	 */
+	protected OverflowPolicy getOverflowPolicy() {
+		return OverflowPolicy.BLOCK;
+	}
+
+	/**
+	 * Returns how long, in microseconds, messages to one client are collected before they are sent
+	 * together as one frame with a shared string table, or a negative value to send each message on
+	 * its own. Zero sends whatever has been collected as soon as the {@link #getScheduler() scheduler}
+	 * gets to it.
+	 * Batching is off by default, as clients must be new enough to read batched frames.
+	 */
+	protected long getBatchWindowMicros() {
+		return -1;
+	}
+
+	/**
+	 * Returns the size a batch may reach before it is sent without waiting for the rest of its
+	 * {@link #getBatchWindowMicros() window}.
+	 */
+	protected int getMaxBatchBytes() {
+		return AbstractEndpointImpl.DEFAULT_MAX_BATCH_LENGTH;
+	}
+
+	/**
+	 * Returns how long, in milliseconds, a call to the client waits for its response before its
+	 * callback is told that it timed out, see {@link org.gwtproject.rpc.api.Callback#onTimeout()}.
+	 * Zero, the default, waits forever.
+	 */
+	protected long getCallbackTimeoutMillis() {
+		return 0;
+	}
+
+	/**
+	 * Returns the largest string dictionary which a client may offer with the {@code dictionary}
+	 * query parameter. Once accepted, each end keeps the strings it recently sent and received, and
+	 * strings which were sent before are written as their index in the dictionary rather than in
+	 * full, see {@link StringDictionary}. Offers of more strings than this are declined, and the
+	 * connection uses plain string tables. Zero, the default, declines all offers.
+	 */
+	protected int getMaxStringDictionaryCapacity() {
+		return 0;
+	}
+
+	/**
+	 * Returns the scheduler that sends batches once their window has passed, and looks for timed out
+	 * callbacks. By default a single thread is shared by all connections, and it never blocks on a
+	 * connection's send queue, but timeouts are delivered on it, so callbacks should handle them
+	 * quickly.
+	 */
+	protected ScheduledExecutorService getScheduler() {
+		return SchedulerThread.SCHEDULER;
+	}
+
+	/**
+	 * Creates the writer for a single outgoing message. Subclasses can override this to add flags to
+	 * the writer, such as {@link ByteBufferSerializationStreamWriter#FLAG_VARINT_ENCODING}, provided
+	 * that the clients connecting are able to read them. Use addFlags rather than setFlags, so that
+	 * flags the writer already set for its serializer are kept. By default types are written as
+	 * their numeric ids, which both ends agree on since the client's checksum was checked.
+	 */
+	protected ByteBufferSerializationStreamWriter createWriter(TypeSerializer serializer, ByteBufferPool bufferPool) {
+		ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer, bufferPool);
+		writer.prepareToWrite();
+		writer.addFlags(AbstractSerializationStream.FLAG_TYPE_IDS);
+		return writer;
+	}
+
+	/**
+	 * Serializes a call to clients of this endpoint's type once, so that the same message can be
+	 * sent to many connections, see {@link Broadcast}. The message is written with
+	 * {@link #createWriter(TypeSerializer, ByteBufferPool)}, but not into any one connection's pool,
+	 * as it may be released from any of them.
+	 *
+	 * @param call makes exactly one call, to a method without a callback, on the client it is given
+	 */
+	public Broadcast<C> broadcast(Consumer<C> call) {
+		return Broadcast.create(clientConstructor, serializer -> createWriter(serializer, ByteBufferPool.UNPOOLED), call);
+	}
+
 	@OnOpen
 	public void onOpen(Session session) {
+		int dictionaryCapacity = acceptedDictionaryCapacity(session);
+		if (dictionaryCapacity == -1) {
+			try {
+				session.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, "The dictionary query parameter must be a single positive number, cannot accept request"));
+			} catch (IOException e) {
+				onError(new IOException("Error when closing new connection", e));
+			}
+			return;
+		}
+		// messages are read one at a time, and written one at a time by the send queue, in order
+		StringDictionary outgoingStrings = dictionaryCapacity == 0 ? null : new StringDictionary(dictionaryCapacity, StringDictionary.DEFAULT_MAX_STRING_LENGTH);
+		StringDictionary incomingStrings = dictionaryCapacity == 0 ? null : new StringDictionary(dictionaryCapacity, StringDictionary.DEFAULT_MAX_STRING_LENGTH);
+		ByteBufferPool bufferPool = createBufferPool();
+		// containers only allow one async send at a time, so the queue writes one message after another
+		sendQueue = new SendQueue(new SendQueue.Transport() {
+			@Override
+			public void disconnect(String reason) {
+				try {
+					session.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, reason));
+				} catch (IOException e) {
+					onError(new IOException("Error when closing slow connection", e));
+				}
+			}
+
+			@Override
+			public boolean canBlock() {
+				// the scheduler thread is shared, one slow client mustn't hold up the others
+				return !(Thread.currentThread() instanceof SchedulerThread);
+			}
+		}, getMaxQueuedBytes(), getOverflowPolicy(), 1);
+		KeyedSend<ByteBufferSerializationStreamWriter> send = (writer, key) -> sendQueue.send(new BinaryMessage(session, writer, outgoingStrings), key);
 		C instance = clientConstructor.create(
 				serializer -> {
-					ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer);
-					writer.prepareToWrite();
+					ByteBufferSerializationStreamWriter writer = createWriter(serializer, bufferPool);
+					if (outgoingStrings != null) {
+						writer.addFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY);
+					}
 					return writer;
 				},
-				writer -> session.getAsyncRemote().sendBinary(writer.getFullPayload()),
+				send,
 				(onMessage, serializer) -> {
 					// using this to delegate to OnMessage, not working otherwise
-					handleMessage = message -> onMessage.accept(new ByteBufferSerializationStreamReader(serializer, message));
+					handleMessage = message -> onMessage.accept(new ByteBufferSerializationStreamReader(serializer, message, incomingStrings));
 				}
 		);
+		long batchWindowMicros = getBatchWindowMicros();
+		if (batchWindowMicros >= 0) {
+			ScheduledExecutorService scheduler = getScheduler();
+			((AbstractEndpointImpl) instance).__enableBatching(
+					flush -> scheduler.schedule(flush, batchWindowMicros, TimeUnit.MICROSECONDS),
+					getMaxBatchBytes()
+			);
+		}
 		List<String> hash = session.getRequestParameterMap().get("checksum");
 		try {
 			if (hash == null || hash.isEmpty()) {
@@ -88,12 +248,22 @@ public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
 			}
 		} catch (IOException e) {
 			onError(new IOException("Error when closing new connection", e));
+			return;
 		}
 
 		server.setClient(instance);
 		instance.setServer(server);
 
-		server.onOpen(new Jsr356Connection(session), server.getClient());
+		long callbackTimeoutMillis = getCallbackTimeoutMillis();
+		if (callbackTimeoutMillis > 0) {
+			AbstractEndpointImpl endpoint = (AbstractEndpointImpl) instance;
+			endpoint.__setCallbackTimeout(callbackTimeoutMillis);
+			long period = Math.max(10, callbackTimeoutMillis / 4);
+			callbackExpiry = getScheduler().scheduleAtFixedRate(endpoint::__expireCallbacks, period, period, TimeUnit.MILLISECONDS);
+		}
+
+		opened = true;
+		server.onOpen(new Jsr356Connection(session, sendQueue), server.getClient());
 
 		// Configure defaults present in some servlet containers to avoid some confusing limits. Subclasses
 		// can override this method to control those defaults on their own.
@@ -101,6 +271,27 @@ public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
 		session.setMaxBinaryMessageBufferSize(Integer.MAX_VALUE);
 	}
 
+	/**
+	 * Returns the capacity of the string dictionary the client offered, if it is accepted, zero if
+	 * there is no offer or it is declined, or -1 if the offer can't be read.
+	 */
+	private int acceptedDictionaryCapacity(Session session) {
+		List<String> dictionary = session.getRequestParameterMap().get("dictionary");
+		if (dictionary == null || dictionary.isEmpty()) {
+			return 0;
+		}
+		int offered;
+		try {
+			offered = dictionary.size() == 1 ? Integer.parseInt(dictionary.get(0)) : -1;
+		} catch (NumberFormatException e) {
+			offered = -1;
+		}
+		if (offered < 1) {
+			return -1;
+		}
+		return offered <= getMaxStringDictionaryCapacity() ? offered : 0;
+	}
+
 	@OnMessage
 	public void onMessage(String message, Session session) throws IOException {
 		session.getBasicRemote().sendText("Error: This endpoint does not accept string messages, use binary messages instead.");
@@ -114,8 +305,19 @@ public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
 	}
 	@OnClose
 	public void onClose(Session session) {
+		if (!opened) {
+			// rejected in onOpen, the server was never told about this connection
+			if (sendQueue != null) {
+				sendQueue.close();
+			}
+			return;
+		}
 		assert server.getClient() != null;
-		server.onClose(new Jsr356Connection(session), server.getClient());
+		sendQueue.close();
+		if (callbackExpiry != null) {
+			callbackExpiry.cancel(false);
+		}
+		server.onClose(new Jsr356Connection(session, sendQueue), server.getClient());
 	}
 
 	@OnError
@@ -125,11 +327,72 @@ public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
 		}
 	}
 
+	private static final class SchedulerThread extends Thread {
+		private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(SchedulerThread::new);
+
+		private SchedulerThread(Runnable target) {
+			super(target, "rpc-endpoint-scheduler");
+			setDaemon(true);
+		}
+	}
+
+	private static class BinaryMessage implements SendQueue.Message {
+		private final Session session;
+		private final ByteBufferSerializationStreamWriter writer;
+		private final StringDictionary dictionary;
+		private final int size;
+		private ByteBuffer payload;
+
+		private BinaryMessage(Session session, ByteBufferSerializationStreamWriter writer, StringDictionary dictionary) {
+			this.session = session;
+			this.writer = writer;
+			this.dictionary = dictionary;
+			if (!writer.hasFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY)) {
+				this.payload = writer.getFullPayload();
+				this.size = payload.remaining();
+			} else {
+				// a string table built against the dictionary depends on the messages written
+				// before it, so it waits until this message is written, and the strings aren't
+				// counted until then
+				this.size = writer.mark();
+			}
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public void write(Runnable onWritten) {
+			try {
+				if (payload == null) {
+					payload = writer.getFullPayload(dictionary);
+				}
+				session.getAsyncRemote().sendBinary(payload, result -> {
+					writer.release();
+					onWritten.run();
+				});
+			} catch (RuntimeException e) {
+				// the session has already closed
+				writer.release();
+				onWritten.run();
+			}
+		}
+
+		@Override
+		public void discard() {
+			writer.release();
+		}
+	}
+
 	private static class Jsr356Connection implements Connection {
 		private final Session session;
+		private final SendQueue sendQueue;
 
-		private Jsr356Connection(Session session) {
+		private Jsr356Connection(Session session, SendQueue sendQueue) {
 			this.session = session;
+			this.sendQueue = sendQueue;
 		}
 
 		@Override
@@ -159,6 +422,21 @@ public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
 				throw new UncheckedIOException(e);
 			}
 		}
+
+		@Override
+		public boolean isWritable() {
+			return sendQueue.isWritable();
+		}
+
+		@Override
+		public long getQueuedBytes() {
+			return sendQueue.getQueuedBytes();
+		}
+
+		@Override
+		public void onWritable(Runnable callback) {
+			sendQueue.onWritable(callback);
+		}
 	}
 
 }
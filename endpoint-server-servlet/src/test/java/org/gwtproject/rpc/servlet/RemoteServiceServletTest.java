@@ -0,0 +1,581 @@
+/*
+ * #%L
+ * gwt-websockets-jsr356
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.servlet;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import org.gwtproject.rpc.api.Callback;
+import org.gwtproject.rpc.api.Endpoint.NoRemoteEndpoint;
+import org.gwtproject.rpc.api.RemoteService.RemoteServiceAsync;
+import org.gwtproject.rpc.api.impl.AbstractNoRemoteImpl;
+import org.gwtproject.rpc.serialization.api.FieldSerializer;
+import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
+import org.gwtproject.rpc.serialization.api.SerializationStreamWriter;
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.api.impl.TypeSerializerImpl;
+import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamReader;
+import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamWriter;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Posts calls to a servlet through a fake container, which lets each test decide when the
+ * service responds, when the client accepts more of the response, and when the call times out.
+ */
+public class RemoteServiceServletTest {
+	private static final String CHECKSUM = "test";
+
+	private static final TypeSerializer SERIALIZER = new TypeSerializerImpl() {
+		@Override
+		protected FieldSerializer serializer(String name) {
+			return null;
+		}
+
+		@Override
+		public String getChecksum() {
+			return "";
+		}
+	};
+
+	public interface EchoService extends RemoteServiceAsync {
+		void echo(String value, Callback<String, String> callback);
+	}
+
+	/**
+	 * Written as the annotation processor would write it for {@link EchoService}.
+	 */
+	public static final class EchoService_ImplRemote extends AbstractNoRemoteImpl<EchoService> implements NoRemoteEndpoint<EchoService> {
+		public <W extends SerializationStreamWriter> EchoService_ImplRemote(Function<TypeSerializer, W> writerFactory, Consumer<W> send, BiConsumer<Consumer<SerializationStreamReader>, TypeSerializer> onMessage) {
+			super(writerFactory, send, SERIALIZER, onMessage);
+		}
+
+		@Override
+		protected void __invoke(int recipient, SerializationStreamReader reader) throws SerializationException {
+			int header = reader.readInt();
+			int callbackId = Math.abs(header);
+			long deadline = __readDeadline(header, reader);
+			String value = reader.readString();
+			IncomingCall call = __startIncomingCall(callbackId, deadline);
+			getRemote().echo(value, new Callback<String, String>() {
+				@Override
+				public void onSuccess(String response) {
+					if (__finishIncomingCall(call)) {
+						__send(-callbackId, writer -> {
+							writer.writeBoolean(true);
+							writer.writeString(response);
+						});
+					}
+				}
+
+				@Override
+				public void onFailure(String error) {
+					if (__finishIncomingCall(call)) {
+						__send(-callbackId, writer -> {
+							writer.writeBoolean(false);
+							writer.writeString(error);
+						});
+					}
+				}
+			});
+		}
+
+		@Override
+		protected void __onError(Throwable ex) {
+			getRemote().onError(ex);
+		}
+
+		@Override
+		public String getChecksum() {
+			return CHECKSUM;
+		}
+	}
+
+	/**
+	 * Service which answers synchronously if told to, or otherwise leaves the test to answer.
+	 */
+	private final class TestServlet extends RemoteServiceServlet<EchoService> {
+		private final boolean nonBlocking;
+
+		private TestServlet(boolean nonBlocking) {
+			super(new EchoService() {
+				@Override
+				public void echo(String value, Callback<String, String> callback) {
+					if (respondImmediately) {
+						callback.onSuccess(value);
+					} else {
+						callbacks.add(callback);
+					}
+				}
+			}, EchoService_ImplRemote::new);
+			this.nonBlocking = nonBlocking;
+		}
+
+		@Override
+		protected boolean isNonBlocking() {
+			return nonBlocking;
+		}
+
+		@Override
+		public ServletContext getServletContext() {
+			return stub(ServletContext.class, (proxy, method, args) -> {
+				if (method.getName().equals("log")) {
+					logs.add((String) args[0]);
+					return null;
+				}
+				throw new UnsupportedOperationException(method.getName());
+			});
+		}
+	}
+
+	/**
+	 * Request body which arrives in pieces, as the test provides them.
+	 */
+	private final class TestInputStream extends ServletInputStream {
+		private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+		private byte[] chunk;
+		private int offset;
+		private boolean finished;
+		private ReadListener listener;
+
+		@Override
+		public boolean isFinished() {
+			return finished && available() == 0;
+		}
+
+		@Override
+		public boolean isReady() {
+			return finished || available() > 0;
+		}
+
+		@Override
+		public void setReadListener(ReadListener readListener) {
+			listener = readListener;
+		}
+
+		@Override
+		public int available() {
+			int available = chunk == null ? 0 : chunk.length - offset;
+			for (byte[] next : chunks) {
+				available += next.length;
+			}
+			return available;
+		}
+
+		@Override
+		public int read() {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (chunk == null || offset == chunk.length) {
+				chunk = chunks.poll();
+				offset = 0;
+				if (chunk == null) {
+					assertTrue("read when no data was ready", finished);
+					return -1;
+				}
+			}
+			int length = Math.min(len, chunk.length - offset);
+			System.arraycopy(chunk, offset, b, off, length);
+			offset += length;
+			return length;
+		}
+
+		private void arrive(byte[] bytes) throws IOException {
+			chunks.add(bytes);
+			if (listener != null) {
+				listener.onDataAvailable();
+			}
+		}
+
+		private void end() throws IOException {
+			finished = true;
+			if (listener != null) {
+				listener.onAllDataRead();
+			}
+		}
+	}
+
+	/**
+	 * Response body which takes as many bytes as the client has room for, and fails the test if
+	 * it is written to after the request was completed.
+	 */
+	private final class TestOutputStream extends ServletOutputStream {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private long room = Long.MAX_VALUE;
+		private WriteListener listener;
+		// when set, the next write waits for the test
+		private CountDownLatch writeStarted;
+		private CountDownLatch writeReleased;
+
+		@Override
+		public synchronized boolean isReady() {
+			return room > 0;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			listener = writeListener;
+			try {
+				writeListener.onWritePossible();
+			} catch (IOException e) {
+				writeListener.onError(e);
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			CountDownLatch started = writeStarted;
+			if (started != null) {
+				writeStarted = null;
+				started.countDown();
+				await(writeReleased);
+			}
+			synchronized (this) {
+				if (completions.get() != 0) {
+					errors.add("written after the request was completed");
+				}
+				if (room < len) {
+					errors.add("written while not ready");
+				}
+				bytes.write(b, off, len);
+				room -= len;
+			}
+		}
+
+		/**
+		 * The client makes room for more of the response.
+		 */
+		private void accept(long moreBytes) throws IOException {
+			synchronized (this) {
+				room += moreBytes;
+			}
+			listener.onWritePossible();
+		}
+	}
+
+	private volatile boolean respondImmediately = true;
+	private final LinkedBlockingQueue<Callback<String, String>> callbacks = new LinkedBlockingQueue<>();
+	private final List<String> logs = Collections.synchronizedList(new ArrayList<>());
+	private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicInteger completions = new AtomicInteger();
+
+	private final TestInputStream in = new TestInputStream();
+	private final TestOutputStream out = new TestOutputStream();
+	private final List<AsyncListener> asyncListeners = new ArrayList<>();
+	private boolean async;
+	private int status;
+
+	private final AsyncContext asyncContext = stub(AsyncContext.class, (proxy, method, args) -> {
+		switch (method.getName()) {
+			case "getRequest":
+				return RemoteServiceServletTest.this.request;
+			case "getResponse":
+				return RemoteServiceServletTest.this.response;
+			case "setTimeout":
+				return null;
+			case "addListener":
+				asyncListeners.add((AsyncListener) args[0]);
+				return null;
+			case "complete":
+				completions.incrementAndGet();
+				return null;
+			default:
+				throw new UnsupportedOperationException(method.getName());
+		}
+	});
+
+	private final HttpServletRequest request = stub(HttpServletRequest.class, (proxy, method, args) -> {
+		switch (method.getName()) {
+			case "getHeader":
+				return RemoteServiceServlet.STRONG_NAME_HEADER.equals(args[0]) ? CHECKSUM : null;
+			case "getContentType":
+				return "text/x-gwt-rpc; charset=utf-8";
+			case "getCharacterEncoding":
+				return "utf-8";
+			case "getContentLength":
+				return -1;
+			case "isAsyncSupported":
+				return true;
+			case "startAsync":
+				async = true;
+				return asyncContext;
+			case "getInputStream":
+				return in;
+			default:
+				throw new UnsupportedOperationException(method.getName());
+		}
+	});
+
+	private final HttpServletResponse response = stub(HttpServletResponse.class, (proxy, method, args) -> {
+		switch (method.getName()) {
+			case "setStatus":
+				status = (Integer) args[0];
+				return null;
+			case "setContentType":
+			case "setContentLength":
+			case "setHeader":
+				return null;
+			case "getOutputStream":
+				return out;
+			case "isCommitted":
+				return out.bytes.size() != 0;
+			case "reset":
+				out.bytes.reset();
+				return null;
+			default:
+				throw new UnsupportedOperationException(method.getName());
+		}
+	});
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(RemoteServiceServletTest.class.getClassLoader(), new Class<?>[] {type}, handler);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	@After
+	public void noErrors() {
+		assertEquals(new ArrayList<>(), errors);
+	}
+
+	private static byte[] payload(String value) {
+		StringSerializationStreamWriter writer = new StringSerializationStreamWriter(SERIALIZER);
+		writer.prepareToWrite();
+		writer.writeInt(0);
+		writer.writeInt(1);
+		writer.writeString(value);
+		return writer.toString().getBytes(RemoteServiceServlet.CHARSET_UTF8);
+	}
+
+	/**
+	 * Reads the echoed value from the response body.
+	 */
+	private String responseValue() throws Exception {
+		assertEquals(HttpServletResponse.SC_OK, status);
+		String body = new String(out.bytes.toByteArray(), RemoteServiceServlet.CHARSET_UTF8);
+		StringSerializationStreamReader reader = new StringSerializationStreamReader(SERIALIZER, body);
+		assertEquals(-1, reader.readInt());
+		assertTrue(reader.readBoolean());
+		return reader.readString();
+	}
+
+	private void post(TestServlet servlet, String value) throws IOException {
+		if (!servlet.isNonBlocking()) {
+			in.arrive(payload(value));
+			in.finished = true;
+		}
+		servlet.doPost(request, response);
+	}
+
+	private void timeout() throws IOException {
+		for (AsyncListener listener : new ArrayList<>(asyncListeners)) {
+			listener.onTimeout(new AsyncEvent(asyncContext));
+		}
+	}
+
+	@Test
+	public void testSynchronousResponse() throws Exception {
+		post(new TestServlet(false), "hello");
+		assertFalse(async);
+		assertEquals("hello", responseValue());
+	}
+
+	@Test
+	public void testAsyncResponse() throws Exception {
+		respondImmediately = false;
+		post(new TestServlet(false), "hello");
+		assertTrue(async);
+		assertEquals(0, out.bytes.size());
+
+		Thread responder = new Thread(() -> callbacks.poll().onSuccess("hello"));
+		responder.start();
+		responder.join(TimeUnit.SECONDS.toMillis(10));
+		assertEquals("hello", responseValue());
+		assertEquals(1, completions.get());
+	}
+
+	@Test
+	public void testTimeoutBeforeResponse() throws Exception {
+		respondImmediately = false;
+		post(new TestServlet(false), "hello");
+		timeout();
+		assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, status);
+		assertEquals(1, completions.get());
+
+		// too late, nothing more is written
+		int length = out.bytes.size();
+		callbacks.poll().onSuccess("hello");
+		assertEquals(length, out.bytes.size());
+		assertEquals(1, completions.get());
+	}
+
+	@Test
+	public void testTimeoutWhileWritingResponse() throws Exception {
+		respondImmediately = false;
+		post(new TestServlet(false), "hello");
+		out.writeStarted = new CountDownLatch(1);
+		out.writeReleased = new CountDownLatch(1);
+		CountDownLatch started = out.writeStarted;
+
+		Thread responder = new Thread(() -> callbacks.poll().onSuccess("hello"));
+		responder.start();
+		await(started);
+
+		// the response is part way through being written on another thread
+		timeout();
+		assertEquals(0, completions.get());
+
+		out.writeReleased.countDown();
+		responder.join(TimeUnit.SECONDS.toMillis(10));
+		assertFalse(responder.isAlive());
+		// the writer completed the request once the whole response was written
+		assertEquals(1, completions.get());
+		assertEquals("hello", responseValue());
+	}
+
+	@Test
+	public void testNonBlockingPartialReads() throws Exception {
+		post(new TestServlet(true), "hello");
+		assertTrue(async);
+		byte[] payload = payload("hello");
+		for (int i = 0; i < payload.length; i += 3) {
+			in.arrive(Arrays.copyOfRange(payload, i, Math.min(payload.length, i + 3)));
+		}
+		// nothing is dispatched until the whole body has arrived
+		assertEquals(0, out.bytes.size());
+
+		in.end();
+		assertEquals("hello", responseValue());
+		assertEquals(1, completions.get());
+	}
+
+	@Test
+	public void testNonBlockingWriteWaitsForClient() throws Exception {
+		String value = repeat('x', 5 * RemoteServiceServlet.BUFFER_SIZE);
+		out.room = RemoteServiceServlet.BUFFER_SIZE;
+		post(new TestServlet(true), value);
+		in.arrive(payload(value));
+		in.end();
+		// the client only had room for part of the response
+		assertEquals(RemoteServiceServlet.BUFFER_SIZE, out.bytes.size());
+		assertEquals(0, completions.get());
+
+		for (int i = 0; i < 10 && completions.get() == 0; i++) {
+			out.accept(RemoteServiceServlet.BUFFER_SIZE);
+		}
+		assertEquals(1, completions.get());
+		assertEquals(value, responseValue());
+	}
+
+	@Test
+	public void testNonBlockingTimeoutWhileWaitingForClient() throws Exception {
+		String value = repeat('x', 5 * RemoteServiceServlet.BUFFER_SIZE);
+		out.room = RemoteServiceServlet.BUFFER_SIZE;
+		post(new TestServlet(true), value);
+		in.arrive(payload(value));
+		in.end();
+
+		// the client has taken too long, so the rest of the response is dropped
+		timeout();
+		assertEquals(1, completions.get());
+		out.accept(Long.MAX_VALUE / 2);
+		assertEquals(RemoteServiceServlet.BUFFER_SIZE, out.bytes.size());
+		assertEquals(1, completions.get());
+	}
+
+	@Test
+	public void testNonBlockingReadError() throws Exception {
+		post(new TestServlet(true), "hello");
+		byte[] payload = payload("hello");
+		in.arrive(Arrays.copyOf(payload, payload.length / 2));
+		in.listener.onError(new IOException("client went away"));
+
+		assertEquals(1, completions.get());
+		assertEquals(1, logs.size());
+		// the call was never dispatched, or answered
+		assertEquals(0, out.bytes.size());
+		timeout();
+		assertEquals(1, completions.get());
+	}
+
+	@Test
+	public void testNonBlockingWriteError() throws Exception {
+		String value = repeat('x', 5 * RemoteServiceServlet.BUFFER_SIZE);
+		out.room = RemoteServiceServlet.BUFFER_SIZE;
+		post(new TestServlet(true), value);
+		in.arrive(payload(value));
+		in.end();
+		out.listener.onError(new IOException("client went away"));
+
+		assertEquals(1, completions.get());
+		assertEquals(1, logs.size());
+		timeout();
+		assertEquals(1, completions.get());
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
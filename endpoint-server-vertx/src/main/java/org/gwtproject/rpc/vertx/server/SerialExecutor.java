@@ -0,0 +1,85 @@
+package org.gwtproject.rpc.vertx.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on threads from a shared executor.
+ * Each connection gets its own instance, so that calls from one client are handled in the order
+ * they arrived, while calls from different clients can run in parallel on the shared pool.
+ * <p></p>
+ * Only one task is handed to the shared executor at a time, and the next is only submitted once
+ * it has finished, so a busy connection doesn't keep a pool thread to itself.
+ * <p></p>
+ * If the shared executor rejects a task, the tasks waiting to run stay queued, in order, and are
+ * submitted again by the next call to {@link #execute(Runnable)}. The rejection is thrown to the
+ * caller of {@code execute}, or passed to {@code onError} when it happens while submitting the
+ * next task after one has finished.
+ */
+public class SerialExecutor implements Executor {
+    private final Executor executor;
+    private final Consumer<Throwable> onError;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean scheduled;
+
+    /**
+     * @param executor the shared executor that runs the tasks
+     * @param onError called with anything a task throws, on the thread that ran it, and when the
+     *                shared executor rejects the next task
+     */
+    public SerialExecutor(Executor executor, Consumer<Throwable> onError) {
+        this.executor = executor;
+        this.onError = onError;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (this) {
+            tasks.addLast(task);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        submit();
+    }
+
+    private void submit() {
+        try {
+            executor.execute(this::runNext);
+        } catch (RuntimeException e) {
+            // most likely shut down, let the next task try again
+            synchronized (this) {
+                scheduled = false;
+            }
+            throw e;
+        }
+    }
+
+    private void runNext() {
+        Runnable task;
+        synchronized (this) {
+            task = tasks.pollFirst();
+        }
+        try {
+            task.run();
+        } catch (Throwable t) {
+            onError.accept(t);
+        } finally {
+            boolean more;
+            synchronized (this) {
+                more = !tasks.isEmpty();
+                scheduled = more;
+            }
+            if (more) {
+                try {
+                    submit();
+                } catch (RuntimeException e) {
+                    // nothing to throw to from a pool thread, the tasks wait for the next execute
+                    onError.accept(e);
+                }
+            }
+        }
+    }
+}
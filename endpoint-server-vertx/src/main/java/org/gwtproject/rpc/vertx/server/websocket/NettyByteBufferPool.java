@@ -0,0 +1,49 @@
+package org.gwtproject.rpc.vertx.server.websocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Buffer pool backed by a Netty allocator, by default handing out pooled direct memory, so that
+ * outgoing messages can be written to the socket without first being copied off of the heap.
+ * Every buffer acquired must be released, or its memory will never be returned to the allocator.
+ */
+public class NettyByteBufferPool implements ByteBufferPool {
+    private final ByteBufAllocator allocator;
+    private final Map<ByteBuffer, ByteBuf> outstanding = new IdentityHashMap<>();
+
+    public NettyByteBufferPool() {
+        this(PooledByteBufAllocator.DEFAULT);
+    }
+
+    public NettyByteBufferPool(ByteBufAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    @Override
+    public ByteBuffer acquire(int minCapacity) {
+        ByteBuf buf = allocator.directBuffer(minCapacity);
+        ByteBuffer nioBuffer = buf.nioBuffer(0, buf.capacity());
+        synchronized (outstanding) {
+            outstanding.put(nioBuffer, buf);
+        }
+        return nioBuffer;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        ByteBuf buf;
+        synchronized (outstanding) {
+            buf = outstanding.remove(buffer);
+        }
+        if (buf != null) {
+            buf.release();
+        }
+    }
+}
@@ -1,58 +1,240 @@
 package org.gwtproject.rpc.vertx.server.websocket;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import io.vertx.core.buffer.Buffer;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferPool;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.StringDictionary;
+import org.gwtproject.rpc.api.Broadcast;
 import org.gwtproject.rpc.api.Client;
 import org.gwtproject.rpc.api.Server;
 
+import io.vertx.core.Context;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.http.WebSocketFrame;
 import org.gwtproject.rpc.api.impl.AbstractEndpointImpl;
 import org.gwtproject.rpc.api.impl.AbstractWebSocketClientImpl;
+import org.gwtproject.rpc.api.impl.SendQueue;
+import org.gwtproject.rpc.api.impl.SendQueue.OverflowPolicy;
+import org.gwtproject.rpc.vertx.server.SerialExecutor;
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 public class RpcWebSocketHandler<S extends Server<S, C>, C extends Client<C, S>> implements Handler<ServerWebSocket> {
     private final AbstractEndpointImpl.EndpointImplConstructor<C> clientConstructor;
     private final Supplier<S> serverFactory;
+    private Supplier<ByteBufferPool> bufferPoolFactory = NettyByteBufferPool::new;
+    private long maxQueuedBytes = SendQueue.DEFAULT_MAX_QUEUED_BYTES;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private long batchWindowMicros = -1;
+    private int maxBatchBytes = AbstractEndpointImpl.DEFAULT_MAX_BATCH_LENGTH;
+    private Executor dispatchExecutor;
+    private long callbackTimeoutMillis;
+    private int maxStringDictionaryCapacity;
 
     public RpcWebSocketHandler(AbstractEndpointImpl.EndpointImplConstructor<C> clientConstructor, Supplier<S> serverFactory) {
         this.clientConstructor = clientConstructor;
         this.serverFactory = serverFactory;
     }
 
+    /**
+     * Sets the factory used to create the buffer pool for each new connection. Return the same
+     * instance each time to share a single pool between all connections. Defaults to pooled direct
+     * memory from Netty's allocator.
+     */
+    public RpcWebSocketHandler<S, C> setBufferPoolFactory(Supplier<ByteBufferPool> bufferPoolFactory) {
+        this.bufferPoolFactory = bufferPoolFactory;
+        return this;
+    }
+
+    /**
+     * Limits the number of bytes which may be waiting to be written to one connection, and sets
+     * what to do with messages beyond that limit. Defaults to blocking the sending thread once
+     * {@link SendQueue#DEFAULT_MAX_QUEUED_BYTES} are queued, but as the event loop can never be
+     * blocked, messages sent from it are queued past the limit under that policy, until twice the
+     * limit is reached and the connection is closed. Server code running on the event loop should
+     * check {@link Server.Connection#isWritable()} instead.
+     */
+    public RpcWebSocketHandler<S, C> setSendQueueLimit(long maxQueuedBytes, OverflowPolicy overflowPolicy) {
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * Runs server code for incoming messages, and the open and close notifications, on the given
+     * executor instead of on the event loop, so that slow methods don't hold up every other
+     * connection on the same loop. Each connection's messages are still handled one at a time and
+     * in order, but different connections can be handled in parallel by the executor's threads.
+     * Messages sent back to the client are written from the connection's event loop. Pass null to
+     * go back to running everything on the event loop, which is the default.
+     * <p></p>
+     * As the dispatch threads aren't event loop threads, they may be blocked by the
+     * {@link OverflowPolicy#BLOCK} policy.
+     */
+    public RpcWebSocketHandler<S, C> setDispatchExecutor(Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+        return this;
+    }
+
+    /**
+     * Sets how long, in milliseconds, a call to a client waits for its response before its callback
+     * is told that it timed out, see {@link org.gwtproject.rpc.api.Callback#onTimeout()}. Timeouts
+     * are delivered the same way as incoming messages, see {@link #setDispatchExecutor(Executor)}.
+     * Zero, the default, waits forever.
+     */
+    public RpcWebSocketHandler<S, C> setCallbackTimeout(long callbackTimeoutMillis) {
+        this.callbackTimeoutMillis = callbackTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Collects the messages sent to each client into batches, sent as one frame with a shared
+     * string table once the window has passed or the batch reaches {@code maxBatchBytes}. A window
+     * of zero sends the batch on the next turn of the connection's event loop, anything longer
+     * uses a vertx timer, and so is rounded up to whole milliseconds. Pass a negative window to
+     * turn batching off again, which is the default, as clients must be new enough to read batched
+     * frames.
+     */
+    public RpcWebSocketHandler<S, C> setBatching(long flushWindowMicros, int maxBatchBytes) {
+        this.batchWindowMicros = flushWindowMicros;
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    /**
+     * Accepts string dictionaries of up to the given number of strings, offered by clients with the
+     * {@code dictionary} query parameter. Once accepted, each end keeps the strings it recently
+     * sent and received, and strings which were sent before are written as their index in the
+     * dictionary rather than in full, see {@link StringDictionary}. Offers of more strings than this
+     * are declined, and the connection uses plain string tables. Zero, the default, declines all
+     * offers.
+     */
+    public RpcWebSocketHandler<S, C> setStringDictionary(int maxCapacity) {
+        this.maxStringDictionaryCapacity = maxCapacity;
+        return this;
+    }
+
+    /**
+     * Creates the writer for a single outgoing message. Subclasses can override this to add flags to
+     * the writer, such as {@link ByteBufferSerializationStreamWriter#FLAG_VARINT_ENCODING}, provided
+     * that the clients connecting are able to read them. Use addFlags rather than setFlags, so that
+     * flags the writer already set for its serializer are kept. By default types are written as
+     * their numeric ids, which both ends agree on since the client's checksum was checked.
+     */
+    protected ByteBufferSerializationStreamWriter createWriter(TypeSerializer typeSerializer, ByteBufferPool bufferPool) {
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(typeSerializer, bufferPool);
+        writer.prepareToWrite();
+        writer.addFlags(AbstractSerializationStream.FLAG_TYPE_IDS);
+        return writer;
+    }
+
+    /**
+     * Serializes a call to clients of this handler's type once, so that the same message can be sent
+     * to many connections, see {@link Broadcast}. The message is written with
+     * {@link #createWriter(TypeSerializer, ByteBufferPool)} into a pool from the buffer pool factory.
+     *
+     * @param call makes exactly one call, to a method without a callback, on the client it is given
+     */
+    public Broadcast<C> broadcast(Consumer<C> call) {
+        return Broadcast.create(clientConstructor, typeSerializer -> createWriter(typeSerializer, bufferPoolFactory.get()), call);
+    }
+
     @Override
     public void handle(ServerWebSocket incomingWebsocket) {
         // assume that we've been set up correctly to only handle our own events
         // this is a new socket, so could allocate a new server instance to talk to?
+        ByteBufferPool bufferPool = bufferPoolFactory.get();
+        Context context = Vertx.currentContext();
+        int dictionaryCapacity = acceptedDictionaryCapacity(incomingWebsocket);
+        if (dictionaryCapacity == -1) {
+            incomingWebsocket.close((short) 1003, "The dictionary query parameter must be a single positive number, cannot accept request");
+            return;
+        }
+        // only used on the event loop, where frames are read and written in order
+        StringDictionary outgoingStrings = dictionaryCapacity == 0 ? null : new StringDictionary(dictionaryCapacity, StringDictionary.DEFAULT_MAX_STRING_LENGTH);
+        StringDictionary incomingStrings = dictionaryCapacity == 0 ? null : new StringDictionary(dictionaryCapacity, StringDictionary.DEFAULT_MAX_STRING_LENGTH);
+        S server = serverFactory.get();
+        Executor dispatch = dispatchExecutor == null ? Runnable::run : new SerialExecutor(dispatchExecutor, server::onError);
+        // vertx keeps its own write queue, so everything is handed over at once and counted until written
+        SendQueue sendQueue = new SendQueue(new SendQueue.Transport() {
+            @Override
+            public void disconnect(String reason) {
+                incomingWebsocket.close((short) 1008, reason);
+            }
+
+            @Override
+            public boolean canBlock() {
+                return !Context.isOnEventLoopThread();
+            }
+        }, maxQueuedBytes, overflowPolicy, Integer.MAX_VALUE);
+        AtomicInteger deferredWrites = new AtomicInteger();
+        AbstractEndpointImpl.KeyedSend<ByteBufferSerializationStreamWriter> send =
+                (writer, key) -> sendQueue.send(new FrameMessage(incomingWebsocket, context, deferredWrites, writer, outgoingStrings), key);
         C instance = clientConstructor.create(
                 typeSerializer -> {
-                    ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(typeSerializer);
-                    writer.prepareToWrite();
+                    ByteBufferSerializationStreamWriter writer = createWriter(typeSerializer, bufferPool);
+                    if (outgoingStrings != null) {
+                        writer.addFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY);
+                    }
                     return writer;
                 },
-                writer -> {
-                    // TODO prevent this from copying the whole payload
-                    ByteBuffer fullPayload = writer.getFullPayload();
-                    Buffer buffer = Buffer.buffer(fullPayload.array())
-                            .slice(fullPayload.position(), fullPayload.limit());
-
-                    incomingWebsocket.writeFinalBinaryFrame(buffer);
-                },
+                send,
                 (onMessage, serializer) -> {
-                    incomingWebsocket.frameHandler(frame -> {
-                        // TODO prevent this from copying the whole payload
-                        ByteBuffer byteBuffer = frame.binaryData().getByteBuf().nioBuffer();
-                        onMessage.accept(new ByteBufferSerializationStreamReader(serializer, byteBuffer));
+                    incomingWebsocket.frameHandler(new Handler<WebSocketFrame>() {
+                        private CompositeByteBuf fragments;
+
+                        @Override
+                        public void handle(WebSocketFrame frame) {
+                            if (frame.isBinary() && frame.isFinal()) {
+                                ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(serializer, nioBuffer(frame.binaryData().getByteBuf()), incomingStrings);
+                                dispatch.execute(() -> onMessage.accept(reader));
+                            } else if (frame.isBinary() || (frame.isContinuation() && fragments != null)) {
+                                // collect the pieces of a fragmented message until the last one arrives,
+                                // without letting netty consolidate them into a new buffer every few
+                                // pieces, so they are only copied once, into the buffer the reader reads
+                                if (fragments == null) {
+                                    fragments = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+                                }
+                                fragments.addComponent(true, frame.binaryData().getByteBuf());
+                                if (frame.isFinal()) {
+                                    ByteBuffer message = nioBuffer(fragments);
+                                    fragments = null;
+                                    ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(serializer, message, incomingStrings);
+                                    dispatch.execute(() -> onMessage.accept(reader));
+                                }
+                            }
+                            // other frames (close, ping, pong) are handled by vertx itself
+                        }
                     });
                 }
         );
 
+        if (batchWindowMicros >= 0) {
+            long delayMillis = (batchWindowMicros + 999) / 1000;
+            ((AbstractEndpointImpl) instance).__enableBatching(flush -> {
+                if (delayMillis == 0) {
+                    context.runOnContext(ignore -> flush.run());
+                } else {
+                    context.owner().setTimer(delayMillis, ignore -> flush.run());
+                }
+            }, maxBatchBytes);
+        }
+
         List<String> checksum = new QueryStringDecoder(incomingWebsocket.uri()).parameters().get("checksum");
         if (checksum == null || checksum.isEmpty()) {
             incomingWebsocket.close((short) 1003, "The checksum query parameter was not specified, cannot accept request");
@@ -69,24 +251,139 @@ public class RpcWebSocketHandler<S extends Server<S, C>, C extends Client<C, S>>
             }
         }
 
-        S server = serverFactory.get();
         server.setClient(instance);
         instance.setServer(server);
 
-        VertxConnection connection = new VertxConnection(incomingWebsocket);
+        VertxConnection connection = new VertxConnection(incomingWebsocket, sendQueue);
+
+        long expiryTimer;
+        if (callbackTimeoutMillis > 0) {
+            AbstractEndpointImpl endpoint = (AbstractEndpointImpl) instance;
+            endpoint.__setCallbackTimeout(callbackTimeoutMillis);
+            expiryTimer = context.owner().setPeriodic(Math.max(10, callbackTimeoutMillis / 4), id -> dispatch.execute(endpoint::__expireCallbacks));
+        } else {
+            expiryTimer = -1;
+        }
 
         incomingWebsocket.exceptionHandler(server::onError);
-        incomingWebsocket.closeHandler(c -> server.onClose(connection, instance));
+        incomingWebsocket.closeHandler(c -> {
+            sendQueue.close();
+            if (expiryTimer != -1) {
+                context.owner().cancelTimer(expiryTimer);
+            }
+            // after any messages which are still being handled
+            dispatch.execute(() -> server.onClose(connection, instance));
+        });
 
-        server.onOpen(connection, instance);
+        dispatch.execute(() -> server.onOpen(connection, instance));
+    }
+
+    /**
+     * Returns the capacity of the string dictionary the client offered, if it is accepted, zero if
+     * there is no offer or it is declined, or -1 if the offer can't be read.
+     */
+    private int acceptedDictionaryCapacity(ServerWebSocket incomingWebsocket) {
+        List<String> dictionary = new QueryStringDecoder(incomingWebsocket.uri()).parameters().get("dictionary");
+        if (dictionary == null || dictionary.isEmpty()) {
+            return 0;
+        }
+        int offered;
+        try {
+            offered = dictionary.size() == 1 ? Integer.parseInt(dictionary.get(0)) : -1;
+        } catch (NumberFormatException e) {
+            offered = -1;
+        }
+        if (offered < 1) {
+            return -1;
+        }
+        return offered <= maxStringDictionaryCapacity ? offered : 0;
+    }
+
+    /**
+     * Exposes the readable bytes of the buffer without copying them, unless the buffer is made of
+     * several components, which the reader can't read across.
+     */
+    private static ByteBuffer nioBuffer(ByteBuf buf) {
+        if (buf.nioBufferCount() == 1) {
+            return buf.nioBuffer();
+        }
+        ByteBuffer copy = ByteBuffer.allocate(buf.readableBytes());
+        buf.getBytes(buf.readerIndex(), copy);
+        copy.flip();
+        return copy;
+    }
+
+    private static class FrameMessage implements SendQueue.Message {
+        private final ServerWebSocket webSocket;
+        private final Context context;
+        private final AtomicInteger deferredWrites;
+        private final ByteBufferSerializationStreamWriter writer;
+        private final StringDictionary dictionary;
+        private final ByteBuffer payload;
+        private final ByteBuffer stringTable;
+
+        private FrameMessage(ServerWebSocket webSocket, Context context, AtomicInteger deferredWrites, ByteBufferSerializationStreamWriter writer, StringDictionary dictionary) {
+            this.webSocket = webSocket;
+            this.context = context;
+            this.deferredWrites = deferredWrites;
+            this.writer = writer;
+            this.dictionary = dictionary;
+            this.payload = writer.getPayloadBytes();
+            // a string table built against the dictionary depends on the messages written before
+            // it, so it waits until this message is written, on the event loop
+            this.stringTable = writer.hasFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY) ? null : writer.getStringTableBytes();
+        }
+
+        @Override
+        public int size() {
+            // with a dictionary, the strings aren't known until the message is written
+            return payload.remaining() + (stringTable == null ? 0 : stringTable.remaining());
+        }
+
+        @Override
+        public void write(Runnable onWritten) {
+            // messages from a dispatch thread go back to the connection's event loop to be written,
+            // and while any are on their way, later messages have to queue up behind them
+            if (Vertx.currentContext() != context || deferredWrites.get() != 0) {
+                deferredWrites.incrementAndGet();
+                context.runOnContext(ignore -> {
+                    deferredWrites.decrementAndGet();
+                    writeFrame(onWritten);
+                });
+            } else {
+                writeFrame(onWritten);
+            }
+        }
+
+        private void writeFrame(Runnable onWritten) {
+            ByteBuffer strings = stringTable != null ? stringTable : writer.getStringTableBytes(dictionary);
+            // gather the payload and string table without copying either, the buffers are
+            // only released once the write completes
+            ByteBuf frame = Unpooled.wrappedBuffer(payload, strings);
+            webSocket.writeFinalBinaryFrame(Buffer.buffer(frame)).onComplete(ignore -> {
+                writer.release();
+                onWritten.run();
+            });
+        }
+
+        @Override
+        public void discard() {
+            writer.release();
+        }
     }
 
     public static class VertxConnection implements Server.Connection {
         private final ServerWebSocket webSocket;
+        private final SendQueue sendQueue;
         private final ConcurrentHashMap<String, Object> map = new ConcurrentHashMap<>();
 
         public VertxConnection(ServerWebSocket webSocket) {
+            this(webSocket, null);
+        }
+
+        public VertxConnection(ServerWebSocket webSocket, SendQueue sendQueue) {
             this.webSocket = webSocket;
+            this.sendQueue = sendQueue;
         }
 
         @Override
@@ -108,5 +405,26 @@ public class RpcWebSocketHandler<S extends Server<S, C>, C extends Client<C, S>>
         public void close(int closeCode, String closeReason) {
             webSocket.close((short) closeCode, closeReason);
         }
+
+        @Override
+        public boolean isWritable() {
+            return sendQueue != null ? sendQueue.isWritable() : !webSocket.writeQueueFull();
+        }
+
+        @Override
+        public long getQueuedBytes() {
+            return sendQueue != null ? sendQueue.getQueuedBytes() : 0;
+        }
+
+        @Override
+        public void onWritable(Runnable callback) {
+            if (sendQueue != null) {
+                sendQueue.onWritable(callback);
+            } else if (webSocket.writeQueueFull()) {
+                webSocket.drainHandler(ignore -> callback.run());
+            } else {
+                callback.run();
+            }
+        }
     }
 }
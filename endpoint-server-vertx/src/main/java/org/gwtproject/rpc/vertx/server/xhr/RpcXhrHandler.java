@@ -1,6 +1,8 @@
 package org.gwtproject.rpc.vertx.server.xhr;
 
+import io.vertx.core.Context;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpServerRequest;
 import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamReader;
 import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamWriter;
@@ -8,8 +10,10 @@ import org.gwtproject.rpc.api.Endpoint;
 import org.gwtproject.rpc.api.RemoteService;
 import org.gwtproject.rpc.api.impl.AbstractEndpointImpl;
 import org.gwtproject.rpc.api.impl.AbstractNoRemoteImpl;
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 public class RpcXhrHandler<S extends RemoteService.RemoteServiceAsync> implements Handler<HttpServerRequest> {
@@ -28,12 +32,36 @@ public class RpcXhrHandler<S extends RemoteService.RemoteServiceAsync> implement
 
     private final AbstractEndpointImpl.EndpointImplConstructor<Endpoint.NoRemoteEndpoint<S>> clientFactory;
     private final Supplier<S> serverFactory;
+    private Executor dispatchExecutor;
 
     public RpcXhrHandler(AbstractEndpointImpl.EndpointImplConstructor<Endpoint.NoRemoteEndpoint<S>> clientFactory, Supplier<S> serverFactory) {
         this.clientFactory = clientFactory;
         this.serverFactory = serverFactory;
     }
 
+    /**
+     * Runs the service method for each request on the given executor instead of on the event loop,
+     * so that slow methods don't hold up every other request on the same loop. The response is
+     * written from the request's event loop. Pass null to go back to running the service on the
+     * event loop, which is the default.
+     */
+    public RpcXhrHandler<S> setDispatchExecutor(Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+        return this;
+    }
+
+
+    /**
+     * Creates the writer for a single response. Subclasses can override this to add flags to the
+     * writer, such as {@link StringSerializationStreamWriter#FLAG_PACKED_ARRAYS}, provided that the
+     * clients calling this handler are able to read them. Use addFlags rather than setFlags, so that
+     * flags the writer already set for its serializer are kept.
+     */
+    protected StringSerializationStreamWriter createWriter(TypeSerializer typeSerializer) {
+        StringSerializationStreamWriter writer = new StringSerializationStreamWriter(typeSerializer);
+        writer.prepareToWrite();
+        return writer;
+    }
 
     @Override
     public void handle(HttpServerRequest event) {
@@ -49,24 +77,35 @@ public class RpcXhrHandler<S extends RemoteService.RemoteServiceAsync> implement
 
         //TODO character encoding?
 
+        Context context = Vertx.currentContext();
+        Executor dispatch = dispatchExecutor;
         Endpoint.NoRemoteEndpoint<S> c = clientFactory.create(
-                typeSerializer -> {
-                    StringSerializationStreamWriter writer = new StringSerializationStreamWriter(typeSerializer);
-                    writer.prepareToWrite();
-                    return writer;
-                },
+                this::createWriter,
                 writer -> {
 
                     String response = writer.toString();
-                    event.response()
+                    onContext(context, () -> event.response()
                             .putHeader("Content-Type", CONTENT_TYPE_APPLICATION_JSON_UTF8)
                             .putHeader(CONTENT_DISPOSITION, ATTACHMENT)
-                            .end(response);
+                            .end(response));
                 },
                 ((onMessage, serializer) -> {
                     //endhandler never goes off synchronously, so this is safe
                     event.bodyHandler(buffer -> {
-                        onMessage.accept(new StringSerializationStreamReader(serializer, buffer.toString()));
+                        StringSerializationStreamReader reader = new StringSerializationStreamReader(serializer, buffer.toString());
+                        if (dispatch == null) {
+                            onMessage.accept(reader);
+                            return;
+                        }
+                        dispatch.execute(() -> {
+                            try {
+                                onMessage.accept(reader);
+                            } catch (RuntimeException e) {
+                                // on the event loop vertx would report this, but here the request would never end
+                                onContext(context, () -> event.response().setStatusCode(500).end());
+                                throw e;
+                            }
+                        });
                     });
                 }));
 
@@ -91,4 +130,12 @@ public class RpcXhrHandler<S extends RemoteService.RemoteServiceAsync> implement
         c.setRemote(instance);
 
     }
+
+    private static void onContext(Context context, Runnable action) {
+        if (Vertx.currentContext() == context) {
+            action.run();
+        } else {
+            context.runOnContext(ignore -> action.run());
+        }
+    }
 }
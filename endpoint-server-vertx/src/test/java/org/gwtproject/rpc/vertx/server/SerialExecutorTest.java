@@ -0,0 +1,161 @@
+package org.gwtproject.rpc.vertx.server;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SerialExecutorTest {
+    private final List<String> ran = new ArrayList<>();
+    private final List<Throwable> errors = new ArrayList<>();
+
+    /**
+     * Shared executor which only runs tasks when the test says so, and can be made to reject them.
+     */
+    private final class ManualExecutor implements Executor {
+        private final ArrayDeque<Runnable> submitted = new ArrayDeque<>();
+        private boolean rejecting;
+
+        @Override
+        public void execute(Runnable command) {
+            if (rejecting) {
+                throw new RejectedExecutionException("shut down");
+            }
+            submitted.addLast(command);
+        }
+
+        private void runAll() {
+            while (!submitted.isEmpty()) {
+                submitted.pollFirst().run();
+            }
+        }
+    }
+
+    private final ManualExecutor shared = new ManualExecutor();
+    private final SerialExecutor executor = new SerialExecutor(shared, errors::add);
+
+    @Test
+    public void testOneTaskSubmittedAtATime() {
+        executor.execute(() -> ran.add("a"));
+        executor.execute(() -> ran.add("b"));
+        executor.execute(() -> ran.add("c"));
+        assertEquals(1, shared.submitted.size());
+
+        // each task submits the next once it has finished
+        shared.submitted.pollFirst().run();
+        assertEquals(list("a"), ran);
+        assertEquals(1, shared.submitted.size());
+
+        shared.runAll();
+        assertEquals(list("a", "b", "c"), ran);
+        assertTrue(errors.isEmpty());
+
+        // idle again, so the next task is submitted right away
+        executor.execute(() -> ran.add("d"));
+        assertEquals(1, shared.submitted.size());
+        shared.runAll();
+        assertEquals(list("a", "b", "c", "d"), ran);
+    }
+
+    @Test
+    public void testOrderOnPool() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SerialExecutor executor = new SerialExecutor(pool, errors::add);
+            int count = 10000;
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger overlaps = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(count);
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                executor.execute(() -> {
+                    if (running.incrementAndGet() != 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    order.add(index);
+                    running.decrementAndGet();
+                    done.countDown();
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(0, overlaps.get());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, (int) order.get(i));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void testTaskThrows() {
+        RuntimeException thrown = new IllegalStateException("a failed");
+        executor.execute(() -> {
+            throw thrown;
+        });
+        executor.execute(() -> ran.add("b"));
+        shared.runAll();
+
+        // reported, and the next task still runs
+        assertEquals(1, errors.size());
+        assertSame(thrown, errors.get(0));
+        assertEquals(list("b"), ran);
+    }
+
+    @Test
+    public void testRejectedOnExecute() {
+        shared.rejecting = true;
+        try {
+            executor.execute(() -> ran.add("a"));
+            fail("the caller should see the rejection");
+        } catch (RejectedExecutionException expected) {
+            // the task stays queued
+        }
+
+        shared.rejecting = false;
+        executor.execute(() -> ran.add("b"));
+        shared.runAll();
+        assertEquals(list("a", "b"), ran);
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void testRejectedAfterTask() {
+        executor.execute(() -> ran.add("a"));
+        executor.execute(() -> ran.add("b"));
+        executor.execute(() -> ran.add("c"));
+
+        // the pool stops accepting tasks while a is running
+        shared.rejecting = true;
+        shared.runAll();
+        assertEquals(list("a"), ran);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof RejectedExecutionException);
+
+        // the tasks that were waiting aren't lost, the next execute submits them again
+        shared.rejecting = false;
+        executor.execute(() -> ran.add("d"));
+        shared.runAll();
+        assertEquals(list("a", "b", "c", "d"), ran);
+        assertEquals(1, errors.size());
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        return list;
+    }
+}
@@ -20,35 +20,41 @@ import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.client.rpc.SerializationStreamReader;
 import com.google.gwt.user.client.rpc.SerializationStreamWriter;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.util.LinkedHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Custom field serializer for {@link java.util.LinkedHashMap} for the server
- * (uses reflection).
+ * Custom field serializer for {@link java.util.LinkedHashMap} for the server.
+ * <p>
+ * The private accessOrder field is read through a method handle which is
+ * looked up once with reflection. This works on Java 8, and on later JDKs
+ * only when java.util is opened to this module, e.g. with
+ * {@code --add-opens java.base/java.util=ALL-UNNAMED}. Otherwise the order
+ * is inferred by cloning the map, which is O(n). Setting the system property
+ * {@value #ASSUME_INSERTION_ORDER_PROPERTY} to true skips all of this and
+ * always writes insertion order, for applications that never send
+ * access-ordered maps.
  */
 @SuppressWarnings("rawtypes")
 public final class LinkedHashMap_CustomFieldSerializer extends
     CustomFieldSerializer<LinkedHashMap> {
 
+  public static final String ASSUME_INSERTION_ORDER_PROPERTY = "gwt.rpc.LinkedHashMap.assumeInsertionOrder";
+
+  private static final boolean ASSUME_INSERTION_ORDER = Boolean.getBoolean(ASSUME_INSERTION_ORDER_PROPERTY);
+
   /**
-   * We use an atomic reference to avoid having to synchronize. This is safe
-   * because it's only used as a cache; it's okay to read a stale value.
+   * Handle of type (LinkedHashMap)boolean which reads accessOrder, or null if
+   * it can't be read directly in this JVM.
    */
-  private static AtomicReference<Field> accessOrderField = new AtomicReference<Field>(
-      null);
+  private static final MethodHandle ACCESS_ORDER = ASSUME_INSERTION_ORDER ? null : findAccessOrder();
 
   private static Object KEY1 = new Object();
   private static Object KEY2 = new Object();
 
-  /**
-   * We use an atomic reference to avoid having to synchronize. This is safe
-   * because it's only used as a cache; it's okay to read a stale value.
-   */
-  private static AtomicBoolean reflectionHasFailed = new AtomicBoolean(false);
-
   public static void deserialize(SerializationStreamReader streamReader,
       LinkedHashMap instance) throws SerializationException {
     Map_CustomFieldSerializerBase.deserialize(streamReader, instance);
@@ -101,35 +107,40 @@ public final class LinkedHashMap_CustomFieldSerializer extends
     Map_CustomFieldSerializerBase.serialize(streamWriter, instance);
   }
 
-  private static boolean getAccessOrder(LinkedHashMap instance) {
-    if (!reflectionHasFailed.get()) {
+  static boolean getAccessOrder(LinkedHashMap instance) {
+    if (ASSUME_INSERTION_ORDER) {
+      return false;
+    }
+    if (ACCESS_ORDER != null) {
       try {
-        Field f = accessOrderField.get();
-        if (f == null || !f.isAccessible()) {
-          f = LinkedHashMap.class.getDeclaredField("accessOrder");
-          synchronized (f) {
-            // Ensure all threads can see the accessibility.
-            f.setAccessible(true);
-          }
-          accessOrderField.set(f);
-        }
-        return ((Boolean) f.get(instance)).booleanValue();
-      } catch (SecurityException e) {
-        // fall through
-      } catch (NoSuchFieldException e) {
-        // fall through
-      } catch (IllegalArgumentException e) {
-        // fall through
-      } catch (IllegalAccessException e) {
-        // fall through
+        return (boolean) ACCESS_ORDER.invokeExact(instance);
+      } catch (Throwable e) {
+        // can't happen, reading a field doesn't throw
+        throw new IllegalStateException(e);
       }
-      reflectionHasFailed.set(true);
     }
 
     // Use a (possibly slower) technique that does not require reflection.
     return getAccessOrderNoReflection(instance);
   }
 
+  private static MethodHandle findAccessOrder() {
+    Field field;
+    try {
+      field = LinkedHashMap.class.getDeclaredField("accessOrder");
+    } catch (NoSuchFieldException | SecurityException e) {
+      return null;
+    }
+    try {
+      field.setAccessible(true);
+      return MethodHandles.lookup().unreflectGetter(field)
+          .asType(MethodType.methodType(boolean.class, LinkedHashMap.class));
+    } catch (RuntimeException | IllegalAccessException e) {
+      // InaccessibleObjectException on Java 9+, unless java.util is opened to us
+      return null;
+    }
+  }
+
   @Override
   public void deserializeInstance(SerializationStreamReader streamReader,
       LinkedHashMap instance) throws SerializationException {
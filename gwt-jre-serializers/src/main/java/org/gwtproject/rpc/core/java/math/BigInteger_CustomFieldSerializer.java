@@ -37,10 +37,9 @@ public class BigInteger_CustomFieldSerializer {
     public static BigInteger instantiate(SerializationStreamReader streamReader)
             throws SerializationException {
         final int length = streamReader.readInt();
+        streamReader.claimItems(length);
         final byte[] unscaledValue = new byte[length];
-        for (int i = 0; i < length; i++) {
-            unscaledValue[i] = streamReader.readByte();
-        }
+        streamReader.readBytes(unscaledValue, 0, length);
         return new BigInteger(unscaledValue);
     }
 
@@ -48,8 +47,6 @@ public class BigInteger_CustomFieldSerializer {
                                  BigInteger instance) throws SerializationException {
         final byte[] unscaledValue = instance.toByteArray();
         streamWriter.writeInt(unscaledValue.length);
-        for (int i = 0; i < unscaledValue.length; i++) {
-            streamWriter.writeByte(unscaledValue[i]);
-        }
+        streamWriter.writeBytes(unscaledValue, 0, unscaledValue.length);
     }
 }
@@ -0,0 +1,71 @@
+package com.google.gwt.user.client.rpc.core.java.util;
+
+import org.gwtproject.rpc.serialization.api.FieldSerializer;
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.api.impl.TypeSerializerImpl;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+public class LinkedHashMapSerializerTest {
+
+    private final TypeSerializer t = new TypeSerializerImpl() {
+        @Override
+        protected FieldSerializer serializer(String name) {
+            return null;
+        }
+
+        @Override
+        public String getChecksum() {
+            return "";
+        }
+    };
+
+    private static LinkedHashMap<Integer, Integer> fill(LinkedHashMap<Integer, Integer> map) {
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i);
+        }
+        // touch an early entry, so that access order differs from insertion order
+        map.get(0);
+        return map;
+    }
+
+    @Test
+    public void testAccessOrder() {
+        LinkedHashMap<Integer, Integer> insertionOrdered = fill(new LinkedHashMap<>());
+        LinkedHashMap<Integer, Integer> accessOrdered = fill(new LinkedHashMap<>(16, .75f, true));
+
+        List<Integer> insertionKeys = new ArrayList<>(insertionOrdered.keySet());
+        List<Integer> accessKeys = new ArrayList<>(accessOrdered.keySet());
+
+        Assert.assertFalse(LinkedHashMap_CustomFieldSerializer.getAccessOrder(insertionOrdered));
+        Assert.assertTrue(LinkedHashMap_CustomFieldSerializer.getAccessOrder(accessOrdered));
+        Assert.assertFalse(LinkedHashMap_CustomFieldSerializer.getAccessOrderNoReflection(insertionOrdered));
+        Assert.assertTrue(LinkedHashMap_CustomFieldSerializer.getAccessOrderNoReflection(accessOrdered));
+
+        // checking must not disturb the order of either map
+        Assert.assertEquals(insertionKeys, new ArrayList<>(insertionOrdered.keySet()));
+        Assert.assertEquals(accessKeys, new ArrayList<>(accessOrdered.keySet()));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(t);
+        LinkedHashMap_CustomFieldSerializer.serialize(writer, new LinkedHashMap<>());
+        LinkedHashMap_CustomFieldSerializer.serialize(writer, new LinkedHashMap<>(16, .75f, true));
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, writer.getPayloadBytes());
+        LinkedHashMap<?, ?> insertionOrdered = LinkedHashMap_CustomFieldSerializer.instantiate(reader);
+        LinkedHashMap_CustomFieldSerializer.deserialize(reader, insertionOrdered);
+        LinkedHashMap<?, ?> accessOrdered = LinkedHashMap_CustomFieldSerializer.instantiate(reader);
+        LinkedHashMap_CustomFieldSerializer.deserialize(reader, accessOrdered);
+
+        Assert.assertFalse(LinkedHashMap_CustomFieldSerializer.getAccessOrder(insertionOrdered));
+        Assert.assertTrue(LinkedHashMap_CustomFieldSerializer.getAccessOrder(accessOrdered));
+    }
+}
@@ -93,6 +93,99 @@ public interface SerializationStreamReader extends com.google.gwt.user.client.rp
      */
     String readString() throws SerializationException;
 
+    /**
+     * Reads {@code length} values into the given array, starting at {@code offset}, which were
+     * written by {@link SerializationStreamWriter#writeBooleans(boolean[], int, int)}. The caller is
+     * responsible for claiming the items first, see {@link #claimItems(int)}.
+     *
+     * @param values the array to read the values into
+     * @param offset index of the first value to read
+     * @param length number of values to read
+     * @throws SerializationException if not enough data remains, or the data is not formatted correctly
+     */
+    default void readBooleans(boolean[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readBoolean();
+        }
+    }
+
+    /**
+     * Reads {@code length} values into the given array, starting at {@code offset}.
+     *
+     * @see #readBooleans(boolean[], int, int)
+     */
+    default void readBytes(byte[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readByte();
+        }
+    }
+
+    /**
+     * Reads {@code length} values into the given array, starting at {@code offset}.
+     *
+     * @see #readBooleans(boolean[], int, int)
+     */
+    default void readChars(char[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readChar();
+        }
+    }
+
+    /**
+     * Reads {@code length} values into the given array, starting at {@code offset}.
+     *
+     * @see #readBooleans(boolean[], int, int)
+     */
+    default void readShorts(short[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readShort();
+        }
+    }
+
+    /**
+     * Reads {@code length} values into the given array, starting at {@code offset}.
+     *
+     * @see #readBooleans(boolean[], int, int)
+     */
+    default void readInts(int[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readInt();
+        }
+    }
+
+    /**
+     * Reads {@code length} values into the given array, starting at {@code offset}.
+     *
+     * @see #readBooleans(boolean[], int, int)
+     */
+    default void readLongs(long[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readLong();
+        }
+    }
+
+    /**
+     * Reads {@code length} values into the given array, starting at {@code offset}.
+     *
+     * @see #readBooleans(boolean[], int, int)
+     */
+    default void readFloats(float[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readFloat();
+        }
+    }
+
+    /**
+     * Reads {@code length} values into the given array, starting at {@code offset}.
+     *
+     * @see #readBooleans(boolean[], int, int)
+     */
+    default void readDoubles(double[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readDouble();
+        }
+    }
+
     /**
      * Utility to ensure that there are enough remaining pieces of data in the payload
      * to allow an array of that size to be allocated. Normally this will just do a quick
@@ -78,5 +78,141 @@ public interface SerializationStreamWriter extends com.google.gwt.user.client.rp
      * @throws SerializationException
      */
     void writeString(String value) throws SerializationException;
-}
 
+    /**
+     * Writes {@code length} values from the given array, starting at {@code offset}. The data
+     * written is read back by {@link SerializationStreamReader#readBooleans(boolean[], int, int)}. By default
+     * this writes each value in turn, streams override it where the values can be copied at once.
+     *
+     * @param values the array holding the values to write
+     * @param offset index of the first value to write
+     * @param length number of values to write
+     * @throws SerializationException
+     */
+    default void writeBooleans(boolean[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeBoolean(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} values from the given array, starting at {@code offset}.
+     *
+     * @see #writeBooleans(boolean[], int, int)
+     */
+    default void writeBytes(byte[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeByte(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} values from the given array, starting at {@code offset}.
+     *
+     * @see #writeBooleans(boolean[], int, int)
+     */
+    default void writeChars(char[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeChar(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} values from the given array, starting at {@code offset}.
+     *
+     * @see #writeBooleans(boolean[], int, int)
+     */
+    default void writeShorts(short[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeShort(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} values from the given array, starting at {@code offset}.
+     *
+     * @see #writeBooleans(boolean[], int, int)
+     */
+    default void writeInts(int[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeInt(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} values from the given array, starting at {@code offset}.
+     *
+     * @see #writeBooleans(boolean[], int, int)
+     */
+    default void writeLongs(long[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeLong(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} values from the given array, starting at {@code offset}.
+     *
+     * @see #writeBooleans(boolean[], int, int)
+     */
+    default void writeFloats(float[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeFloat(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} values from the given array, starting at {@code offset}.
+     *
+     * @see #writeBooleans(boolean[], int, int)
+     */
+    default void writeDoubles(double[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeDouble(values[i]);
+        }
+    }
+
+    /**
+     * Returns the length of the payload written so far, in whatever unit the stream measures it, so
+     * that the stream can later be {@link #truncate(int) truncated} back to this point.
+     *
+     * @throws UnsupportedOperationException if the stream can't be truncated
+     */
+    default int mark() {
+        throw new UnsupportedOperationException("This stream can't be truncated");
+    }
+
+    /**
+     * Discards everything written since {@link #mark()} returned the given value. Objects first
+     * written after the mark are still remembered by the stream, and a later reference to one would
+     * point at nothing, so no more objects may be written after truncating.
+     *
+     * @param mark a value returned from {@link #mark()} on this stream
+     * @throws UnsupportedOperationException if the stream can't be truncated
+     */
+    default void truncate(int mark) {
+        throw new UnsupportedOperationException("This stream can't be truncated");
+    }
+
+    /**
+     * Marks the message written to this stream as finished, and adds a reference to it, so that the
+     * same message can be handed to more than one transport. Each reference must be balanced by a
+     * call to {@link #release()}, in addition to the one the writer starts with, and the resources
+     * held by the stream are only returned once the last reference is released. After this call the
+     * payload may be read once per reference, and nothing more may be written.
+     *
+     * @return this writer
+     * @throws UnsupportedOperationException if the stream can't share its payload
+     */
+    default SerializationStreamWriter retain() {
+        throw new UnsupportedOperationException("This stream can't be shared between transports");
+    }
+
+    /**
+     * Indicates that the data written to this stream is no longer needed, either because it was
+     * sent, or because the message will not be sent after all. Streams which hold pooled resources
+     * can return them at this point.
+     */
+    default void release() {
+    }
+}
@@ -26,6 +26,13 @@ import java.lang.annotation.*;
 @Target(ElementType.TYPE)
 @Retention(RetentionPolicy.CLASS)
 public @interface SerializationWiring {
+    /**
+     * Set to false if the types written and read with this wiring always form trees, so that
+     * streams don't need to track each object to write back-references to it. Objects that are
+     * referenced more than once are written again each time, and a cycle can't be written at all.
+     */
+    boolean objectIdentity() default true;
+
 //    Class<?>[] readBlacklist() default {};
 //    Class<?>[] writeBlacklist() default {};
 }
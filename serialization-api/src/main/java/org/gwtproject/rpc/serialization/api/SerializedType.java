@@ -0,0 +1,34 @@
+package org.gwtproject.rpc.serialization.api;
+
+/**
+ * Everything a stream writer needs to write an instance of one class: the type signature (or
+ * numeric type id) to write before it, and the field serializer to write its contents with.
+ * Instances are cached per class by the {@link TypeSerializer}, so writing an object only needs
+ * one lookup rather than computing the signature and then finding the serializer for it.
+ */
+public final class SerializedType {
+    private final String signature;
+    private final int typeId;
+    private final FieldSerializer serializer;
+
+    public SerializedType(String signature, int typeId, FieldSerializer serializer) {
+        this.signature = signature;
+        this.typeId = typeId;
+        this.serializer = serializer;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * Returns the numeric id of the type, or -1 if the type serializer doesn't assign ids.
+     */
+    public int getTypeId() {
+        return typeId;
+    }
+
+    public FieldSerializer getSerializer() {
+        return serializer;
+    }
+}
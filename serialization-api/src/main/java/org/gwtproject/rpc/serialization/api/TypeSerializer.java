@@ -19,11 +19,29 @@ public interface TypeSerializer {
     void deserialize(SerializationStreamReader stream, Object instance,
                      String typeSignature) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException;
 
+    /**
+     * Return false if objects written with this serializer never share references, so streams
+     * can skip tracking them by identity. Both ends of a connection must agree, and streams set
+     * a flag so that a reader can check it matches what the writer did.
+     */
+    default boolean tracksObjectIdentity() {
+        return true;
+    }
+
     /**
      * Return the serialization signature for the given type.
      */
     String getSerializationSignature(Class<?> clazz);
 
+    /**
+     * Return the signature, type id and field serializer to write instances of the given runtime
+     * class with, or null if this serializer doesn't know the class. Implementations are expected
+     * to cache the result, as it is looked up for every object written.
+     */
+    default SerializedType getSerializedType(Class<?> clazz) {
+        return null;
+    }
+
     /**
      * Instantiate an object of the given typeName from the serialized stream.
      */
@@ -35,4 +53,37 @@ public interface TypeSerializer {
      */
     void serialize(SerializationStreamWriter stream, Object instance,
                    String typeSignature) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException;
-}
\ No newline at end of file
+
+    /**
+     * Return the numeric id assigned to the given type, or -1 if this serializer doesn't assign
+     * ids or can't serialize the type. Ids are only meaningful between serializers with the same
+     * checksum.
+     */
+    default int getTypeId(Class<?> clazz) {
+        return -1;
+    }
+
+    /**
+     * Restore an instantiated object from the serialized stream, by the numeric id of its type.
+     */
+    default void deserialize(SerializationStreamReader stream, Object instance,
+                             int typeId) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        throw new SerializationException("Type ids are not supported by " + getClass());
+    }
+
+    /**
+     * Instantiate an object of the given numeric type id from the serialized stream.
+     */
+    default Object instantiate(SerializationStreamReader stream, int typeId)
+            throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        throw new SerializationException("Type ids are not supported by " + getClass());
+    }
+
+    /**
+     * Save an instance into the serialization stream, by the numeric id of its type.
+     */
+    default void serialize(SerializationStreamWriter stream, Object instance,
+                           int typeId) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        throw new SerializationException("Type ids are not supported by " + getClass());
+    }
+}
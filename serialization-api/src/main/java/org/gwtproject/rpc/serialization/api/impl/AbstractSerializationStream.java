@@ -47,10 +47,53 @@ public abstract class AbstractSerializationStream {
      */
     public static final int FLAG_RPC_TOKEN_INCLUDED = 0x2;
 
+    /**
+     * Indicates that integral values in a binary payload are written as variable length
+     * (LEB128) values, zigzag encoded when signed, rather than in a fixed number of bytes.
+     */
+    public static final int FLAG_VARINT_ENCODING = 0x4;
+
+    /**
+     * Indicates that objects are identified by the numeric type id assigned by the
+     * {@link org.gwtproject.rpc.serialization.api.TypeSerializer}, rather than by a type signature
+     * in the string table.
+     */
+    public static final int FLAG_TYPE_IDS = 0x8;
+
+    /**
+     * Indicates that objects are not tracked by identity, so every object is written in full each
+     * time it is referenced and the payload contains no back-references. Only suitable for
+     * payloads which are trees, as a cycle would never finish writing.
+     */
+    public static final int FLAG_NO_OBJECT_IDENTITY = 0x10;
+
+    /**
+     * Indicates that byte and boolean arrays written with the bulk stream methods are packed into a
+     * single base-64 token in a string payload, rather than written as one token per value. Binary
+     * payloads are the same with or without this flag.
+     */
+    public static final int FLAG_PACKED_ARRAYS = 0x20;
+
+    /**
+     * Indicates that the payload holds several messages one after the other, each followed by a
+     * boolean which is true if another message follows. The messages share the string table, but
+     * each starts with an empty object table, so no message refers back to objects written by
+     * another, see {@link AbstractSerializationStreamWriter#resetObjectIdentity()}.
+     */
+    public static final int FLAG_BATCH = 0x40;
+
+    /**
+     * Indicates that the string table of a binary payload refers to strings sent in earlier
+     * messages on the same connection, rather than holding every string in full. Strings are
+     * written in full once, and after that as their index in a dictionary of recently sent strings
+     * which both ends of the connection keep.
+     */
+    public static final int FLAG_STRING_DICTIONARY = 0x80;
+
     /**
      * Bit mask representing all valid flags.
      */
-    public static final int VALID_FLAGS_MASK = 0x3;
+    public static final int VALID_FLAGS_MASK = 0xFF;
 
     private int flags = DEFAULT_FLAGS;
     private int version = SERIALIZATION_STREAM_VERSION;
@@ -95,10 +138,17 @@ public abstract class AbstractSerializationStream {
      * Keep this synchronized with the version in Base64Utils.
      */
     protected static long longFromBase64(String value) {
-        int pos = 0;
+        return longFromBase64(value, 0, value.length());
+    }
+
+    /**
+     * Parse the base-64 encoded long value found between {@code start} (inclusive) and {@code end}
+     * (exclusive) of the given characters, without copying them to a new string first.
+     */
+    protected static long longFromBase64(CharSequence value, int start, int end) {
+        int pos = start;
         long longVal = base64Value(value.charAt(pos++));
-        int len = value.length();
-        while (pos < len) {
+        while (pos < end) {
             longVal <<= 6;
             longVal |= base64Value(value.charAt(pos++));
         }
@@ -138,25 +188,35 @@ public abstract class AbstractSerializationStream {
             haveNonZero = true;
         }
         if (haveNonZero) {
-            int c;
-            if (digit < 26) {
-                c = 'A' + digit;
-            } else if (digit < 52) {
-                c = 'a' + digit - 26;
-            } else if (digit < 62) {
-                c = '0' + digit - 52;
-            } else if (digit == 62) {
-                c = '$';
-            } else {
-                c = '_';
-            }
-            sb.append((char) c);
+            sb.append(base64Digit(digit));
         }
         return haveNonZero;
     }
 
-    // Assume digit is one of [A-Za-z0-9$_]
-    private static int base64Value(char digit) {
+    /**
+     * Returns the character for the given value from 0 to 63, one of [A-Za-z0-9$_].
+     */
+    protected static char base64Digit(int digit) {
+        int c;
+        if (digit < 26) {
+            c = 'A' + digit;
+        } else if (digit < 52) {
+            c = 'a' + digit - 26;
+        } else if (digit < 62) {
+            c = '0' + digit - 52;
+        } else if (digit == 62) {
+            c = '$';
+        } else {
+            c = '_';
+        }
+        return (char) c;
+    }
+
+    /**
+     * Returns the value from 0 to 63 of the given character, which is assumed to be one of
+     * [A-Za-z0-9$_].
+     */
+    protected static int base64Value(char digit) {
         if (digit >= 'A' && digit <= 'Z') {
             return digit - 'A';
         }
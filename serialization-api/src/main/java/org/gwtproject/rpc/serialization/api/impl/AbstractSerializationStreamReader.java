@@ -2,6 +2,7 @@ package org.gwtproject.rpc.serialization.api.impl;
 
 import org.gwtproject.rpc.serialization.api.SerializationException;
 import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
 
 import java.util.ArrayList;
 
@@ -68,6 +69,8 @@ public abstract class AbstractSerializationStreamReader extends
 
     private ArrayList<Object> seenArray = new ArrayList<Object>();
 
+    private final long createdMillis = System.currentTimeMillis();
+
     //TODO set some standards on all wrapped input like version and int?
     //TODO allow reusing/rereading a stream (as in "seenArray.clear()")?
 //    /**
@@ -87,16 +90,40 @@ public abstract class AbstractSerializationStreamReader extends
 //        setFlags(readInt());
 //    }
 
+    /**
+     * Returns the time at which this reader was created. Transports create the reader as soon as
+     * the message arrives, before handing it to another thread, so this is when the message was
+     * received rather than when it is read.
+     */
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * Forgets the objects read so far, called between the messages of a batch to match
+     * {@link AbstractSerializationStreamWriter#resetObjectIdentity()}.
+     */
+    public void resetObjectIdentity() {
+        seenArray.clear();
+    }
+
     public final Object readObject() throws com.google.gwt.user.client.rpc.SerializationException {
         int token = readInt();
 
         if (token < 0) {
+            if (hasFlags(FLAG_NO_OBJECT_IDENTITY)) {
+                throw new SerializationException("Back-reference found in a stream written without object identity");
+            }
             // Negative means a previous object
             // Transform negative 1-based to 0-based.
             return seenArray.get(-(token + 1));
         }
 
         // Positive means a new object
+        if (hasFlags(FLAG_TYPE_IDS)) {
+            // Zero means null, otherwise the type id shifted by one
+            return token == 0 ? null : deserialize(token - 1);
+        }
         String typeSignature = getString(token);
         if (typeSignature == null) {
             // a null string means a null instance
@@ -106,6 +133,24 @@ public abstract class AbstractSerializationStreamReader extends
         return deserialize(typeSignature);
     }
 
+    /**
+     * Checks the flags read from the stream header, so that a peer which writes in a format this
+     * reader doesn't support, or which disagrees with the serializer about tracking object
+     * identity, fails on its first message instead of being misread.
+     *
+     * @param serializer the serializer this stream will be read with
+     * @throws IllegalArgumentException if the flags are not acceptable
+     */
+    protected final void checkFlags(TypeSerializer serializer) {
+        if (!areFlagsValid()) {
+            throw new IllegalArgumentException("Unsupported stream flags: " + getFlags());
+        }
+        if (hasFlags(FLAG_NO_OBJECT_IDENTITY) == serializer.tracksObjectIdentity()) {
+            throw new IllegalArgumentException("Stream was written " + (serializer.tracksObjectIdentity() ? "without" : "with")
+                    + " object identity, but " + serializer.getClass().getName() + " expects the opposite");
+        }
+    }
+
     /**
      * Deserialize an object with the given type signature.
      *
@@ -116,6 +161,19 @@ public abstract class AbstractSerializationStreamReader extends
     protected abstract Object deserialize(String typeSignature)
             throws com.google.gwt.user.client.rpc.SerializationException;
 
+    /**
+     * Deserialize an object with the given numeric type id, used instead of the type signature
+     * when {@link #FLAG_TYPE_IDS} is set.
+     *
+     * @param typeId the type id to deserialize
+     * @return the deserialized object
+     * @throws SerializationException
+     */
+    protected Object deserialize(int typeId)
+            throws com.google.gwt.user.client.rpc.SerializationException {
+        throw new SerializationException("Type ids are not supported by " + getClass());
+    }
+
     /**
      * Get the previously seen object at the given index which must be 1-based.
      *
@@ -144,6 +202,10 @@ public abstract class AbstractSerializationStreamReader extends
      */
 
     protected final void rememberDecodedObject(int index, Object o) {
+        if (hasFlags(FLAG_NO_OBJECT_IDENTITY)) {
+            // nothing will refer back to it
+            return;
+        }
         // index is 1-based
         seenArray.set(index - 1, o);
     }
@@ -154,6 +216,9 @@ public abstract class AbstractSerializationStreamReader extends
      * @return the index to be used in future for the object
      */
     protected final int reserveDecodedObjectIndex() {
+        if (hasFlags(FLAG_NO_OBJECT_IDENTITY)) {
+            return 0;
+        }
         seenArray.add(null);
 
         // index is 1-based
@@ -2,6 +2,7 @@ package org.gwtproject.rpc.serialization.api.impl;
 
 import org.gwtproject.rpc.serialization.api.SerializationException;
 import org.gwtproject.rpc.serialization.api.SerializationStreamWriter;
+import org.gwtproject.rpc.serialization.api.SerializedType;
 
 import java.util.*;
 
@@ -40,7 +41,7 @@ public abstract class AbstractSerializationStreamWriter extends
 
     private int objectCount;
 
-    private Map<Object, Integer> objectMap = new IdentityHashMap<Object, Integer>();
+    private final ObjectIdentityTable objectTable = new ObjectIdentityTable();
 
     private Map<String, Integer> stringMap = new HashMap<String, Integer>();
 
@@ -48,11 +49,20 @@ public abstract class AbstractSerializationStreamWriter extends
 
     public void prepareToWrite() {
         objectCount = 0;
-        objectMap.clear();
+        objectTable.clear();
         stringMap.clear();
         stringTable.clear();
     }
 
+    /**
+     * Forgets the objects written so far, so that the next message in a batch doesn't refer back
+     * to objects written by earlier ones, which may have changed since. Strings are still shared.
+     */
+    public void resetObjectIdentity() {
+        objectCount = 0;
+        objectTable.clear();
+    }
+
 //    @Override
 //    public abstract String toString();
 
@@ -90,15 +100,44 @@ public abstract class AbstractSerializationStreamWriter extends
             return;
         }
 
-        int objIndex = getIndexForObject(instance);
-        if (objIndex >= 0) {
-            // We've already encoded this object, make a backref
-            // Transform 0-based to negative 1-based
-            writeInt(-(objIndex + 1));
+        if (!hasFlags(FLAG_NO_OBJECT_IDENTITY)) {
+            // Look the object up and remember it for next time in one step
+            int objIndex = objectTable.putIfAbsent(instance, objectCount);
+            if (objIndex >= 0) {
+                // We've already encoded this object, make a backref
+                // Transform 0-based to negative 1-based
+                writeInt(-(objIndex + 1));
+                return;
+            }
+            objectCount++;
+        }
+
+        SerializedType type = getSerializedType(instance);
+        if (type != null) {
+            if (hasFlags(FLAG_TYPE_IDS)) {
+                if (type.getTypeId() < 0) {
+                    throw new SerializationException(
+                            "could not get type id for " + instance.getClass());
+                }
+                writeInt(type.getTypeId() + 1);
+            } else {
+                writeString(type.getSignature());
+            }
+            type.getSerializer().serial(this, instance);
             return;
         }
 
-        saveIndexForObject(instance);
+        if (hasFlags(FLAG_TYPE_IDS)) {
+            // Serialize the type id, shifted so that zero still means null
+            int typeId = getObjectTypeId(instance);
+            if (typeId < 0) {
+                throw new SerializationException(
+                        "could not get type id for " + instance.getClass());
+            }
+            writeInt(typeId + 1);
+            serialize(instance, typeId);
+            return;
+        }
 
         // Serialize the type signature
         String typeSignature = getObjectTypeSignature(instance);
@@ -156,7 +195,7 @@ public abstract class AbstractSerializationStreamWriter extends
      *         been seen before
      */
     protected int getIndexForObject(Object instance) {
-        return objectMap.containsKey(instance) ? objectMap.get(instance) : -1;
+        return objectTable.get(instance);
     }
 
     /**
@@ -168,6 +207,29 @@ public abstract class AbstractSerializationStreamWriter extends
     protected abstract String getObjectTypeSignature(Object instance)
             throws SerializationException;
 
+    /**
+     * Returns the cached signature, type id and field serializer for the runtime type of an
+     * object, or null if they aren't available, in which case the signature or type id are
+     * computed for each object instead.
+     *
+     * @param instance the instance to inspect
+     * @return the serialized type of the instance, or null
+     */
+    protected SerializedType getSerializedType(Object instance) {
+        return null;
+    }
+
+    /**
+     * Compute and return the numeric type id for an object, used instead of the type signature
+     * when {@link #FLAG_TYPE_IDS} is set.
+     *
+     * @param instance the instance to inspect
+     * @return the type id of the instance, or -1 if it has none
+     */
+    protected int getObjectTypeId(Object instance) {
+        return -1;
+    }
+
     /**
      * Gets the string table.
      */
@@ -181,7 +243,7 @@ public abstract class AbstractSerializationStreamWriter extends
      * @param instance the object to remember
      */
     protected void saveIndexForObject(Object instance) {
-        objectMap.put(instance, objectCount++);
+        objectTable.put(instance, objectCount++);
     }
 
     /**
@@ -193,4 +255,16 @@ public abstract class AbstractSerializationStreamWriter extends
      */
     protected abstract void serialize(Object instance, String typeSignature)
             throws com.google.gwt.user.client.rpc.SerializationException;
-}
\ No newline at end of file
+
+    /**
+     * Serialize an object into the stream, using the numeric id of its type.
+     *
+     * @param instance the object to serialize
+     * @param typeId the type id of the object
+     * @throws SerializationException
+     */
+    protected void serialize(Object instance, int typeId)
+            throws com.google.gwt.user.client.rpc.SerializationException {
+        throw new SerializationException("Type ids are not supported by " + getClass());
+    }
+}
@@ -0,0 +1,125 @@
+package org.gwtproject.rpc.serialization.api.impl;
+
+import java.util.Arrays;
+
+/**
+ * Map from objects, compared by identity, to non-negative int values, used by stream writers to
+ * find objects they have already written. Keys and values are kept in parallel arrays with open
+ * addressing and linear probing, so a lookup touches no boxed Integers or entry objects, and
+ * {@link #putIfAbsent(Object, int)} both finds an existing object and adds a new one in a single
+ * probe sequence.
+ * <p></p>
+ * Clearing the table keeps its arrays, so a writer which is reused for many messages only grows
+ * it to fit the largest of them.
+ */
+final class ObjectIdentityTable {
+    private static final int DEFAULT_CAPACITY = 32;
+
+    private Object[] keys;
+    private int[] values;
+    private int size;
+
+    ObjectIdentityTable() {
+        keys = new Object[DEFAULT_CAPACITY];
+        values = new int[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Returns the value for the given object, or -1 if it isn't in the table.
+     */
+    int get(Object key) {
+        int mask = keys.length - 1;
+        for (int i = indexFor(key, mask); ; i = (i + 1) & mask) {
+            Object candidate = keys[i];
+            if (candidate == key) {
+                return values[i];
+            }
+            if (candidate == null) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the value for the given object if it is already in the table, otherwise adds it with
+     * the given value and returns -1.
+     */
+    int putIfAbsent(Object key, int value) {
+        int mask = keys.length - 1;
+        for (int i = indexFor(key, mask); ; i = (i + 1) & mask) {
+            Object candidate = keys[i];
+            if (candidate == key) {
+                return values[i];
+            }
+            if (candidate == null) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size > keys.length >> 1) {
+                    resize();
+                }
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Adds the given object to the table, replacing its value if it is already present.
+     */
+    void put(Object key, int value) {
+        int mask = keys.length - 1;
+        for (int i = indexFor(key, mask); ; i = (i + 1) & mask) {
+            Object candidate = keys[i];
+            if (candidate == key) {
+                values[i] = value;
+                return;
+            }
+            if (candidate == null) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size > keys.length >> 1) {
+                    resize();
+                }
+                return;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all objects, keeping the current capacity.
+     */
+    void clear() {
+        if (size != 0) {
+            Arrays.fill(keys, null);
+            size = 0;
+        }
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new Object[oldKeys.length << 1];
+        values = new int[oldKeys.length << 1];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            Object key = oldKeys[j];
+            if (key != null) {
+                int i = indexFor(key, mask);
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int indexFor(Object key, int mask) {
+        int h = System.identityHashCode(key);
+        // spread the high bits down, as only the low bits pick the slot
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -4,10 +4,15 @@ import org.gwtproject.rpc.serialization.api.*;
 
 /**
  * Trivial implementation, assuming that the actual serializers are mapped by Class.getName.
+ * Subclasses which assign numeric ids to their types can also look serializers up by id.
  */
 public abstract class TypeSerializerImpl implements TypeSerializer {
     protected abstract FieldSerializer serializer(String name);
 
+    protected FieldSerializer serializer(int typeId) {
+        throw new IllegalArgumentException("Type ids are not supported by " + getClass());
+    }
+
     @Override
     public void deserialize(SerializationStreamReader stream, Object instance, String typeSignature) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
         serializer(typeSignature).deserial(stream, instance);
@@ -18,6 +23,19 @@ public abstract class TypeSerializerImpl implements TypeSerializer {
         return clazz.getCanonicalName();
     }
 
+    /**
+     * Returns the class whose signature is written for instances of the given runtime class. This
+     * is the class itself, except for enum constants with a body, which are written as the enum
+     * they belong to.
+     */
+    protected static Class<?> getSerializedClass(Class<?> clazz) {
+        Class<?> superclass = clazz.getSuperclass();
+        if (superclass != null && superclass.isEnum()) {
+            return superclass;
+        }
+        return clazz;
+    }
+
     @Override
     public Object instantiate(SerializationStreamReader stream, String typeSignature) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
         return serializer(typeSignature).create(stream);
@@ -27,4 +45,19 @@ public abstract class TypeSerializerImpl implements TypeSerializer {
     public void serialize(SerializationStreamWriter stream, Object instance, String typeSignature) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
         serializer(typeSignature).serial(stream, instance);
     }
+
+    @Override
+    public void deserialize(SerializationStreamReader stream, Object instance, int typeId) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        serializer(typeId).deserial(stream, instance);
+    }
+
+    @Override
+    public Object instantiate(SerializationStreamReader stream, int typeId) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        return serializer(typeId).create(stream);
+    }
+
+    @Override
+    public void serialize(SerializationStreamWriter stream, Object instance, int typeId) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        serializer(typeId).serial(stream, instance);
+    }
 }
@@ -30,6 +30,7 @@ import javax.tools.FileObject;
 import javax.tools.StandardLocation;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -243,7 +244,7 @@ public class Processor extends AbstractProcessor {
 
         // write type serializer, pointing at required field serializers and their appropriate use in each direction
         //TODO consider only doing this once, later, so we can be sure classes are still needed? not sure...
-        writeTypeSerializer(prefix, packageName, models, hash);
+        writeTypeSerializer(prefix, packageName, models, hash, serializationInterface.getAnnotation(SerializationWiring.class).objectIdentity());
 
     }
 
@@ -390,7 +391,7 @@ public class Processor extends AbstractProcessor {
         JavaFile.builder(packageName, implTypeBuilder.build()).build().writeTo(filer);
     }
 
-    private void writeTypeSerializer(String prefix, String packageName, List<SerializableTypeModel> models, String hash) throws IOException {
+    private void writeTypeSerializer(String prefix, String packageName, List<SerializableTypeModel> models, String hash, boolean objectIdentity) throws IOException {
         Builder typeSerializer = TypeSpec.classBuilder(prefix + "_TypeSerializer")
                 .superclass(TypeSerializerImpl.class)
                 .addModifiers(Modifier.PUBLIC);
@@ -402,12 +403,31 @@ public class Processor extends AbstractProcessor {
                 "fieldSerializer",
                 Modifier.PRIVATE, Modifier.FINAL, Modifier.STATIC).initializer("new $T()", ClassName.get(HashMap.class)).build());
 
-        CodeBlock.Builder clinit = CodeBlock.builder();
+        // sort by name so that both ends of a connection with the same checksum assign the same ids
+        TreeMap<String, SerializableTypeModel> instantiable = new TreeMap<>();
         for (SerializableTypeModel model : models) {
             if (model.mayBeInstantiated()) {
-                clinit.addStatement("fieldSerializer.put($S, new $T())", types.erasure(model.getType()), model.getFieldSerializer());
+                instantiable.put(types.erasure(model.getType()).toString(), model);
             }
         }
+
+        typeSerializer.addField(FieldSpec.builder(
+                FieldSerializer[].class,
+                "fieldSerializersById",
+                Modifier.PRIVATE, Modifier.FINAL, Modifier.STATIC).initializer("new $T[$L]", FieldSerializer.class, instantiable.size()).build());
+        typeSerializer.addField(FieldSpec.builder(
+                ParameterizedTypeName.get(Map.class, String.class, Integer.class),
+                "typeIds",
+                Modifier.PRIVATE, Modifier.FINAL, Modifier.STATIC).initializer("new $T()", ClassName.get(HashMap.class)).build());
+
+        CodeBlock.Builder clinit = CodeBlock.builder();
+        int typeId = 0;
+        for (Map.Entry<String, SerializableTypeModel> entry : instantiable.entrySet()) {
+            clinit.addStatement("fieldSerializersById[$L] = new $T()", typeId, entry.getValue().getFieldSerializer());
+            clinit.addStatement("fieldSerializer.put($S, fieldSerializersById[$L])", entry.getKey(), typeId);
+            clinit.addStatement("typeIds.put($S, $L)", entry.getKey(), typeId);
+            typeId++;
+        }
         typeSerializer.addStaticBlock(clinit.build());
 
         typeSerializer.addMethod(MethodSpec.methodBuilder("serializer")
@@ -418,6 +438,59 @@ public class Processor extends AbstractProcessor {
                 .addStatement("return fieldSerializer.computeIfAbsent(name, ignore -> {throw new IllegalArgumentException(name);})")
                 .build());
 
+        typeSerializer.addMethod(MethodSpec.methodBuilder("serializer")
+                .addModifiers(Modifier.PROTECTED)
+                .addAnnotation(Override.class)
+                .addParameter(int.class, "typeId")
+                .returns(FieldSerializer.class)
+                .beginControlFlow("if (typeId < 0 || typeId >= fieldSerializersById.length)")
+                .addStatement("throw new IllegalArgumentException(String.valueOf(typeId))")
+                .endControlFlow()
+                .addStatement("return fieldSerializersById[typeId]")
+                .build());
+
+        // cached per runtime class and shared by all instances, rather than computing each signature as it is written
+        typeSerializer.addField(FieldSpec.builder(
+                ParameterizedTypeName.get(ClassName.get(Map.class), ParameterizedTypeName.get(ClassName.get(Class.class), WildcardTypeName.subtypeOf(Object.class)), ClassName.get(SerializedType.class)),
+                "serializedTypes",
+                Modifier.PRIVATE, Modifier.FINAL, Modifier.STATIC).initializer("new $T<>()", ClassName.get(ConcurrentHashMap.class)).build());
+
+        typeSerializer.addMethod(MethodSpec.methodBuilder("getSerializedType")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(Override.class)
+                .addParameter(ParameterizedTypeName.get(ClassName.get(Class.class), WildcardTypeName.subtypeOf(Object.class)), "clazz")
+                .returns(SerializedType.class)
+                .addStatement("$T type = serializedTypes.get(clazz)", SerializedType.class)
+                .beginControlFlow("if (type == null)")
+                .addStatement("String signature = getSerializationSignature(getSerializedClass(clazz))")
+                .addStatement("$T serializer = fieldSerializer.get(signature)", FieldSerializer.class)
+                .beginControlFlow("if (serializer == null)")
+                .addStatement("return null")
+                .endControlFlow()
+                .addStatement("type = new $T(signature, typeIds.get(signature), serializer)", SerializedType.class)
+                .addStatement("serializedTypes.put(clazz, type)")
+                .endControlFlow()
+                .addStatement("return type")
+                .build());
+
+        typeSerializer.addMethod(MethodSpec.methodBuilder("getTypeId")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(Override.class)
+                .addParameter(ParameterizedTypeName.get(ClassName.get(Class.class), WildcardTypeName.subtypeOf(Object.class)), "clazz")
+                .returns(int.class)
+                .addStatement("Integer typeId = typeIds.get(getSerializationSignature(clazz))")
+                .addStatement("return typeId == null ? -1 : typeId")
+                .build());
+
+        if (!objectIdentity) {
+            typeSerializer.addMethod(MethodSpec.methodBuilder("tracksObjectIdentity")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addAnnotation(Override.class)
+                    .returns(boolean.class)
+                    .addStatement("return false")
+                    .build());
+        }
+
         typeSerializer.addMethod(MethodSpec.methodBuilder("getChecksum")
                 .addModifiers(Modifier.PUBLIC)
                 .returns(String.class)
@@ -456,11 +529,19 @@ public class Processor extends AbstractProcessor {
                 .addException(com.google.gwt.user.client.rpc.SerializationException.class)
                 .addException(SerializationException.class);
 
+        // primitive arrays are read and written in bulk, so streams can copy them at once
+        boolean bulk = rank == 1 && componentType.getKind().isPrimitive();
+
         //TODO for readObject, share the Object_Array_CustomFieldSerializer
-        deserializeMethodBuilder
-                .beginControlFlow("for (int i = 0, n = instance.length; i < n; ++i)")
-                .addStatement("instance[i] = ($T$L) reader.read$L()", componentType, extraArrayRank, SerializableTypeModel.getStreamMethodSuffix(componentType, rank - 1))
-                .endControlFlow();
+        if (bulk) {
+            deserializeMethodBuilder
+                    .addStatement("reader.read$Ls(instance, 0, instance.length)", SerializableTypeModel.getStreamMethodSuffix(componentType, 0));
+        } else {
+            deserializeMethodBuilder
+                    .beginControlFlow("for (int i = 0, n = instance.length; i < n; ++i)")
+                    .addStatement("instance[i] = ($T$L) reader.read$L()", componentType, extraArrayRank, SerializableTypeModel.getStreamMethodSuffix(componentType, rank - 1))
+                    .endControlFlow();
+        }
 
         fieldSerializerType.addMethod(deserializeMethodBuilder.build());
 
@@ -475,10 +556,16 @@ public class Processor extends AbstractProcessor {
                 .addException(SerializationException.class);
 
         serializeMethodBuilder
-                .addStatement("writer.writeInt(instance.length)")
-                .beginControlFlow("for (int i = 0, n = instance.length; i < n; ++i)")
-                .addStatement("writer.write$L(instance[i])", SerializableTypeModel.getStreamMethodSuffix(componentType, rank - 1))
-                .endControlFlow();
+                .addStatement("writer.writeInt(instance.length)");
+        if (bulk) {
+            serializeMethodBuilder
+                    .addStatement("writer.write$Ls(instance, 0, instance.length)", SerializableTypeModel.getStreamMethodSuffix(componentType, 0));
+        } else {
+            serializeMethodBuilder
+                    .beginControlFlow("for (int i = 0, n = instance.length; i < n; ++i)")
+                    .addStatement("writer.write$L(instance[i])", SerializableTypeModel.getStreamMethodSuffix(componentType, rank - 1))
+                    .endControlFlow();
+        }
 
         fieldSerializerType.addMethod(serializeMethodBuilder.build());
 
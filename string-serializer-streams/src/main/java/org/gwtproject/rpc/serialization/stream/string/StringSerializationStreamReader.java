@@ -7,25 +7,52 @@ import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStreamRead
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Reads the tokens of a string payload in place, moving a cursor from one separator to the next.
+ * Numbers are parsed directly from the payload, so only the entries of the string table are ever
+ * copied out of it.
+ */
 public class StringSerializationStreamReader extends AbstractSerializationStreamReader {
+    /**
+     * Powers of ten which are exactly representable as doubles, for the fast path of readDouble.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
     private final TypeSerializer serializer;
 
     private int claimedTokens;
 
-    private int tokenIndex = 0;
-    private final List<String> tokens = new ArrayList<>();
+    private final CharSequence payload;
+    private final int tokenCount;
+
+    // start of the next token, and the separator which ends it
+    private int position;
+    private int tokenEnd;
 
     private final List<String> stringTable = new ArrayList<>();
 
     public StringSerializationStreamReader(TypeSerializer serializer, String payload) {
+        this(serializer, (CharSequence) payload);
+    }
+
+    public StringSerializationStreamReader(TypeSerializer serializer, CharSequence payload) {
         this.serializer = serializer;
+        this.payload = payload;
 
-        int idx = 0, nextIdx;
-        while (-1 != (nextIdx = payload.indexOf(RPC_SEPARATOR_CHAR, idx))) {
-            String current = payload.substring(idx, nextIdx);
-            tokens.add(current);
-            idx = nextIdx + 1;
+        // count the tokens up front so claimItems can check against them, any characters after
+        // the last separator are not a token
+        int count = 0;
+        for (int i = 0, length = payload.length(); i < length; i++) {
+            if (payload.charAt(i) == RPC_SEPARATOR_CHAR) {
+                count++;
+            }
         }
+        tokenCount = count;
+
+        int idx;
 
         try {
             // Read the stream version number
@@ -35,6 +62,7 @@ public class StringSerializationStreamReader extends AbstractSerializationStream
             // Read the flags from the stream
             //
             setFlags(readInt());
+            checkFlags(serializer);
 
             int stringCount = readInt();
             claimItems(stringCount);
@@ -103,6 +131,15 @@ public class StringSerializationStreamReader extends AbstractSerializationStream
         return instance;
     }
 
+    @Override
+    protected Object deserialize(int typeId) throws com.google.gwt.user.client.rpc.SerializationException {
+        int id = reserveDecodedObjectIndex();
+        Object instance = serializer.instantiate(this, typeId);
+        rememberDecodedObject(id, instance);
+        serializer.deserialize(this, instance, typeId);
+        return instance;
+    }
+
     @Override
     protected String getString(int index) {
         if (index == 0) {
@@ -114,19 +151,128 @@ public class StringSerializationStreamReader extends AbstractSerializationStream
         return stringTable.get(index - 1);
     }
 
-    private String token() {
-      return tokens.get(tokenIndex++);
+    /**
+     * Moves the cursor past the next token, returning the index it starts at. The token ends at
+     * {@link #tokenEnd}, the index of its separator.
+     */
+    private int next() throws SerializationException {
+        int start = position;
+        int end = start;
+        int length = payload.length();
+        while (end < length && payload.charAt(end) != RPC_SEPARATOR_CHAR) {
+            end++;
+        }
+        if (end == length) {
+            throw new SerializationException("Unexpected end of payload after " + start + " characters");
+        }
+        tokenEnd = end;
+        position = end + 1;
+        return start;
     }
 
+    private String token() throws SerializationException {
+        int start = next();
+        return payload.subSequence(start, tokenEnd).toString();
+    }
+
+    private int parseInt(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end) {
+            char first = payload.charAt(i);
+            if (first == '-') {
+                negative = true;
+                i++;
+            } else if (first == '+') {
+                i++;
+            }
+        }
+        // nine digits can't overflow, leave anything longer or empty to Integer.parseInt
+        if (i == end || end - i > 9) {
+            return Integer.parseInt(payload.subSequence(start, end).toString());
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = payload.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                // let parseInt report the malformed token
+                return Integer.parseInt(payload.subSequence(start, end).toString());
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
 
     @Override
     public boolean readBoolean() throws SerializationException {
-        return !token().equals("0");
+        int start = next();
+        return tokenEnd - start != 1 || payload.charAt(start) != '0';
+    }
+
+    @Override
+    public void readBooleans(boolean[] values, int offset, int length) throws SerializationException {
+        if (!hasFlags(FLAG_PACKED_ARRAYS)) {
+            super.readBooleans(values, offset, length);
+            return;
+        }
+        int start = next();
+        checkPackedLength(start, (length + 5) / 6, length);
+        int end = offset + length;
+        for (int i = offset, pos = start; i < end; i += 6, pos++) {
+            int digit = base64Value(payload.charAt(pos));
+            for (int j = 0; j < 6 && i + j < end; j++) {
+                values[i + j] = (digit & (0x20 >> j)) != 0;
+            }
+        }
+    }
+
+    @Override
+    public void readBytes(byte[] values, int offset, int length) throws SerializationException {
+        if (!hasFlags(FLAG_PACKED_ARRAYS)) {
+            super.readBytes(values, offset, length);
+            return;
+        }
+        int start = next();
+        int remainder = length % 3;
+        checkPackedLength(start, length / 3 * 4 + (remainder == 0 ? 0 : remainder + 1), length);
+        int end = offset + length;
+        int i = offset;
+        int pos = start;
+        for (; end - i >= 3; i += 3, pos += 4) {
+            int bits = base64Value(payload.charAt(pos)) << 18
+                    | base64Value(payload.charAt(pos + 1)) << 12
+                    | base64Value(payload.charAt(pos + 2)) << 6
+                    | base64Value(payload.charAt(pos + 3));
+            values[i] = (byte) (bits >> 16);
+            values[i + 1] = (byte) (bits >> 8);
+            values[i + 2] = (byte) bits;
+        }
+        if (remainder == 1) {
+            int bits = base64Value(payload.charAt(pos)) << 6 | base64Value(payload.charAt(pos + 1));
+            values[i] = (byte) (bits >> 4);
+        } else if (remainder == 2) {
+            int bits = base64Value(payload.charAt(pos)) << 12
+                    | base64Value(payload.charAt(pos + 1)) << 6
+                    | base64Value(payload.charAt(pos + 2));
+            values[i] = (byte) (bits >> 10);
+            values[i + 1] = (byte) (bits >> 2);
+        }
+    }
+
+    private void checkPackedLength(int start, int expected, int length) throws SerializationException {
+        if (tokenEnd - start != expected) {
+            throw new SerializationException("Expected " + expected + " characters for a packed array of "
+                    + length + " values, found " + (tokenEnd - start));
+        }
     }
 
     @Override
     public byte readByte() throws SerializationException {
-        return Byte.parseByte(token());
+        int value = readInt();
+        if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+            throw new NumberFormatException("Value out of range for a byte: " + value);
+        }
+        return (byte) value;
     }
 
     @Override
@@ -136,7 +282,43 @@ public class StringSerializationStreamReader extends AbstractSerializationStream
 
     @Override
     public double readDouble() throws SerializationException {
-        return Double.parseDouble(token());
+        int start = next();
+        int end = tokenEnd;
+
+        // Doubles are usually written with few digits, like "1.0" or "-0.25". When the digits fit
+        // in the 53 bit mantissa and are divided by an exact power of ten, the result is correctly
+        // rounded, the same as parseDouble would give. Anything else (exponents, NaN, more digits)
+        // is left to parseDouble.
+        int i = start;
+        boolean negative = false;
+        if (i < end && payload.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+        double mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            char ch = payload.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                if (++digits > 15) {
+                    break;
+                }
+                mantissa = mantissa * 10 + (ch - '0');
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (ch == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == end && digits > 0) {
+            double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(payload.subSequence(start, end).toString());
     }
 
     @Override
@@ -146,17 +328,23 @@ public class StringSerializationStreamReader extends AbstractSerializationStream
 
     @Override
     public int readInt() throws SerializationException {
-        return Integer.parseInt(token());
+        int start = next();
+        return parseInt(start, tokenEnd);
     }
 
     @Override
     public long readLong() throws SerializationException {
-        return longFromBase64(token());
+        int start = next();
+        return longFromBase64(payload, start, tokenEnd);
     }
 
     @Override
     public short readShort() throws SerializationException {
-        return Short.parseShort(token());
+        int value = readInt();
+        if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+            throw new NumberFormatException("Value out of range for a short: " + value);
+        }
+        return (short) value;
     }
 
     @Override
@@ -166,7 +354,9 @@ public class StringSerializationStreamReader extends AbstractSerializationStream
 
     @Override
     public void claimItems(int slots) throws SerializationException {
-        if (claimedTokens + slots > tokens.size() + stringTable.size()) {
+        // packed arrays hold many values in one token, so check against the characters instead
+        int available = hasFlags(FLAG_PACKED_ARRAYS) ? payload.length() : tokenCount;
+        if (claimedTokens + slots > available + stringTable.size()) {
             throw new SerializationException("Request claims to be larger than it is");
         }
         claimedTokens += slots;
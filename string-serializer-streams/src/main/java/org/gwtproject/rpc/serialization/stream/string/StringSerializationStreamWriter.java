@@ -1,11 +1,15 @@
 package org.gwtproject.rpc.serialization.stream.string;
 
+import org.gwtproject.rpc.serialization.api.SerializationException;
+import org.gwtproject.rpc.serialization.api.SerializedType;
 import org.gwtproject.rpc.serialization.api.TypeSerializer;
 import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStreamWriter;
 
+import java.io.IOException;
 import java.util.List;
 
 public class StringSerializationStreamWriter extends AbstractSerializationStreamWriter {
+    private static final int WRITE_CHUNK_SIZE = 8192;
 
 //    /**
 //     * Used by JSNI, see {@link #quoteString(String)}.
@@ -50,6 +54,12 @@ public class StringSerializationStreamWriter extends AbstractSerializationStream
         sb.append(RPC_SEPARATOR_CHAR);
     }
 
+    private static void append(Appendable out, String token) throws IOException {
+        assert (token != null);
+        out.append(token);
+        out.append(RPC_SEPARATOR_CHAR);
+    }
+
 //    /**
 //     * Create the RegExp instance used for quoting dangerous characters in user
 //     * payload strings.
@@ -87,6 +97,9 @@ public class StringSerializationStreamWriter extends AbstractSerializationStream
 
     private StringBuilder encodeBuffer;
 
+    // the finished payload, once the message is shared between transports, see retain()
+    private String shared;
+
     private final TypeSerializer serializer;
 
     /**
@@ -97,6 +110,9 @@ public class StringSerializationStreamWriter extends AbstractSerializationStream
      */
     public StringSerializationStreamWriter(TypeSerializer serializer) {
         this.serializer = serializer;
+        if (!serializer.tracksObjectIdentity()) {
+            addFlags(FLAG_NO_OBJECT_IDENTITY);
+        }
     }
 
     /**
@@ -107,17 +123,129 @@ public class StringSerializationStreamWriter extends AbstractSerializationStream
     public void prepareToWrite() {
         super.prepareToWrite();
         encodeBuffer = new StringBuilder();
+        shared = null;
+    }
+
+    @Override
+    public int mark() {
+        return encodeBuffer.length();
+    }
+
+    @Override
+    public void truncate(int mark) {
+        if (mark < 0 || mark > encodeBuffer.length()) {
+            throw new IllegalArgumentException("Not a mark in the current payload: " + mark);
+        }
+        encodeBuffer.setLength(mark);
+    }
+
+    /**
+     * Finishes the message so that it can be passed to several transports, building the payload
+     * once rather than each time it is read. No resources are pooled, so releasing a reference does
+     * nothing.
+     */
+    @Override
+    public StringSerializationStreamWriter retain() {
+        if (shared == null) {
+            shared = toString();
+        }
+        return this;
     }
 
     @Override
     public String toString() {
-        StringBuilder buffer = new StringBuilder();
-        writeHeader(buffer);
-        writeStringTable(buffer);
-        writePayload(buffer);
+        if (shared != null) {
+            return shared;
+        }
+        StringBuilder buffer = new StringBuilder(estimateLength());
+        try {
+            writeHeader(buffer);
+            writeStringTable(buffer);
+        } catch (IOException e) {
+            // cannot happen, StringBuilder doesn't throw
+            throw new IllegalStateException(e);
+        }
+        buffer.append(encodeBuffer);
         return buffer.toString();
     }
 
+    /**
+     * Writes the same characters that {@link #toString()} returns to the given output, without
+     * first building them into one string. The encoded values are appended in chunks of at most
+     * {@value #WRITE_CHUNK_SIZE} characters, so that a {@link java.io.Writer} only needs to copy a
+     * bounded amount at a time. The encoded values themselves are still held by this writer until
+     * the message is written, as the string table has to be written before them.
+     *
+     * @param out the output to write the payload to
+     * @throws IOException if the output fails
+     */
+    public void writeTo(Appendable out) throws IOException {
+        if (shared != null) {
+            out.append(shared);
+            return;
+        }
+        writeHeader(out);
+        writeStringTable(out);
+        for (int start = 0, length = encodeBuffer.length(); start < length; start += WRITE_CHUNK_SIZE) {
+            out.append(encodeBuffer, start, Math.min(length, start + WRITE_CHUNK_SIZE));
+        }
+    }
+
+    /**
+     * Writes the given booleans, packed six to a character in one token if
+     * {@link #FLAG_PACKED_ARRAYS} is set, with the first value in the highest bit.
+     */
+    @Override
+    public void writeBooleans(boolean[] values, int offset, int length) throws SerializationException {
+        if (!hasFlags(FLAG_PACKED_ARRAYS)) {
+            super.writeBooleans(values, offset, length);
+            return;
+        }
+        int end = offset + length;
+        for (int i = offset; i < end; i += 6) {
+            int digit = 0;
+            for (int j = 0; j < 6 && i + j < end; j++) {
+                if (values[i + j]) {
+                    digit |= 0x20 >> j;
+                }
+            }
+            encodeBuffer.append(base64Digit(digit));
+        }
+        encodeBuffer.append(RPC_SEPARATOR_CHAR);
+    }
+
+    /**
+     * Writes the given bytes, packed as base-64 in one token if {@link #FLAG_PACKED_ARRAYS} is set.
+     * Each three bytes take four characters, and a final one or two bytes take two or three.
+     */
+    @Override
+    public void writeBytes(byte[] values, int offset, int length) throws SerializationException {
+        if (!hasFlags(FLAG_PACKED_ARRAYS)) {
+            super.writeBytes(values, offset, length);
+            return;
+        }
+        int end = offset + length;
+        int i = offset;
+        for (; end - i >= 3; i += 3) {
+            int bits = (values[i] & 0xFF) << 16 | (values[i + 1] & 0xFF) << 8 | (values[i + 2] & 0xFF);
+            encodeBuffer.append(base64Digit(bits >> 18))
+                    .append(base64Digit((bits >> 12) & 0x3F))
+                    .append(base64Digit((bits >> 6) & 0x3F))
+                    .append(base64Digit(bits & 0x3F));
+        }
+        if (end - i == 1) {
+            int bits = (values[i] & 0xFF) << 4;
+            encodeBuffer.append(base64Digit(bits >> 6))
+                    .append(base64Digit(bits & 0x3F));
+        } else if (end - i == 2) {
+            int bits = (values[i] & 0xFF) << 10 | (values[i + 1] & 0xFF) << 2;
+            encodeBuffer.append(base64Digit(bits >> 12))
+                    .append(base64Digit((bits >> 6) & 0x3F))
+                    .append(base64Digit(bits & 0x3F));
+        }
+        encodeBuffer.append(RPC_SEPARATOR_CHAR);
+    }
+
     @Override
     public void writeLong(long value) {
         append(longToBase64(value));
@@ -131,6 +259,11 @@ public class StringSerializationStreamWriter extends AbstractSerializationStream
         append(encodeBuffer, token);
     }
 
+    @Override
+    protected SerializedType getSerializedType(Object o) {
+        return serializer.getSerializedType(o.getClass());
+    }
+
     @Override
     protected String getObjectTypeSignature(Object o) {
         Class<?> clazz = o.getClass();
@@ -143,47 +276,83 @@ public class StringSerializationStreamWriter extends AbstractSerializationStream
         return serializer.getSerializationSignature(clazz);
     }
 
+    @Override
+    protected int getObjectTypeId(Object o) {
+        Class<?> clazz = o.getClass();
+
+        if (o instanceof Enum<?>) {
+            Enum<?> e = (Enum<?>) o;
+            clazz = e.getDeclaringClass();
+        }
+
+        return serializer.getTypeId(clazz);
+    }
+
     @Override
     protected void serialize(Object instance, String typeSignature)
             throws com.google.gwt.user.client.rpc.SerializationException {
         serializer.serialize(this, instance, typeSignature);
     }
 
-    private void writeHeader(StringBuilder buffer) {
-        append(buffer, String.valueOf(getVersion()));
-        append(buffer, String.valueOf(getFlags()));
+    private void writeHeader(Appendable out) throws IOException {
+        append(out, String.valueOf(getVersion()));
+        append(out, String.valueOf(getFlags()));
     }
 
-    private void writePayload(StringBuilder buffer) {
-        buffer.append(encodeBuffer.toString());
-    }
-
-    private void writeStringTable(StringBuilder buffer) {
+    private void writeStringTable(Appendable out) throws IOException {
         List<String> stringTable = getStringTable();
-        append(buffer, String.valueOf(stringTable.size()));
+        append(out, String.valueOf(stringTable.size()));
         for (String s : stringTable) {
-            append(buffer, quoteString(s));
+            appendQuoted(out, s);
+        }
+    }
+
+    /**
+     * Returns the length of the finished payload, assuming that no string needs escaping. The
+     * header is at most two ints and the string count, each with its separator.
+     */
+    private int estimateLength() {
+        int length = 3 * 12 + encodeBuffer.length();
+        for (String s : getStringTable()) {
+            length += s.length() + 1;
         }
+        return length;
     }
 
     /**
-     * Quote characters in a user-supplied string to make sure they are safe to
-     * send to the server.
+     * Appends a user-supplied string as a token, quoting characters to make sure they are safe to
+     * send. Backslashes are doubled, and the null and separator characters are replaced with
+     * {@code \0} and {@code \!}. Runs of safe characters are copied as they are, so a string with
+     * nothing to quote is appended in one call.
      *
+     * @param out the output to append to
      * @param str string to quote
-     * @return quoted string
      */
-    private static String quoteString(String str) {
-        return str
-                // replace all plain slash with double-slash (has to be first so we can add slashes later)
-                .replaceAll("\\\\", "\\\\\\\\")
-                // replace null char with literal slash, zero
-                .replaceAll("\0", "\\\\0")
-                // replace pipe char with literal slash, !
-                .replaceAll("\\|", "\\\\!")
-                //replace all quote, with slash-quote
-                .replaceAll("\"", "\\\"");
-
-        //when reversed, replace slash-quote with quote, then undouble slashes
+    private static void appendQuoted(Appendable out, String str) throws IOException {
+        int length = str.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = str.charAt(i);
+            char escaped;
+            if (ch == '\\') {
+                escaped = '\\';
+            } else if (ch == '\0') {
+                escaped = '0';
+            } else if (ch == RPC_SEPARATOR_CHAR) {
+                escaped = '!';
+            } else {
+                continue;
+            }
+            out.append(str, start, i).append('\\').append(escaped);
+            start = i + 1;
+        }
+        out.append(str, start, length);
+        out.append(RPC_SEPARATOR_CHAR);
+    }
+
+    @Override
+    protected void serialize(Object instance, int typeId)
+            throws com.google.gwt.user.client.rpc.SerializationException {
+        serializer.serialize(this, instance, typeId);
     }
 }
@@ -6,7 +6,12 @@ import org.gwtproject.rpc.serialization.api.TypeSerializer;
 import org.gwtproject.rpc.serialization.api.impl.TypeSerializerImpl;
 import org.junit.Test;
 
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -171,4 +176,192 @@ public class ServerStreamTest {
         assertEquals(Double.POSITIVE_INFINITY, reader.readDouble(), 0);
 
     }
+
+    @Test
+    public void testDoublesMatchParseDouble() throws Exception {
+        StringSerializationStreamWriter writer = getStringStreamWriter();
+        Random random = new Random(1234);
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; i++) {
+            // mix short decimals, which take the fast path, with full precision values
+            values[i] = i % 2 == 0 ? Math.round(random.nextGaussian() * 100000) / 1000.0 : random.nextGaussian() * 1e6;
+            writer.writeDouble(values[i]);
+        }
+        writer.writeDouble(-0.0);
+        writer.writeDouble(0.1);
+        writer.writeDouble(123456789012345.6);
+
+        StringSerializationStreamReader reader = getStreamReader(writer);
+        for (double value : values) {
+            assertEquals(Double.doubleToRawLongBits(value), Double.doubleToRawLongBits(reader.readDouble()));
+        }
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(reader.readDouble()));
+        assertEquals(0.1, reader.readDouble(), 0);
+        assertEquals(123456789012345.6, reader.readDouble(), 0);
+    }
+
+    @Test
+    public void testSmallIntegers() throws Exception {
+        StringSerializationStreamWriter writer = getStringStreamWriter();
+        writer.writeBoolean(true);
+        writer.writeBoolean(false);
+        writer.writeByte(Byte.MIN_VALUE);
+        writer.writeByte(Byte.MAX_VALUE);
+        writer.writeShort(Short.MIN_VALUE);
+        writer.writeShort(Short.MAX_VALUE);
+        writer.writeChar('\uffff');
+        writer.writeInt(-999999999);
+
+        StringSerializationStreamReader reader = getStreamReader(writer);
+        assertTrue(reader.readBoolean());
+        assertFalse(reader.readBoolean());
+        assertEquals(Byte.MIN_VALUE, reader.readByte());
+        assertEquals(Byte.MAX_VALUE, reader.readByte());
+        assertEquals(Short.MIN_VALUE, reader.readShort());
+        assertEquals(Short.MAX_VALUE, reader.readShort());
+        assertEquals('\uffff', reader.readChar());
+        assertEquals(-999999999, reader.readInt());
+    }
+
+    @Test
+    public void testMalformedPayloads() throws Exception {
+        StringSerializationStreamWriter writer = getStringStreamWriter();
+        writer.writeInt(300);
+        writer.writeInt(1);
+        String payload = writer.toString();
+
+        StringSerializationStreamReader reader = new StringSerializationStreamReader(s, payload);
+        try {
+            reader.readByte();
+            fail("300 is not a byte");
+        } catch (NumberFormatException expected) {
+            // expected
+        }
+        assertEquals(1, reader.readInt());
+        try {
+            reader.readInt();
+            fail("No tokens remain");
+        } catch (SerializationException expected) {
+            // expected
+        }
+
+        // characters after the last separator are not a token, so can't be claimed
+        reader = new StringSerializationStreamReader(s, payload + "12");
+        reader.claimItems(5);
+        try {
+            reader.claimItems(1);
+            fail("Only 5 tokens are present");
+        } catch (SerializationException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStringTableQuoting() throws Exception {
+        StringSerializationStreamWriter writer = getStringStreamWriter();
+        writer.writeString("plain");
+        writer.writeString("a|b\\c\0\"");
+
+        // version, flags, string count, quoted strings, then the two string indexes
+        assertEquals(writer.getVersion() + "|0|2|plain|a\\!b\\\\c\\0\"|1|2|", writer.toString());
+    }
+
+    @Test
+    public void testWriteTo() throws Exception {
+        StringSerializationStreamWriter writer = getStringStreamWriter();
+        Random random = new Random(7);
+        // enough values that the encoded payload is written in several chunks
+        for (int i = 0; i < 5000; i++) {
+            writer.writeInt(random.nextInt());
+            writer.writeString("s" + (i % 100));
+        }
+
+        StringWriter out = new StringWriter();
+        writer.writeTo(out);
+        assertEquals(writer.toString(), out.toString());
+
+        StringSerializationStreamReader reader = new StringSerializationStreamReader(s, new StringBuilder(out.toString()));
+        Random expected = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(expected.nextInt(), reader.readInt());
+            assertEquals("s" + (i % 100), reader.readString());
+        }
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        StringSerializationStreamWriter writer = getStringStreamWriter();
+        writer.writeInt(1);
+        writer.writeString("kept");
+        int mark = writer.mark();
+        writer.writeInt(2);
+        writer.writeString("discarded");
+        writer.truncate(mark);
+        writer.writeBoolean(true);
+
+        StringSerializationStreamReader reader = new StringSerializationStreamReader(s, new StringBuilder(writer.toString()));
+        assertEquals(1, reader.readInt());
+        assertEquals("kept", reader.readString());
+        assertTrue(reader.readBoolean());
+    }
+
+    @Test
+    public void testPackedArrays() throws Exception {
+        for (int length = 0; length < 14; length++) {
+            byte[] bytes = new byte[length];
+            boolean[] booleans = new boolean[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (i * 73 - 128);
+                booleans[i] = i % 3 != 1;
+            }
+            int[] ints = {length, -length};
+
+            // without the flag, bulk writes are the same as writing each value
+            StringSerializationStreamWriter plain = getStringStreamWriter();
+            StringSerializationStreamWriter scalar = getStringStreamWriter();
+            plain.writeBytes(bytes, 0, length);
+            plain.writeBooleans(booleans, 0, length);
+            plain.writeInts(ints, 0, 2);
+            for (byte value : bytes) {
+                scalar.writeByte(value);
+            }
+            for (boolean value : booleans) {
+                scalar.writeBoolean(value);
+            }
+            scalar.writeInt(length);
+            scalar.writeInt(-length);
+            assertEquals(scalar.toString(), plain.toString());
+
+            StringSerializationStreamWriter packed = getStringStreamWriter();
+            packed.setFlags(StringSerializationStreamWriter.FLAG_PACKED_ARRAYS);
+            packed.writeBytes(bytes, 0, length);
+            packed.writeBooleans(booleans, 0, length);
+            packed.writeInts(ints, 0, 2);
+            if (length > 2) {
+                assertTrue(packed.toString().length() < plain.toString().length());
+            }
+
+            StringSerializationStreamReader reader = getStreamReader(packed);
+            reader.claimItems(length * 2);
+            byte[] readBytes = new byte[length];
+            reader.readBytes(readBytes, 0, length);
+            assertArrayEquals(bytes, readBytes);
+            boolean[] readBooleans = new boolean[length];
+            reader.readBooleans(readBooleans, 0, length);
+            assertArrayEquals(booleans, readBooleans);
+            assertEquals(length, reader.readInt());
+            assertEquals(-length, reader.readInt());
+        }
+
+        // a packed token which doesn't match the array length is rejected
+        StringSerializationStreamWriter packed = getStringStreamWriter();
+        packed.setFlags(StringSerializationStreamWriter.FLAG_PACKED_ARRAYS);
+        packed.writeBytes(new byte[4], 0, 4);
+        try {
+            getStreamReader(packed).readBytes(new byte[5], 0, 5);
+            fail("Expected SerializationException");
+        } catch (SerializationException expected) {
+            // expected
+        }
+    }
 }
@@ -20,6 +20,7 @@
 package sharedchat.server;
 
 import org.gwtproject.rpc.servlet.websocket.AbstractServerImpl;
+import org.gwtproject.rpc.api.Broadcast;
 import sharedchat.common.shared.ChatClient;
 import sharedchat.common.shared.ChatClient_Impl;
 import sharedchat.common.shared.ChatServer;
@@ -65,9 +66,10 @@ public class ChatServerImpl extends AbstractServerImpl<ChatServer, ChatClient> i
 		ChatClient c = getClient();
 		String userName = loggedIn.get(c);
 
-		for (ChatClient connected : loggedIn.keySet()) {
-			connected.say(userName, message);
-		}
+		// serialize the message once, rather than once per connected client
+		Broadcast<ChatClient> said = broadcast(connected -> connected.say(userName, message));
+		said.sendTo(loggedIn.keySet());
+		said.release();
 	}
 
 	@Override